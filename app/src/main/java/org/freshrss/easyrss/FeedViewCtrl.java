@@ -16,6 +16,7 @@ import java.util.LinkedList;
 import java.util.List;
 
 import org.freshrss.easyrss.R;
+import org.freshrss.easyrss.ItemListLoader.ItemListLoaderListener;
 import org.freshrss.easyrss.data.DataMgr;
 import org.freshrss.easyrss.data.DataUtils;
 import org.freshrss.easyrss.data.Item;
@@ -58,7 +59,7 @@ import android.widget.CompoundButton.OnCheckedChangeListener;
 import android.widget.ListView;
 import android.widget.Toast;
 
-public class FeedViewCtrl extends AbsViewCtrl implements ItemListWrapperListener {
+public class FeedViewCtrl extends AbsViewCtrl implements ItemListWrapperListener, ItemListLoaderListener {
     private class FeedListAdapterListener implements OnItemTouchListener {
         private float lastX;
         private float lastY;
@@ -204,8 +205,6 @@ public class FeedViewCtrl extends AbsViewCtrl implements ItemListWrapperListener
     };
 
     final private static String INTENT_KEY_ID = "id";
-    final private static String ITEM_PROJECTION[] = new String[] { Item._UID, Item._TITLE, ItemState._ISREAD,
-            ItemState._ISSTARRED, Item._TIMESTAMP, Item._UPDATETIME, Item._SOURCETITLE };
 
     final private static int MSG_DISMISS_DIALOG = 1;
     final private static int MSG_ITEM_LONG_CLICK = 0;
@@ -224,9 +223,7 @@ public class FeedViewCtrl extends AbsViewCtrl implements ItemListWrapperListener
 
     private boolean isAvailable;
     final private boolean isDecendingOrdering;
-    private boolean isEnd;
-    private String lastDateString;
-    private long lastTimestamp;
+    final private ItemListLoader loader;
     final private ItemListWrapper lstWrapper;
     private ItemDataSyncer syncer;
     private final String uid;
@@ -243,14 +240,15 @@ public class FeedViewCtrl extends AbsViewCtrl implements ItemListWrapperListener
         this.uid = uid;
         this.viewType = viewType;
         this.isAvailable = false;
-        this.isEnd = false;
-        this.lastTimestamp = 0;
+        this.loader = new ItemListLoader(context, getItemsUri(), getCondition(), isDecendingOrdering,
+                getTitlePrefix());
 
+        loader.setListener(this);
         lstWrapper.setListener(this);
         lstWrapper.setAdapterListener(new FeedListAdapterListener());
     }
 
-    private String getCondition(final long timestamp) {
+    private String getCondition() {
         final StringBuilder builder = new StringBuilder();
         if (viewType == Home.VIEW_TYPE_UNREAD) {
             appendCondition(builder, ItemState._ISREAD + "=0");
@@ -260,16 +258,15 @@ public class FeedViewCtrl extends AbsViewCtrl implements ItemListWrapperListener
         if (uid.length() > 0 && !DataUtils.isTagUid(uid)) {
             appendCondition(builder, Item._SOURCEURI + "=\"" + uid + "\"");
         }
-        if (timestamp > 0) {
-            if (isDecendingOrdering) {
-                appendCondition(builder, Item._TIMESTAMP + "<" + timestamp);
-            } else {
-                appendCondition(builder, Item._TIMESTAMP + ">" + timestamp);
-            }
-        }
         return builder.toString();
     }
 
+    @SuppressWarnings("deprecation")
+    private Uri getItemsUri() {
+        return DataUtils.isTagUid(uid) ? Uri.withAppendedPath(Tag.CONTENT_URI, "items/" + URLEncoder.encode(uid))
+                : Item.CONTENT_URI;
+    }
+
     public ListItemItem getLastItem(final String uid) {
         final ListAdapter adapter = lstWrapper.getAdapter();
         int location = adapter.getItemLocationById(uid) - 1;
@@ -285,15 +282,32 @@ public class FeedViewCtrl extends AbsViewCtrl implements ItemListWrapperListener
         if (location + 10 >= adapter.getCount()) {
             showItemList();
         }
+        if (location >= adapter.getCount() && !loader.isEnd()) {
+            /* showItemList only requests the page, which may not be queried yet */
+            loader.loadNow();
+        }
         while (location < adapter.getCount() && !(adapter.getItem(location) instanceof ListItemItem)) {
             location++;
             if (location >= adapter.getCount()) {
-                showItemList();
+                loader.loadNow();
             }
         }
         return (location >= adapter.getCount()) ? null : (ListItemItem) adapter.getItem(location);
     }
 
+    private String getTitlePrefix() {
+        switch (viewType) {
+        case Home.VIEW_TYPE_ALL:
+            return ListItemItem.ITEM_TITLE_TYPE_ALL;
+        case Home.VIEW_TYPE_STARRED:
+            return ListItemItem.ITEM_TITLE_TYPE_STARRED;
+        case Home.VIEW_TYPE_UNREAD:
+            return ListItemItem.ITEM_TITLE_TYPE_UNREAD;
+        default:
+            return "";
+        }
+    }
+
     public String getUid() {
         return uid;
     }
@@ -305,7 +319,7 @@ public class FeedViewCtrl extends AbsViewCtrl implements ItemListWrapperListener
     @Override
     public void handleOnSyncFinished(final String syncerType, final boolean succeeded) {
         if (syncerType.equals(ItemDataSyncer.class.getName())) {
-            isEnd = false;
+            loader.reset();
             showItemList();
         }
     }
@@ -319,12 +333,9 @@ public class FeedViewCtrl extends AbsViewCtrl implements ItemListWrapperListener
             @Override
             public void run() {
                 final ContentResolver resolver = context.getContentResolver();
-                String condition = getCondition(0);
+                String condition = getCondition();
                 condition = appendCondition(condition, ItemState._ISREAD + "=0");
-                @SuppressWarnings("deprecation")
-                final Uri uri = DataUtils.isTagUid(uid) ? Uri.withAppendedPath(Tag.CONTENT_URI,
-                        "items/" + URLEncoder.encode(uid)) : Item.CONTENT_URI;
-                final Cursor cur = resolver.query(uri, null, condition, null, null);
+                final Cursor cur = resolver.query(getItemsUri(), null, condition, null, null);
                 final List<Item> items = new LinkedList<Item>();
                 for (cur.moveToFirst(); !cur.isAfterLast(); cur.moveToNext()) {
                     items.add(Item.fromCursor(cur));
@@ -409,6 +420,7 @@ public class FeedViewCtrl extends AbsViewCtrl implements ItemListWrapperListener
     public void onDestory() {
         NetworkMgr.getInstance().removeListener(this);
         dataMgr.removeOnItemUpdatedListener(lstWrapper);
+        loader.close();
     }
 
     @Override
@@ -416,55 +428,23 @@ public class FeedViewCtrl extends AbsViewCtrl implements ItemListWrapperListener
         showItemList();
     }
 
-    private void showItemList() {
-        if (isEnd) {
-            return;
-        }
+    @Override
+    public void onPageLoaded(final List<AbsListItem> rows, final boolean isEnd) {
         lstWrapper.removeItemEnd();
-        final ContentResolver resolver = context.getContentResolver();
-        @SuppressWarnings("deprecation")
-        final Uri uri = DataUtils.isTagUid(uid) ? Uri.withAppendedPath(Tag.CONTENT_URI,
-                "items/" + URLEncoder.encode(uid)) : Item.CONTENT_URI;
-        final Cursor cur = resolver.query(uri, ITEM_PROJECTION, getCondition(lastTimestamp), null, Item._TIMESTAMP
-                + ((isDecendingOrdering) ? " DESC LIMIT 20" : " LIMIT 20"));
-        int count = 0;
-        for (cur.moveToFirst(); !cur.isAfterLast(); cur.moveToNext()) {
-            final Item item = Item.fromCursor(cur);
-            count++;
-            lastTimestamp = item.getTimestamp();
-            final String curDateString = Utils.timestampToTimeAgo(context, item.getTimestamp());
-            if (!curDateString.equals(lastDateString)) {
-                String s;
-                switch (viewType) {
-                case Home.VIEW_TYPE_ALL:
-                    s = ListItemItem.ITEM_TITLE_TYPE_ALL;
-                    break;
-                case Home.VIEW_TYPE_STARRED:
-                    s = ListItemItem.ITEM_TITLE_TYPE_STARRED;
-                    break;
-                case Home.VIEW_TYPE_UNREAD:
-                    s = ListItemItem.ITEM_TITLE_TYPE_UNREAD;
-                    break;
-                default:
-                    s = "";
-                }
-                s += curDateString;
-                lstWrapper.updateTitle(s, curDateString);
-                lastDateString = curDateString;
-            }
-            lstWrapper.updateItem(item);
-        }
-        cur.close();
-        if (count < 20) {
+        lstWrapper.appendItems(rows);
+        if (isEnd) {
             if (!isDecendingOrdering || (viewType == Home.VIEW_TYPE_STARRED && uid.length() > 0)) {
                 lstWrapper.updateItemEndDisabled();
             } else {
                 updateLoadMore();
             }
-            isEnd = true;
         }
     }
 
+    private void showItemList() {
+        loader.requestMore();
+    }
+
     private void updateLoadMore() {
         if (syncer == null) {
             final SettingSyncMethod sSync = new SettingSyncMethod(dataMgr);
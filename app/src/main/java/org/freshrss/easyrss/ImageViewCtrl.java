@@ -21,6 +21,7 @@ import java.net.URL;
 import java.net.URLConnection;
 import org.freshrss.easyrss.R;
 import org.freshrss.easyrss.data.DataMgr;
+import org.freshrss.easyrss.network.FetchScheduler;
 import org.freshrss.easyrss.view.AbsViewCtrl;
 import org.freshrss.easyrss.view.OnScaleChangedListener;
 import org.freshrss.easyrss.view.TouchImageView;
@@ -145,6 +146,7 @@ public class ImageViewCtrl extends AbsViewCtrl implements ItemListWrapperListene
                         handler.sendMessage(handler.obtainMessage(MSG_IMG_FAILED, ImageViewCtrl.this));
                     }
                 } else {
+                    FetchScheduler.getInstance().beginForeground();
                     try {
                         final URLConnection connection = new URL(imgPath).openConnection();
                         connection.setConnectTimeout(30 * 1000);
@@ -171,6 +173,8 @@ public class ImageViewCtrl extends AbsViewCtrl implements ItemListWrapperListene
                     } catch (final IOException exception) {
                         exception.printStackTrace();
                         handler.sendMessage(handler.obtainMessage(MSG_IMG_FAILED, ImageViewCtrl.this));
+                    } finally {
+                        FetchScheduler.getInstance().endForeground();
                     }
                 }
             }
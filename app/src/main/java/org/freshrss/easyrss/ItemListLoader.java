@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Pursuer (http://pursuer.me).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Pursuer - initial API and implementation
+ ******************************************************************************/
+
+package org.freshrss.easyrss;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.freshrss.easyrss.data.Item;
+import org.freshrss.easyrss.data.ItemState;
+import org.freshrss.easyrss.listadapter.AbsListItem;
+import org.freshrss.easyrss.listadapter.ListItemItem;
+import org.freshrss.easyrss.listadapter.ListItemTitle;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Message;
+
+/*
+ * Loads the item list of a feed page by page on a background thread. Pages
+ * are keyed by the (timestamp, uid) of their last row, so that rows sharing a
+ * timestamp are neither skipped nor repeated. As soon as a page is shown the
+ * next one is fetched in advance, and pages are handed to the main thread as
+ * ready-made list rows.
+ *
+ * Apart from the query itself, everything here runs on the main thread.
+ */
+public class ItemListLoader {
+    public interface ItemListLoaderListener {
+        void onPageLoaded(List<AbsListItem> rows, boolean isEnd);
+    }
+
+    private static class Page {
+        final private ItemListLoader loader;
+        final private int generation;
+        final private long fromTimestamp;
+        final private String fromUid;
+        final private List<AbsListItem> rows;
+        private long lastTimestamp;
+        private String lastUid;
+        private String lastDateString;
+        private boolean isEnd;
+
+        public Page(final ItemListLoader loader, final int generation, final long fromTimestamp,
+                final String fromUid, final String fromDateString) {
+            this.loader = loader;
+            this.generation = generation;
+            this.fromTimestamp = fromTimestamp;
+            this.fromUid = fromUid;
+            this.rows = new ArrayList<AbsListItem>(PAGE_SIZE * 2);
+            this.lastTimestamp = fromTimestamp;
+            this.lastUid = fromUid;
+            this.lastDateString = fromDateString;
+            this.isEnd = false;
+        }
+    }
+
+    final private static String ITEM_PROJECTION[] = new String[] { Item._UID, Item._TITLE, ItemState._ISREAD,
+            ItemState._ISSTARRED, Item._TIMESTAMP, Item._UPDATETIME, Item._SOURCETITLE };
+    final private static int MSG_PAGE_LOADED = 0;
+    final public static int PAGE_SIZE = 20;
+
+    final private static ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    final private static Handler handler = new Handler() {
+        @Override
+        public void handleMessage(final Message msg) {
+            if (msg.what == MSG_PAGE_LOADED && msg.obj instanceof Page) {
+                final Page page = (Page) msg.obj;
+                page.loader.onPageQueried(page);
+            }
+        }
+    };
+
+    private static boolean isSameKey(final Page page, final long timestamp, final String uid) {
+        return page.fromTimestamp == timestamp && (page.fromUid == null ? uid == null : page.fromUid.equals(uid));
+    }
+
+    final private Context context;
+    final private Uri uri;
+    final private String condition;
+    final private boolean isDecendingOrdering;
+    final private String titlePrefix;
+    private ItemListLoaderListener listener;
+    private int generation;
+    private long lastTimestamp;
+    private String lastUid;
+    private String lastDateString;
+    private boolean isEnd;
+    private boolean isLoading;
+    private boolean isWanted;
+    private Page prefetched;
+
+    /*
+     * @param condition the selection of the feed, without any paging
+     * @param titlePrefix prepended to the date of every title row to make its
+     * id unique among the list
+     */
+    public ItemListLoader(final Context context, final Uri uri, final String condition,
+            final boolean isDecendingOrdering, final String titlePrefix) {
+        this.context = context;
+        this.uri = uri;
+        this.condition = condition;
+        this.isDecendingOrdering = isDecendingOrdering;
+        this.titlePrefix = titlePrefix;
+        this.generation = 0;
+        this.lastTimestamp = 0;
+        this.lastUid = null;
+        this.lastDateString = null;
+        this.isEnd = false;
+        this.isLoading = false;
+        this.isWanted = false;
+        this.prefetched = null;
+    }
+
+    private void applyPage(final Page page) {
+        lastTimestamp = page.lastTimestamp;
+        lastUid = page.lastUid;
+        lastDateString = page.lastDateString;
+        isEnd = page.isEnd;
+        isWanted = false;
+        if (listener != null) {
+            listener.onPageLoaded(page.rows, page.isEnd);
+        }
+        if (!isEnd) {
+            startQuery();
+        }
+    }
+
+    public void close() {
+        generation++;
+        listener = null;
+        prefetched = null;
+    }
+
+    public boolean isEnd() {
+        return isEnd;
+    }
+
+    /*
+     * Shows the next page right away, querying it on the calling thread if it
+     * has not been fetched yet. Only meant for callers that can't wait.
+     */
+    public void loadNow() {
+        if (isEnd) {
+            return;
+        }
+        if (prefetched != null) {
+            final Page page = prefetched;
+            prefetched = null;
+            applyPage(page);
+        } else {
+            /* drops the result of a query that may still be running */
+            generation++;
+            isLoading = false;
+            applyPage(queryPage(new Page(this, generation, lastTimestamp, lastUid, lastDateString)));
+        }
+    }
+
+    private void onPageQueried(final Page page) {
+        if (page.generation != generation || !isSameKey(page, lastTimestamp, lastUid)) {
+            return;
+        }
+        isLoading = false;
+        if (isWanted) {
+            applyPage(page);
+        } else {
+            prefetched = page;
+        }
+    }
+
+    private Page queryPage(final Page page) {
+        final StringBuilder builder = new StringBuilder(condition);
+        final String[] args;
+        if (page.fromUid != null) {
+            final char op = isDecendingOrdering ? '<' : '>';
+            if (builder.length() > 0) {
+                builder.append(" AND ");
+            }
+            builder.append('(');
+            builder.append(Item._TIMESTAMP);
+            builder.append(op);
+            builder.append(page.fromTimestamp);
+            builder.append(" OR (");
+            builder.append(Item._TIMESTAMP);
+            builder.append('=');
+            builder.append(page.fromTimestamp);
+            builder.append(" AND ");
+            builder.append(Item._UID);
+            builder.append(op);
+            builder.append("?))");
+            args = new String[] { page.fromUid };
+        } else {
+            args = null;
+        }
+        final String order = isDecendingOrdering ? " DESC" : "";
+        final Cursor cur = context.getContentResolver().query(uri, ITEM_PROJECTION, builder.toString(), args,
+                Item._TIMESTAMP + order + "," + Item._UID + order + " LIMIT " + PAGE_SIZE);
+        final int iUid = cur.getColumnIndex(Item._UID);
+        final int iTitle = cur.getColumnIndex(Item._TITLE);
+        final int iIsRead = cur.getColumnIndex(ItemState._ISREAD);
+        final int iIsStarred = cur.getColumnIndex(ItemState._ISSTARRED);
+        final int iTimestamp = cur.getColumnIndex(Item._TIMESTAMP);
+        final int iUpdateTime = cur.getColumnIndex(Item._UPDATETIME);
+        final int iSourceTitle = cur.getColumnIndex(Item._SOURCETITLE);
+        int count = 0;
+        for (cur.moveToFirst(); !cur.isAfterLast(); cur.moveToNext()) {
+            count++;
+            final String uid = cur.getString(iUid);
+            final long timestamp = cur.getLong(iTimestamp);
+            final long updateTime = cur.getLong(iUpdateTime);
+            final String curDateString = Utils.timestampToTimeAgo(context, timestamp);
+            if (!curDateString.equals(page.lastDateString)) {
+                page.rows.add(new ListItemTitle(titlePrefix + curDateString, curDateString));
+                page.lastDateString = curDateString;
+            }
+            page.rows.add(new ListItemItem(uid, cur.getString(iTitle), cur.getString(iSourceTitle), Utils
+                    .toBoolean(cur.getInt(iIsRead)), Utils.toBoolean(cur.getInt(iIsStarred)),
+                    (updateTime > 0) ? updateTime : timestamp));
+            page.lastTimestamp = timestamp;
+            page.lastUid = uid;
+        }
+        cur.close();
+        page.isEnd = (count < PAGE_SIZE);
+        return page;
+    }
+
+    /*
+     * Shows the next page as soon as it is available.
+     */
+    public void requestMore() {
+        if (isEnd) {
+            return;
+        }
+        isWanted = true;
+        if (prefetched != null) {
+            final Page page = prefetched;
+            prefetched = null;
+            applyPage(page);
+        } else if (!isLoading) {
+            startQuery();
+        }
+    }
+
+    /*
+     * Continues after the last shown row, e.g. when a sync added items after
+     * the list had ended.
+     */
+    public void reset() {
+        generation++;
+        isEnd = false;
+        isLoading = false;
+        prefetched = null;
+    }
+
+    public void setListener(final ItemListLoaderListener listener) {
+        this.listener = listener;
+    }
+
+    private void startQuery() {
+        isLoading = true;
+        final Page page = new Page(this, generation, lastTimestamp, lastUid, lastDateString);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queryPage(page);
+                } catch (final Exception exception) {
+                    exception.printStackTrace();
+                    page.rows.clear();
+                    page.isEnd = true;
+                }
+                handler.sendMessage(handler.obtainMessage(MSG_PAGE_LOADED, page));
+            }
+        });
+    }
+}
@@ -11,6 +11,8 @@
 
 package org.freshrss.easyrss;
 
+import java.util.List;
+
 import org.freshrss.easyrss.data.Item;
 import org.freshrss.easyrss.data.OnItemUpdatedListener;
 import org.freshrss.easyrss.listadapter.AbsListItem;
@@ -53,6 +55,10 @@ public class ItemListWrapper implements OnItemUpdatedListener {
         });
     }
 
+    public void appendItems(final List<AbsListItem> rows) {
+        adapter.addItems(rows);
+    }
+
     public ListAdapter getAdapter() {
         return adapter;
     }
@@ -15,17 +15,22 @@ import java.io.File;
 
 import org.freshrss.easyrss.data.DataMgr;
 import org.freshrss.easyrss.data.DataUtils;
+import org.freshrss.easyrss.data.ImageCache;
 import org.freshrss.easyrss.data.OnSettingUpdatedListener;
 import org.freshrss.easyrss.data.Setting;
 import org.freshrss.easyrss.data.readersetting.SettingBrowserChoice;
 import org.freshrss.easyrss.data.readersetting.SettingDescendingItemsOrdering;
 import org.freshrss.easyrss.data.readersetting.SettingFontSize;
 import org.freshrss.easyrss.data.readersetting.SettingHttpsConnection;
+import org.freshrss.easyrss.data.readersetting.SettingImageCacheSize;
 import org.freshrss.easyrss.data.readersetting.SettingImageFetching;
 import org.freshrss.easyrss.data.readersetting.SettingImagePrefetching;
+import org.freshrss.easyrss.data.readersetting.SettingImageTranscoding;
 import org.freshrss.easyrss.data.readersetting.SettingImmediateStateSyncing;
 import org.freshrss.easyrss.data.readersetting.SettingMarkAllAsReadConfirmation;
+import org.freshrss.easyrss.data.readersetting.SettingMaxItemAge;
 import org.freshrss.easyrss.data.readersetting.SettingMaxItems;
+import org.freshrss.easyrss.data.readersetting.SettingMaxItemsPerFeed;
 import org.freshrss.easyrss.data.readersetting.SettingNotificationOn;
 import org.freshrss.easyrss.data.readersetting.SettingSyncInterval;
 import org.freshrss.easyrss.data.readersetting.SettingSyncMethod;
@@ -58,8 +63,12 @@ public class SettingsViewCtrl extends AbsViewCtrl implements OnSettingUpdatedLis
 
         showSettingSync();
         showSettingMaxItems();
+        showSettingMaxItemsPerFeed();
+        showSettingMaxItemAge();
         showSettingImageFetching();
         showSettingImagePrefetching();
+        showSettingImageCacheSize();
+        showSettingImageTranscoding();
         showSettingImmediateStateSyncing();
         showSettingSyncInterval();
         showSettingHttpsConnection();
@@ -135,40 +144,55 @@ public class SettingsViewCtrl extends AbsViewCtrl implements OnSettingUpdatedLis
         dataMgr.removeOnSettingUpdatedListener(this);
     }
 
-    @SuppressLint("HandlerLeak")
     @Override
     public void onSettingUpdated(final String name) {
         if (name.equals(Setting.SETTING_SYNC_METHOD)) {
             showSettingSync();
         } else if (name.equals(Setting.SETTING_IMAGE_FETCHING)) {
             showSettingImageFetching();
+        } else if (name.equals(Setting.SETTING_IMAGE_CACHE_SIZE)) {
+            showSettingImageCacheSize();
+            final ImageCache cache = ImageCache.getInstance();
+            cache.setBudget(new SettingImageCacheSize(dataMgr).getData() * 1024L * 1024L);
+            cache.trimInBackground();
         } else if (name.equals(Setting.SETTING_MAX_ITEMS)) {
             showSettingMaxItems();
-            final SettingMaxItems sMaxItems = new SettingMaxItems(dataMgr);
-            final ProgressDialog dialog = ProgressDialog.show(context, context.getString(R.string.TxtWorking),
-                    context.getString(R.string.TxtRemovingOutdatedItems));
-            final Handler handler = new Handler() {
-                @Override
-                public void handleMessage(final Message msg) {
-                    if (msg.what == 0) {
-                        dialog.dismiss();
-                    }
-                }
-            };
-            final Thread thread = new Thread() {
-                @Override
-                public void run() {
-                    dataMgr.removeOutdatedItemsWithLimit(sMaxItems.getData());
-                    handler.sendEmptyMessage(0);
-                }
-            };
-            thread.setPriority(Thread.MIN_PRIORITY);
-            thread.start();
+            removeOutdatedItems();
+        } else if (name.equals(Setting.SETTING_MAX_ITEMS_PER_FEED)) {
+            showSettingMaxItemsPerFeed();
+            removeOutdatedItems();
+        } else if (name.equals(Setting.SETTING_MAX_ITEM_AGE)) {
+            showSettingMaxItemAge();
+            removeOutdatedItems();
         } else if (name.equals(Setting.SETTING_FONT_SIZE)) {
             showSettingFontSize();
         }
     }
 
+    @SuppressLint("HandlerLeak")
+    private void removeOutdatedItems() {
+        final ProgressDialog dialog = ProgressDialog.show(context, context.getString(R.string.TxtWorking),
+                context.getString(R.string.TxtRemovingOutdatedItems));
+        final Handler handler = new Handler() {
+            @Override
+            public void handleMessage(final Message msg) {
+                if (msg.what == 0) {
+                    dialog.dismiss();
+                }
+            }
+        };
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                dataMgr.removeOutdatedItemsWithLimits(new SettingMaxItems(dataMgr).getData(),
+                        new SettingMaxItemsPerFeed(dataMgr).toCount(), new SettingMaxItemAge(dataMgr).toMillis());
+                handler.sendEmptyMessage(0);
+            }
+        };
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
     private void showSettingAboutAuthor() {
         final View settingAbout = view.findViewById(R.id.SettingAboutAuthor);
         settingAbout.setOnTouchListener(new OnTouchListener() {
@@ -413,6 +437,56 @@ public class SettingsViewCtrl extends AbsViewCtrl implements OnSettingUpdatedLis
         });
     }
 
+    private void showSettingImageCacheSize() {
+        final TextView txt = (TextView) view.findViewById(R.id.TxtImageCacheSize);
+        final SettingImageCacheSize sCacheSize = new SettingImageCacheSize(dataMgr);
+        txt.setText(sCacheSize.getData() + "MB");
+
+        final LinearLayout settingCacheSize = (LinearLayout) view.findViewById(R.id.SettingImageCacheSize);
+        if (settingCacheSize != null) {
+            settingCacheSize.setOnTouchListener(new OnTouchListener() {
+                @Override
+                public boolean onTouch(final View view, final MotionEvent event) {
+                    switch (event.getAction()) {
+                    case MotionEvent.ACTION_DOWN:
+                        view.setPressed(true);
+                        break;
+                    case MotionEvent.ACTION_UP:
+                        view.setPressed(false);
+                        final String[] sItems = context.getResources().getStringArray(R.array.SettingImageCacheSize);
+                        int selId;
+                        for (selId = 0; selId < sItems.length
+                                && !sCacheSize.getData().equals(Integer.valueOf(sItems[selId])); selId++) {
+                        }
+                        final AlertDialog.Builder builder = new AlertDialog.Builder(new ContextThemeWrapper(context,
+                                android.R.style.Theme_DeviceDefault_Dialog));
+                        builder.setTitle(context.getString(R.string.TxtSettingImageCacheSize));
+                        builder.setSingleChoiceItems(sItems, selId, new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(final DialogInterface dialog, final int id) {
+                                sCacheSize.setData(dataMgr, Integer.valueOf(sItems[id]));
+                                dialog.dismiss();
+                            }
+                        });
+                        builder.setNegativeButton(context.getString(R.string.TxtCancel),
+                                new DialogInterface.OnClickListener() {
+                                    public void onClick(final DialogInterface dialog, final int which) {
+                                        dialog.dismiss();
+                                    }
+                                });
+                        builder.show();
+                        break;
+                    case MotionEvent.ACTION_CANCEL:
+                        view.setPressed(false);
+                        break;
+                    default:
+                    }
+                    return true;
+                }
+            });
+        }
+    }
+
     private void showSettingImageFetching() {
         final ImageView img = (ImageView) view.findViewById(R.id.SettingImageFetchingStatus);
         final SettingImageFetching sFetch = new SettingImageFetching(dataMgr);
@@ -488,6 +562,23 @@ public class SettingsViewCtrl extends AbsViewCtrl implements OnSettingUpdatedLis
         });
     }
 
+    private void showSettingImageTranscoding() {
+        final ImageView img = (ImageView) view.findViewById(R.id.SwitchImageTranscoding);
+        if (img == null) {
+            return;
+        }
+        final SettingImageTranscoding sTranscoding = new SettingImageTranscoding(dataMgr);
+        img.setImageResource(sTranscoding.getData() ? R.drawable.switch_on : R.drawable.switch_off);
+        img.setOnClickListener(new OnClickListener() {
+            @Override
+            public void onClick(final View view) {
+                sTranscoding.setData(dataMgr, !sTranscoding.getData());
+                dataMgr.updateSetting(sTranscoding.toSetting());
+                showSettingImageTranscoding();
+            }
+        });
+    }
+
     private void showSettingImmediateStateSyncing() {
         final ImageView img = (ImageView) view.findViewById(R.id.SwitchImmediateStateSyncing);
         if (img == null) {
@@ -519,6 +610,50 @@ public class SettingsViewCtrl extends AbsViewCtrl implements OnSettingUpdatedLis
         });
     }
 
+    private void showSettingMaxItemAge() {
+        final TextView txt = (TextView) view.findViewById(R.id.TxtMaxItemAge);
+        final SettingMaxItemAge setting = new SettingMaxItemAge(dataMgr);
+        txt.setText(context.getResources().getStringArray(R.array.SettingMaxItemAge)[setting.getData()]);
+
+        final View settingView = view.findViewById(R.id.SettingMaxItemAge);
+        settingView.setOnTouchListener(new OnTouchListener() {
+            @Override
+            public boolean onTouch(final View view, final MotionEvent event) {
+                switch (event.getAction()) {
+                case MotionEvent.ACTION_DOWN:
+                    view.setPressed(true);
+                    break;
+                case MotionEvent.ACTION_UP:
+                    view.setPressed(false);
+                    final String[] sItems = context.getResources().getStringArray(R.array.SettingMaxItemAge);
+                    final AlertDialog.Builder builder = new AlertDialog.Builder(new ContextThemeWrapper(context,
+                            android.R.style.Theme_DeviceDefault_Dialog));
+                    builder.setTitle(context.getString(R.string.TxtSettingMaxItemAge));
+                    builder.setSingleChoiceItems(sItems, setting.getData(), new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(final DialogInterface dialog, final int id) {
+                            setting.setData(dataMgr, id);
+                            dialog.dismiss();
+                        }
+                    });
+                    builder.setNegativeButton(context.getString(R.string.TxtCancel),
+                            new DialogInterface.OnClickListener() {
+                                public void onClick(final DialogInterface dialog, final int which) {
+                                    dialog.dismiss();
+                                }
+                            });
+                    builder.show();
+                    break;
+                case MotionEvent.ACTION_CANCEL:
+                    view.setPressed(false);
+                    break;
+                default:
+                }
+                return true;
+            }
+        });
+    }
+
     private void showSettingMaxItems() {
         final TextView txt = (TextView) view.findViewById(R.id.SettingMaxItemsCount);
         final SettingMaxItems sMaxItems = new SettingMaxItems(dataMgr);
@@ -570,6 +705,50 @@ public class SettingsViewCtrl extends AbsViewCtrl implements OnSettingUpdatedLis
         }
     }
 
+    private void showSettingMaxItemsPerFeed() {
+        final TextView txt = (TextView) view.findViewById(R.id.TxtMaxItemsPerFeed);
+        final SettingMaxItemsPerFeed setting = new SettingMaxItemsPerFeed(dataMgr);
+        txt.setText(context.getResources().getStringArray(R.array.SettingMaxItemsPerFeed)[setting.getData()]);
+
+        final View settingView = view.findViewById(R.id.SettingMaxItemsPerFeed);
+        settingView.setOnTouchListener(new OnTouchListener() {
+            @Override
+            public boolean onTouch(final View view, final MotionEvent event) {
+                switch (event.getAction()) {
+                case MotionEvent.ACTION_DOWN:
+                    view.setPressed(true);
+                    break;
+                case MotionEvent.ACTION_UP:
+                    view.setPressed(false);
+                    final String[] sItems = context.getResources().getStringArray(R.array.SettingMaxItemsPerFeed);
+                    final AlertDialog.Builder builder = new AlertDialog.Builder(new ContextThemeWrapper(context,
+                            android.R.style.Theme_DeviceDefault_Dialog));
+                    builder.setTitle(context.getString(R.string.TxtSettingMaxItemsPerFeed));
+                    builder.setSingleChoiceItems(sItems, setting.getData(), new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(final DialogInterface dialog, final int id) {
+                            setting.setData(dataMgr, id);
+                            dialog.dismiss();
+                        }
+                    });
+                    builder.setNegativeButton(context.getString(R.string.TxtCancel),
+                            new DialogInterface.OnClickListener() {
+                                public void onClick(final DialogInterface dialog, final int which) {
+                                    dialog.dismiss();
+                                }
+                            });
+                    builder.show();
+                    break;
+                case MotionEvent.ACTION_CANCEL:
+                    view.setPressed(false);
+                    break;
+                default:
+                }
+                return true;
+            }
+        });
+    }
+
     private void showSettingNotificationOn() {
         final ImageView img = (ImageView) view.findViewById(R.id.SwitchNotificationOn);
         final SettingNotificationOn sNotification = new SettingNotificationOn(dataMgr);
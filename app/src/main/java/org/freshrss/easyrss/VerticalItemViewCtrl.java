@@ -14,6 +14,7 @@ package org.freshrss.easyrss;
 import org.freshrss.easyrss.R;
 import org.freshrss.easyrss.data.DataMgr;
 import org.freshrss.easyrss.listadapter.ListItemItem;
+import org.freshrss.easyrss.network.ItemContentDataSyncer;
 import org.freshrss.easyrss.view.AbsViewCtrl;
 
 import android.content.Context;
@@ -98,6 +99,7 @@ public class VerticalItemViewCtrl extends AbsViewCtrl implements VerticalSingleI
         final VerticalSingleItemView ret = new VerticalSingleItemView(dataMgr, context, uid, itemMenu, this);
         itemFlipper.addView(ret.getView());
         ret.setListener(this);
+        ItemContentDataSyncer.prioritize(uid, ret.getNextUid(), ret.getLastUid());
         return ret;
     }
 
@@ -12,7 +12,11 @@
 package org.freshrss.easyrss;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
 
 import org.apache.http.protocol.HTTP;
@@ -20,13 +24,16 @@ import org.apache.http.protocol.HTTP;
 import org.freshrss.easyrss.R;
 import org.freshrss.easyrss.data.DataMgr;
 import org.freshrss.easyrss.data.DataUtils;
+import org.freshrss.easyrss.data.ImageCache;
 import org.freshrss.easyrss.data.Item;
+import org.freshrss.easyrss.data.ItemBody;
 import org.freshrss.easyrss.data.ItemState;
 import org.freshrss.easyrss.data.readersetting.SettingBrowserChoice;
 import org.freshrss.easyrss.data.readersetting.SettingFontSize;
 import org.freshrss.easyrss.data.readersetting.SettingImageFetching;
 import org.freshrss.easyrss.data.readersetting.SettingTheme;
 import org.freshrss.easyrss.listadapter.ListItemItem;
+import org.freshrss.easyrss.network.FetchScheduler;
 import org.freshrss.easyrss.network.NetworkMgr;
 import org.freshrss.easyrss.network.NetworkUtils;
 import org.freshrss.easyrss.view.OnScrollChangedListener;
@@ -50,6 +57,7 @@ import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
 import android.webkit.JsResult;
 import android.webkit.WebChromeClient;
+import android.webkit.WebResourceResponse;
 import android.webkit.WebSettings;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
@@ -258,6 +266,21 @@ public class VerticalSingleItemView implements OnScrollChangedListener, OnTouchL
                 theme == SettingTheme.THEME_NORMAL ? R.color.NormalBackground : R.color.DarkBackground));
         webView.setFocusable(false);
         webView.setWebViewClient(new WebViewClient() {
+            @Override
+            public WebResourceResponse shouldInterceptRequest(final WebView view, final String url) {
+                final File file = ImageCache.getInstance().lookup(url);
+                if (file == null) {
+                    FetchScheduler.getInstance().onForegroundActivity();
+                    return null;
+                }
+                try {
+                    return new WebResourceResponse("image/*", null, new FileInputStream(file));
+                } catch (final FileNotFoundException exception) {
+                    exception.printStackTrace();
+                    return null;
+                }
+            }
+
             @Override
             public boolean shouldOverrideUrlLoading(final WebView view, final String url) {
                 if (VerticalSingleItemView.this.imageClickTime > System.currentTimeMillis() - 1000) {
@@ -274,7 +297,10 @@ public class VerticalSingleItemView implements OnScrollChangedListener, OnTouchL
             @Override
             public boolean onJsAlert(final WebView view, final String url, final String message, final JsResult result) {
                 if (VerticalSingleItemView.this.listener != null) {
-                    if (message.endsWith(".erss")) {
+                    final File file = ImageCache.getInstance().lookup(message);
+                    if (file != null) {
+                        VerticalSingleItemView.this.listener.onImageViewRequired(file.getAbsolutePath());
+                    } else if (message.endsWith(".erss")) {
                         VerticalSingleItemView.this.listener.onImageViewRequired(item.getStoragePath() + "/" + message);
                     } else {
                         VerticalSingleItemView.this.listener.onImageViewRequired(message);
@@ -296,14 +322,65 @@ public class VerticalSingleItemView implements OnScrollChangedListener, OnTouchL
         }
     }
 
+    /*
+     * Appends a script giving the img tags of the content the dimensions of
+     * their cached images, so their space is reserved before they are loaded.
+     */
+    private void appendImageDimensions(final StringBuffer content) {
+        /* the manifest of an item stored without one is made by the content syncer */
+        final List<String> srcs = ItemBody.readManifest(item);
+        if (srcs == null) {
+            return;
+        }
+        final Map<String, int[]> dimensions = ImageCache.getInstance().getDimensions(srcs);
+        if (dimensions.isEmpty()) {
+            return;
+        }
+        content.append("<script>(function(){var d={");
+        boolean isFirst = true;
+        for (final Map.Entry<String, int[]> entry : dimensions.entrySet()) {
+            if (!isFirst) {
+                content.append(',');
+            }
+            isFirst = false;
+            content.append('"');
+            final String src = entry.getKey();
+            for (int i = 0; i < src.length(); i++) {
+                final char c = src.charAt(i);
+                if (c == '"' || c == '\\' || c == '<' || c < ' ') {
+                    content.append(String.format("\\u%04x", (int) c));
+                } else {
+                    content.append(c);
+                }
+            }
+            content.append("\":[");
+            content.append(entry.getValue()[0]);
+            content.append(',');
+            content.append(entry.getValue()[1]);
+            content.append(']');
+        }
+        content.append("};var pics=document.getElementsByTagName('img');for(var i=0;i<pics.length;i++){"
+                + "var pic=pics[i];var s=d[pic.getAttribute('src')];"
+                + "if(s&&!pic.getAttribute('width')&&!pic.getAttribute('height')){"
+                + "pic.setAttribute('width',s[0]);pic.setAttribute('height',s[1]);}}})();</script>");
+    }
+
     public Item getItem() {
         return item;
     }
 
+    public String getLastUid() {
+        return lastUid;
+    }
+
     public VerticalSingleItemViewListener getListener() {
         return listener;
     }
 
+    public String getNextUid() {
+        return nextUid;
+    }
+
     public View getView() {
         return view;
     }
@@ -331,13 +408,15 @@ public class VerticalSingleItemView implements OnScrollChangedListener, OnTouchL
 
         final StringBuffer content = new StringBuffer();
         if (item.getState().isCached()) {
-            content.append(DataUtils.readFromFile(new File(item.getFullContentStoragePath())));
+            content.append(ItemBody.read(item, ItemBody.VARIANT_CACHED));
+            appendImageDimensions(content);
         } else {
             final SettingImageFetching sImgFetch = new SettingImageFetching(dataMgr);
             if (NetworkUtils.checkImageFetchingNetworkStatus(context, sImgFetch.getData())) {
-                content.append(DataUtils.readFromFile(new File(item.getOriginalContentStoragePath())));
+                content.append(ItemBody.read(item, ItemBody.VARIANT_ORIGINAL));
+                appendImageDimensions(content);
             } else {
-                content.append(DataUtils.readFromFile(new File(item.getStrippedContentStoragePath())));
+                content.append(ItemBody.read(item, ItemBody.VARIANT_STRIPPED));
             }
         }
         content.append(DataUtils.DEFAULT_JS);
@@ -28,6 +28,7 @@ import org.freshrss.easyrss.data.Item;
 import org.freshrss.easyrss.data.Setting;
 import org.freshrss.easyrss.data.readersetting.SettingFontSize;
 import org.freshrss.easyrss.data.readersetting.SettingTheme;
+import org.freshrss.easyrss.network.FetchScheduler;
 import org.freshrss.easyrss.view.AbsViewCtrl;
 
 import android.annotation.SuppressLint;
@@ -119,6 +120,11 @@ public class WebpageItemViewCtrl extends AbsViewCtrl {
             settings.setSupportZoom(true);
             settings.setBuiltInZoomControls(true);
             originalView.setWebViewClient(new WebViewClient() {
+                @Override
+                public void onLoadResource(final WebView webView, final String url) {
+                    FetchScheduler.getInstance().onForegroundActivity();
+                }
+
                 @Override
                 public void onPageFinished(final WebView webView, final String url) {
                     view.findViewById(R.id.OriginalProgress).setVisibility(View.GONE);
@@ -224,6 +230,7 @@ public class WebpageItemViewCtrl extends AbsViewCtrl {
                 @SuppressWarnings("deprecation")
                 @Override
                 public void run() {
+                    FetchScheduler.getInstance().beginForeground();
                     try {
                         final StringBuilder urlBuilder = new StringBuilder();
                         urlBuilder.append("http://easyrss.pursuer.me/parser?url=");
@@ -254,6 +261,8 @@ public class WebpageItemViewCtrl extends AbsViewCtrl {
                         exception.printStackTrace();
                         pageContent = genFailedToLoadContentPage(context, theme);
                         handler.sendMessage(handler.obtainMessage(MSG_LOADING_FINISHED, WebpageItemViewCtrl.this));
+                    } finally {
+                        FetchScheduler.getInstance().endForeground();
                     }
                 }
             });
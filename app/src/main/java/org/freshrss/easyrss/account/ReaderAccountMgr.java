@@ -17,6 +17,7 @@ import org.freshrss.easyrss.data.DataMgr;
 import org.freshrss.easyrss.data.Setting;
 import org.freshrss.easyrss.network.NetworkListener;
 import org.freshrss.easyrss.network.NetworkMgr;
+import org.freshrss.easyrss.network.TokenStore;
 import org.freshrss.easyrss.network.url.AbsURL;
 
 
@@ -112,6 +113,7 @@ public class ReaderAccountMgr implements NetworkListener {
         dataMgr.removeSettingByName(Setting.SETTING_IS_CLIENT_LOGIN);
         dataMgr.removeSettingByName(Setting.SETTING_USERNAME);
         dataMgr.removeSettingByName(Setting.SETTING_PASSWORD);
+        TokenStore.getInstance().invalidate();
     }
 
     /*
@@ -0,0 +1,463 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Pursuer (http://pursuer.me).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Pursuer - initial API and implementation
+ ******************************************************************************/
+
+package org.freshrss.easyrss.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/*
+ * Writes items, subscriptions and tags through compiled statements that are
+ * reused for the whole batch. Rows are upserted with INSERT ... ON CONFLICT DO
+ * UPDATE where SQLite supports it (3.24+); older versions fall back to an
+ * UPDATE followed by an INSERT when nothing was updated, which still avoids
+ * the SELECT per row. Tag rows are diffed against the stored set so that
+ * unchanged rows are not touched.
+ *
+ * The counters follow from the stored and the new state of the items, and
+ * are updated once per batch.
+ *
+ * An instance is meant to be used inside a single database transaction and
+ * closed afterwards.
+ */
+final public class BulkIngester {
+    private static class StoredItem {
+        final private String sourceUri;
+        final private boolean isRead;
+        final private boolean isStarred;
+
+        public StoredItem(final String sourceUri, final boolean isRead, final boolean isStarred) {
+            this.sourceUri = sourceUri;
+            this.isRead = isRead;
+            this.isStarred = isStarred;
+        }
+    }
+
+    final private static int MAX_BIND_ARGS = 500;
+
+    final private static String[] ITEM_COLUMNS = { Item._UID, Item._AUTHOR, Item._HREF, Item._SOURCEURI,
+            Item._SOURCETITLE, Item._TITLE, Item._TIMESTAMP, Item._UPDATETIME, ItemState._ISREAD,
+            ItemState._ISSTARRED };
+    final private static String[] ITEM_UPDATE_COLUMNS = { Item._UPDATETIME, ItemState._ISREAD,
+            ItemState._ISSTARRED };
+    final private static String[] SUBSCRIPTION_COLUMNS = { Subscription._UID, Subscription._URL,
+            Subscription._TITLE, Subscription._UPDATETIME, Subscription._SORTID, Subscription._FIRSTITEMMSEC };
+    final private static String[] SUBSCRIPTION_UPDATE_COLUMNS = { Subscription._UPDATETIME, Subscription._SORTID,
+            Subscription._FIRSTITEMMSEC };
+    final private static String[] TAG_COLUMNS = { Tag._UID, Tag._UPDATETIME, Tag._SORTID };
+    final private static String[] TAG_UPDATE_COLUMNS = { Tag._UPDATETIME, Tag._SORTID };
+
+    private static Boolean isUpsertSupported = null;
+
+    private static void bindString(final SQLiteStatement statement, final int index, final String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /*
+     * INSERT INTO table(c0,c1,...)VALUES(?,?,...) [ON CONFLICT(c0) DO UPDATE
+     * SET u0=excluded.u0,...]
+     */
+    private static String buildInsert(final String table, final String[] columns, final String[] updateColumns) {
+        final StringBuffer buffer = new StringBuffer();
+        buffer.append("INSERT INTO ");
+        buffer.append(table);
+        buffer.append("(");
+        for (int i = 0; i < columns.length; i++) {
+            buffer.append(i == 0 ? "" : ",");
+            buffer.append(columns[i]);
+        }
+        buffer.append(")VALUES(");
+        for (int i = 0; i < columns.length; i++) {
+            buffer.append(i == 0 ? "?" : ",?");
+        }
+        buffer.append(")");
+        if (updateColumns != null) {
+            buffer.append(" ON CONFLICT(");
+            buffer.append(columns[0]);
+            buffer.append(") DO UPDATE SET ");
+            for (int i = 0; i < updateColumns.length; i++) {
+                buffer.append(i == 0 ? "" : ",");
+                buffer.append(updateColumns[i]);
+                buffer.append("=excluded.");
+                buffer.append(updateColumns[i]);
+            }
+        }
+        return buffer.toString();
+    }
+
+    /*
+     * UPDATE table SET u0=?,u1=?,... WHERE key=?
+     */
+    private static String buildUpdate(final String table, final String[] updateColumns, final String key) {
+        final StringBuffer buffer = new StringBuffer();
+        buffer.append("UPDATE ");
+        buffer.append(table);
+        buffer.append(" SET ");
+        for (int i = 0; i < updateColumns.length; i++) {
+            buffer.append(i == 0 ? "" : ",");
+            buffer.append(updateColumns[i]);
+            buffer.append("=?");
+        }
+        buffer.append(" WHERE ");
+        buffer.append(key);
+        buffer.append("=?");
+        return buffer.toString();
+    }
+
+    private static String buildDelete(final String table, final String keyColumn, final String valueColumn) {
+        final StringBuffer buffer = new StringBuffer();
+        buffer.append("DELETE FROM ");
+        buffer.append(table);
+        buffer.append(" WHERE ");
+        buffer.append(keyColumn);
+        buffer.append("=? AND ");
+        buffer.append(valueColumn);
+        buffer.append("=?");
+        return buffer.toString();
+    }
+
+    /*
+     * SELECT c0,c1,... FROM table WHERE key IN(?,?,...)
+     */
+    private static String buildSelectIn(final String table, final String[] columns, final String key,
+            final int argCount) {
+        final StringBuffer buffer = new StringBuffer();
+        buffer.append("SELECT ");
+        for (int i = 0; i < columns.length; i++) {
+            buffer.append(i == 0 ? "" : ",");
+            buffer.append(columns[i]);
+        }
+        buffer.append(" FROM ");
+        buffer.append(table);
+        buffer.append(" WHERE ");
+        buffer.append(key);
+        buffer.append(" IN(");
+        for (int i = 0; i < argCount; i++) {
+            buffer.append(i == 0 ? "?" : ",?");
+        }
+        buffer.append(")");
+        return buffer.toString();
+    }
+
+    public static synchronized boolean isUpsertSupported(final SQLiteDatabase database) {
+        if (isUpsertSupported == null) {
+            boolean supported = false;
+            try {
+                final String version = DatabaseUtils.stringForQuery(database, "SELECT sqlite_version()", null);
+                final String[] parts = version.split("\\.");
+                final int major = Integer.parseInt(parts[0]);
+                final int minor = (parts.length > 1) ? Integer.parseInt(parts[1]) : 0;
+                supported = (major > 3 || (major == 3 && minor >= 24));
+            } catch (final Exception exception) {
+                exception.printStackTrace();
+            }
+            isUpsertSupported = supported;
+        }
+        return isUpsertSupported;
+    }
+
+    final private SQLiteDatabase database;
+    final private boolean useUpsert;
+    final private List<SQLiteStatement> statements;
+    private SQLiteStatement itemInsert;
+    private SQLiteStatement itemUpdate;
+    private SQLiteStatement itemTagInsert;
+    private SQLiteStatement itemTagDelete;
+    private SQLiteStatement searchKeyInsert;
+    private SQLiteStatement searchInsert;
+    private SQLiteStatement searchDelete;
+    private SQLiteStatement subscriptionInsert;
+    private SQLiteStatement subscriptionUpdate;
+    private SQLiteStatement subscriptionTagInsert;
+    private SQLiteStatement subscriptionTagDelete;
+    private SQLiteStatement tagInsert;
+    private SQLiteStatement tagUpdate;
+
+    public BulkIngester(final SQLiteDatabase database) {
+        this.database = database;
+        this.useUpsert = isUpsertSupported(database);
+        this.statements = new ArrayList<SQLiteStatement>();
+    }
+
+    public void close() {
+        for (final SQLiteStatement statement : statements) {
+            statement.close();
+        }
+        statements.clear();
+    }
+
+    private SQLiteStatement compile(final String sql) {
+        final SQLiteStatement ret = database.compileStatement(sql);
+        statements.add(ret);
+        return ret;
+    }
+
+    /*
+     * Loads the stored (key, value) pairs of a relation table for the given
+     * keys in as few queries as the bind argument limit allows.
+     */
+    private Map<String, Set<String>> loadRelations(final String table, final String keyColumn,
+            final String valueColumn, final List<String> keys) {
+        final Map<String, Set<String>> ret = new HashMap<String, Set<String>>();
+        for (int start = 0; start < keys.size(); start += MAX_BIND_ARGS) {
+            final int end = Math.min(keys.size(), start + MAX_BIND_ARGS);
+            final String[] args = keys.subList(start, end).toArray(new String[end - start]);
+            final Cursor cur = database.rawQuery(
+                    buildSelectIn(table, new String[] { keyColumn, valueColumn }, keyColumn, args.length), args);
+            for (cur.moveToFirst(); !cur.isAfterLast(); cur.moveToNext()) {
+                Set<String> values = ret.get(cur.getString(0));
+                if (values == null) {
+                    values = new HashSet<String>();
+                    ret.put(cur.getString(0), values);
+                }
+                values.add(cur.getString(1));
+            }
+            cur.close();
+        }
+        return ret;
+    }
+
+    /*
+     * Loads the stored state of the given items, which counts towards the
+     * counters until they are overwritten.
+     */
+    private Map<String, StoredItem> loadItems(final List<String> uids) {
+        final Map<String, StoredItem> ret = new HashMap<String, StoredItem>();
+        final String[] columns = { Item._UID, Item._SOURCEURI, ItemState._ISREAD, ItemState._ISSTARRED };
+        for (int start = 0; start < uids.size(); start += MAX_BIND_ARGS) {
+            final int end = Math.min(uids.size(), start + MAX_BIND_ARGS);
+            final String[] args = uids.subList(start, end).toArray(new String[end - start]);
+            final Cursor cur = database.rawQuery(buildSelectIn(Item.TABLE_NAME, columns, Item._UID, args.length),
+                    args);
+            for (cur.moveToFirst(); !cur.isAfterLast(); cur.moveToNext()) {
+                ret.put(cur.getString(0), new StoredItem(cur.getString(1), cur.getInt(2) != 0, cur.getInt(3) != 0));
+            }
+            cur.close();
+        }
+        return ret;
+    }
+
+    /*
+     * Makes the stored relation rows of key equal to newValues, inserting and
+     * deleting only the differences.
+     */
+    private void syncRelations(final SQLiteStatement insert, final SQLiteStatement delete, final String key,
+            final Set<String> oldValues, final List<String> newValues) {
+        final Set<String> wanted = new HashSet<String>();
+        if (newValues != null) {
+            wanted.addAll(newValues);
+        }
+        if (oldValues != null) {
+            for (final String value : oldValues) {
+                if (!wanted.remove(value)) {
+                    delete.bindString(1, key);
+                    bindString(delete, 2, value);
+                    delete.executeUpdateDelete();
+                }
+            }
+        }
+        for (final String value : wanted) {
+            insert.bindString(1, key);
+            bindString(insert, 2, value);
+            insert.executeInsert();
+        }
+    }
+
+    /*
+     * Runs the bound insert/upsert, or with the fallback, the update and then
+     * the insert if no row was updated. updateArgs excludes the key, which is
+     * bound last.
+     */
+    private void upsert(final SQLiteStatement insert, final SQLiteStatement update, final Object[] insertArgs,
+            final Object[] updateArgs) {
+        if (!useUpsert) {
+            bindAll(update, updateArgs);
+            update.bindString(updateArgs.length + 1, (String) insertArgs[0]);
+            if (update.executeUpdateDelete() > 0) {
+                return;
+            }
+        }
+        bindAll(insert, insertArgs);
+        insert.executeInsert();
+    }
+
+    private static void bindAll(final SQLiteStatement statement, final Object[] args) {
+        for (int i = 0; i < args.length; i++) {
+            final Object arg = args[i];
+            if (arg == null) {
+                statement.bindNull(i + 1);
+            } else if (arg instanceof Long) {
+                statement.bindLong(i + 1, (Long) arg);
+            } else if (arg instanceof Boolean) {
+                statement.bindLong(i + 1, ((Boolean) arg) ? 1 : 0);
+            } else {
+                statement.bindString(i + 1, arg.toString());
+            }
+        }
+    }
+
+    public void ingestItems(final List<Item> items) {
+        if (itemInsert == null) {
+            itemInsert = compile(buildInsert(Item.TABLE_NAME, ITEM_COLUMNS, useUpsert ? ITEM_UPDATE_COLUMNS : null));
+            itemUpdate = useUpsert ? null : compile(buildUpdate(Item.TABLE_NAME, ITEM_UPDATE_COLUMNS, Item._UID));
+            itemTagInsert = compile(SQLConstants.INSERT_ITEM_TAG);
+            itemTagDelete = compile(buildDelete(ItemTag.TABLE_NAME, ItemTag._ITEMUID, ItemTag._TAGUID));
+            searchKeyInsert = compile(ItemSearch.SQL_INSERT_KEY);
+            searchInsert = compile(ItemSearch.SQL_INSERT);
+            searchDelete = compile(ItemSearch.SQL_DELETE_BY_UID);
+        }
+        final List<String> uids = new ArrayList<String>(items.size());
+        for (final Item item : items) {
+            uids.add(item.getUid());
+        }
+        final Map<String, Set<String>> storedTags = loadRelations(ItemTag.TABLE_NAME, ItemTag._ITEMUID,
+                ItemTag._TAGUID, uids);
+        final Map<String, StoredItem> storedItems = loadItems(uids);
+        final Map<String, int[]> deltas = new HashMap<String, int[]>();
+        final Map<String, Integer> totalDeltas = new HashMap<String, Integer>();
+        for (final Item item : items) {
+            final ItemState state = item.getState();
+            final StoredItem stored = storedItems.get(item.getUid());
+            final Set<String> oldTags = storedTags.get(item.getUid());
+            /* an update keeps the stored source of the item */
+            final String sourceUri = (stored == null) ? item.getSourceUri() : stored.sourceUri;
+            if (stored != null) {
+                Counter.addItemDeltas(deltas, -1, sourceUri, oldTags, stored.isRead, stored.isStarred);
+                if (!stored.isRead && state.isRead()) {
+                    Counter.addTotalDeltas(totalDeltas, -1, sourceUri, oldTags);
+                }
+            }
+            Counter.addItemDeltas(deltas, 1, sourceUri, item.getTags(), state.isRead(), state.isStarred());
+            final Long updateTime = item.getUpdateTime(true);
+            upsert(itemInsert, itemUpdate, new Object[] { item.getUid(), item.getAuthor(), item.getHref(),
+                    item.getSourceUri(), item.getSourceTitle(), item.getTitle(), item.getTimestamp(), updateTime,
+                    state.isRead(), state.isStarred() }, new Object[] { updateTime, state.isRead(),
+                    state.isStarred() });
+            syncRelations(itemTagInsert, itemTagDelete, item.getUid(), oldTags, item.getTags());
+            if (item.getPlainText() != null) {
+                indexItem(item);
+            }
+            storedItems.put(item.getUid(), new StoredItem(sourceUri, state.isRead(), state.isStarred()));
+            storedTags.put(item.getUid(), (item.getTags() == null) ? null : new HashSet<String>(item.getTags()));
+        }
+        Counter.applyDeltas(database, deltas);
+        Counter.applyTotalDeltas(database, totalDeltas);
+    }
+
+    /*
+     * Replaces the search index entry of the item.
+     */
+    private void indexItem(final Item item) {
+        bindAll(searchDelete, ItemSearch.deleteArgs(item.getUid()));
+        searchDelete.executeUpdateDelete();
+        searchKeyInsert.bindString(1, item.getUid());
+        searchKeyInsert.executeInsert();
+        bindAll(searchInsert, new Object[] { item.getTitle(), item.getAuthor(), item.getSourceTitle(),
+                item.getPlainText(), item.getUid() });
+        searchInsert.executeInsert();
+    }
+
+    /*
+     * Existing subscriptions keep their stored icon and unread count, which
+     * are copied into the given objects.
+     */
+    public void ingestSubscriptions(final List<Subscription> subs) {
+        if (subscriptionInsert == null) {
+            subscriptionInsert = compile(buildInsert(Subscription.TABLE_NAME, SUBSCRIPTION_COLUMNS,
+                    useUpsert ? SUBSCRIPTION_UPDATE_COLUMNS : null));
+            subscriptionUpdate = useUpsert ? null : compile(buildUpdate(Subscription.TABLE_NAME,
+                    SUBSCRIPTION_UPDATE_COLUMNS, Subscription._UID));
+            subscriptionTagInsert = compile(SQLConstants.INSERT_SUBSCRIPTION_TAG);
+            subscriptionTagDelete = compile(buildDelete(SubscriptionTag.TABLE_NAME,
+                    SubscriptionTag._SUBSCRIPTIONUID, SubscriptionTag._TAGUID));
+        }
+        final List<String> uids = new ArrayList<String>(subs.size());
+        final Map<String, Subscription> byUid = new HashMap<String, Subscription>();
+        for (final Subscription sub : subs) {
+            uids.add(sub.getUid());
+            byUid.put(sub.getUid(), sub);
+        }
+        for (int start = 0; start < uids.size(); start += MAX_BIND_ARGS) {
+            final int end = Math.min(uids.size(), start + MAX_BIND_ARGS);
+            final String[] args = uids.subList(start, end).toArray(new String[end - start]);
+            final Cursor cur = database.rawQuery(buildSelectIn(Subscription.TABLE_NAME, new String[] {
+                    Subscription._UID, Subscription._ICON, Subscription._UNREADCOUNT }, Subscription._UID,
+                    args.length), args);
+            for (cur.moveToFirst(); !cur.isAfterLast(); cur.moveToNext()) {
+                final Subscription sub = byUid.get(cur.getString(0));
+                if (sub != null) {
+                    sub.setIcon(cur.getBlob(1));
+                    sub.setUnreadCount(cur.getInt(2));
+                }
+            }
+            cur.close();
+        }
+        final Map<String, Set<String>> storedTags = loadRelations(SubscriptionTag.TABLE_NAME,
+                SubscriptionTag._SUBSCRIPTIONUID, SubscriptionTag._TAGUID, uids);
+        for (final Subscription sub : subs) {
+            final Long updateTime = sub.getUpdateTime();
+            final Long firstItemMsec = sub.getFirstItemMsec();
+            upsert(subscriptionInsert, subscriptionUpdate, new Object[] { sub.getUid(), sub.getUrl(),
+                    sub.getTitle(), updateTime, sub.getSortId(), firstItemMsec }, new Object[] { updateTime,
+                    sub.getSortId(), firstItemMsec });
+            syncRelations(subscriptionTagInsert, subscriptionTagDelete, sub.getUid(), storedTags.get(sub.getUid()),
+                    sub.getTags());
+        }
+    }
+
+    /*
+     * Existing tags keep their stored unread count, which is copied into the
+     * given objects.
+     */
+    public void ingestTags(final List<Tag> tags) {
+        if (tagInsert == null) {
+            tagInsert = compile(buildInsert(Tag.TABLE_NAME, TAG_COLUMNS, useUpsert ? TAG_UPDATE_COLUMNS : null));
+            tagUpdate = useUpsert ? null : compile(buildUpdate(Tag.TABLE_NAME, TAG_UPDATE_COLUMNS, Tag._UID));
+        }
+        final Map<String, Tag> byUid = new HashMap<String, Tag>();
+        final List<String> uids = new ArrayList<String>(tags.size());
+        for (final Tag tag : tags) {
+            uids.add(tag.getUid());
+            byUid.put(tag.getUid(), tag);
+        }
+        for (int start = 0; start < uids.size(); start += MAX_BIND_ARGS) {
+            final int end = Math.min(uids.size(), start + MAX_BIND_ARGS);
+            final String[] args = uids.subList(start, end).toArray(new String[end - start]);
+            final Cursor cur = database.rawQuery(buildSelectIn(Tag.TABLE_NAME, new String[] { Tag._UID,
+                    Tag._UNREADCOUNT }, Tag._UID, args.length), args);
+            for (cur.moveToFirst(); !cur.isAfterLast(); cur.moveToNext()) {
+                final Tag tag = byUid.get(cur.getString(0));
+                if (tag != null) {
+                    tag.setUnreadCount(cur.getInt(1));
+                }
+            }
+            cur.close();
+        }
+        for (final Tag tag : tags) {
+            final Long updateTime = tag.getUpdateTime();
+            upsert(tagInsert, tagUpdate, new Object[] { tag.getUid(), updateTime, tag.getSortId() }, new Object[] {
+                    updateTime, tag.getSortId() });
+        }
+    }
+}
@@ -0,0 +1,399 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Pursuer (http://pursuer.me).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Pursuer - initial API and implementation
+ ******************************************************************************/
+
+package org.freshrss.easyrss.data;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/*
+ * Numbers of unread and starred items stored locally, per subscription, per
+ * tag and in total (GLOBAL_UID). They are kept up to date in the transaction
+ * that changes the items, by changing the items set-wise through a temporary
+ * table of their uids.
+ *
+ * The unreadCount columns of subscriptions and tags and the global unread
+ * count setting are the totals reported by the server; local state changes
+ * adjust them by the same deltas when adjustTotals is set.
+ */
+final public class Counter {
+    public static final String TABLE_NAME = "counters";
+
+    public static final String _UID = "uid";
+    public static final String _UNREADCOUNT = "unreadCount";
+    public static final String _STARREDCOUNT = "starredCount";
+    public static final String[] COLUMNS = { _UID, _UNREADCOUNT, _STARREDCOUNT };
+
+    public static final String GLOBAL_UID = "global";
+
+    public static final String SQL_CREATE_TABLE = "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" + _UID
+            + " TEXT PRIMARY KEY," + _UNREADCOUNT + " INTEGER NOT NULL DEFAULT 0," + _STARREDCOUNT
+            + " INTEGER NOT NULL DEFAULT 0)";
+
+    private static final String CHANGED_ITEMS = "temp.changedItems";
+    private static final String SQL_CREATE_CHANGED_ITEMS = "CREATE TEMP TABLE IF NOT EXISTS changedItems("
+            + Item._UID + " TEXT PRIMARY KEY)";
+    private static final String SQL_SELECT_CHANGED = "SELECT " + Item._UID + " FROM " + CHANGED_ITEMS;
+    private static final String SQL_SELECT_ALL_ITEMS = "SELECT " + Item._UID + " FROM " + Item.TABLE_NAME;
+
+    private static final int COUNT_ALL = 0;
+    private static final int COUNT_UNREAD = 1;
+    private static final int COUNT_STARRED = 2;
+
+    /*
+     * Per stream: the number of items, of unread items and of starred items.
+     */
+    private static final String SQL_COUNT_BY_STREAM;
+    private static final String SQL_COUNT_ALL;
+    public static final String[] SQL_REBUILD;
+
+    // SELECT sourceUri,count(*),sum(isRead=0),sum(isStarred<>0) FROM items
+    // WHERE uid IN(...) GROUP BY sourceUri UNION ALL
+    // SELECT tagUid,count(*),sum(isRead=0),sum(isStarred<>0) FROM itemTags
+    // INNER JOIN items ON itemUid=uid WHERE itemUid IN(...) GROUP BY tagUid
+    static {
+        final StringBuffer buffer = new StringBuffer();
+        buffer.append("SELECT ");
+        buffer.append(Item._SOURCEURI);
+        buffer.append(",count(*),sum(");
+        buffer.append(ItemState._ISREAD);
+        buffer.append("=0),sum(");
+        buffer.append(ItemState._ISSTARRED);
+        buffer.append("<>0) FROM ");
+        buffer.append(Item.TABLE_NAME);
+        buffer.append(" WHERE ");
+        buffer.append(Item._UID);
+        buffer.append(" IN(%1$s) GROUP BY ");
+        buffer.append(Item._SOURCEURI);
+        buffer.append(" UNION ALL SELECT ");
+        buffer.append(ItemTag._TAGUID);
+        buffer.append(",count(*),sum(");
+        buffer.append(ItemState._ISREAD);
+        buffer.append("=0),sum(");
+        buffer.append(ItemState._ISSTARRED);
+        buffer.append("<>0) FROM ");
+        buffer.append(ItemTag.TABLE_NAME);
+        buffer.append(" INNER JOIN ");
+        buffer.append(Item.TABLE_NAME);
+        buffer.append(" ON ");
+        buffer.append(ItemTag._ITEMUID);
+        buffer.append("=");
+        buffer.append(Item._UID);
+        buffer.append(" WHERE ");
+        buffer.append(ItemTag._ITEMUID);
+        buffer.append(" IN(%1$s) GROUP BY ");
+        buffer.append(ItemTag._TAGUID);
+        SQL_COUNT_BY_STREAM = buffer.toString();
+    }
+
+    static {
+        final StringBuffer buffer = new StringBuffer();
+        buffer.append("SELECT count(*),sum(");
+        buffer.append(ItemState._ISREAD);
+        buffer.append("=0),sum(");
+        buffer.append(ItemState._ISSTARRED);
+        buffer.append("<>0) FROM ");
+        buffer.append(Item.TABLE_NAME);
+        buffer.append(" WHERE ");
+        buffer.append(Item._UID);
+        buffer.append(" IN(%1$s)");
+        SQL_COUNT_ALL = buffer.toString();
+    }
+
+    /*
+     * Counts everything from scratch, e.g. when the table is new.
+     */
+    static {
+        final String prefix = "INSERT OR REPLACE INTO " + TABLE_NAME + "(" + _UID + "," + _UNREADCOUNT + ","
+                + _STARREDCOUNT + ")SELECT ";
+        final String sums = ",ifnull(sum(" + ItemState._ISREAD + "=0),0),ifnull(sum(" + ItemState._ISSTARRED
+                + "<>0),0) FROM ";
+        SQL_REBUILD = new String[] {
+                "DELETE FROM " + TABLE_NAME,
+                prefix + Item._SOURCEURI + sums + Item.TABLE_NAME + " WHERE " + Item._SOURCEURI
+                        + " IS NOT NULL GROUP BY " + Item._SOURCEURI,
+                prefix + ItemTag._TAGUID + sums + ItemTag.TABLE_NAME + " INNER JOIN " + Item.TABLE_NAME + " ON "
+                        + ItemTag._ITEMUID + "=" + Item._UID + " GROUP BY " + ItemTag._TAGUID,
+                prefix + "'" + GLOBAL_UID + "'" + sums + Item.TABLE_NAME };
+    }
+
+    private static void addDelta(final Map<String, int[]> deltas, final String uid, final int unread,
+            final int starred) {
+        if (uid == null || (unread == 0 && starred == 0)) {
+            return;
+        }
+        int[] delta = deltas.get(uid);
+        if (delta == null) {
+            delta = new int[2];
+            deltas.put(uid, delta);
+        }
+        delta[0] += unread;
+        delta[1] += starred;
+    }
+
+    /*
+     * Adds the contribution of one item in the given state to deltas, negated
+     * if sign is -1. Used when items are written one by one.
+     */
+    public static void addItemDeltas(final Map<String, int[]> deltas, final int sign, final String sourceUri,
+            final Iterable<String> tags, final boolean isRead, final boolean isStarred) {
+        final int unread = isRead ? 0 : sign;
+        final int starred = isStarred ? sign : 0;
+        addDelta(deltas, GLOBAL_UID, unread, starred);
+        addDelta(deltas, sourceUri, unread, starred);
+        if (tags != null) {
+            for (final String tag : tags) {
+                addDelta(deltas, tag, unread, starred);
+            }
+        }
+    }
+
+    /*
+     * Adds delta to the unread totals of the item's streams and to the global
+     * one.
+     */
+    public static void addTotalDeltas(final Map<String, Integer> deltas, final int delta, final String sourceUri,
+            final Iterable<String> tags) {
+        final Set<String> uids = new HashSet<String>();
+        uids.add(GLOBAL_UID);
+        if (sourceUri != null) {
+            uids.add(sourceUri);
+        }
+        if (tags != null) {
+            for (final String tag : tags) {
+                uids.add(tag);
+            }
+        }
+        for (final String uid : uids) {
+            final Integer value = deltas.get(uid);
+            deltas.put(uid, (value == null) ? delta : value + delta);
+        }
+    }
+
+    /*
+     * Adds the given [unread, starred] deltas to the counters.
+     */
+    public static void applyDeltas(final SQLiteDatabase database, final Map<String, int[]> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        final SQLiteStatement insert = database.compileStatement("INSERT OR IGNORE INTO " + TABLE_NAME + "(" + _UID
+                + ")VALUES(?)");
+        final SQLiteStatement update = database.compileStatement("UPDATE " + TABLE_NAME + " SET " + _UNREADCOUNT
+                + "=MAX(0," + _UNREADCOUNT + "+?)," + _STARREDCOUNT + "=MAX(0," + _STARREDCOUNT + "+?) WHERE "
+                + _UID + "=?");
+        try {
+            for (final Map.Entry<String, int[]> entry : deltas.entrySet()) {
+                insert.bindString(1, entry.getKey());
+                insert.executeInsert();
+                update.bindLong(1, entry.getValue()[0]);
+                update.bindLong(2, entry.getValue()[1]);
+                update.bindString(3, entry.getKey());
+                update.executeUpdateDelete();
+            }
+        } finally {
+            insert.close();
+            update.close();
+        }
+    }
+
+    /*
+     * Adds the given unread deltas to the totals reported by the server.
+     */
+    public static void applyTotalDeltas(final SQLiteDatabase database, final Map<String, Integer> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        final SQLiteStatement subscription = database.compileStatement("UPDATE " + Subscription.TABLE_NAME
+                + " SET " + Subscription._UNREADCOUNT + "=MAX(0," + Subscription._UNREADCOUNT + "+?) WHERE "
+                + Subscription._UID + "=?");
+        final SQLiteStatement tag = database.compileStatement("UPDATE " + Tag.TABLE_NAME + " SET "
+                + Tag._UNREADCOUNT + "=MAX(0," + Tag._UNREADCOUNT + "+?) WHERE " + Tag._UID + "=?");
+        final SQLiteStatement global = database.compileStatement("UPDATE " + Setting.TABLE_NAME + " SET "
+                + Setting._VALUE + "=MAX(0,CAST(" + Setting._VALUE + " AS INT)+?) WHERE " + Setting._NAME + "='"
+                + Setting.SETTING_GLOBAL_ITEM_UNREAD_COUNT + "'");
+        try {
+            for (final Map.Entry<String, Integer> entry : deltas.entrySet()) {
+                if (GLOBAL_UID.equals(entry.getKey())) {
+                    global.bindLong(1, entry.getValue());
+                    global.executeUpdateDelete();
+                    continue;
+                }
+                final SQLiteStatement statement = DataUtils.isTagUid(entry.getKey()) ? tag : subscription;
+                statement.bindLong(1, entry.getValue());
+                statement.bindString(2, entry.getKey());
+                statement.executeUpdateDelete();
+            }
+        } finally {
+            subscription.close();
+            tag.close();
+            global.close();
+        }
+    }
+
+    /*
+     * Sets isRead or isStarred of the items matching where to value and
+     * updates the counters by the items that actually changed. Has to be
+     * called inside a transaction.
+     *
+     * @return the number of items changed
+     */
+    public static int changeItemState(final SQLiteDatabase database, final String where, final String[] whereArgs,
+            final String column, final boolean value, final boolean adjustTotals) {
+        final int nValue = value ? 1 : 0;
+        if (!selectChangedItems(database, "(" + where + ") AND " + column + "<>" + nValue, whereArgs)) {
+            return 0;
+        }
+        final boolean isRead = ItemState._ISREAD.equals(column);
+        final int sign = (isRead == value) ? -1 : 1;
+        final Map<String, int[]> counts = countChangedItems(database);
+        final Map<String, int[]> deltas = new HashMap<String, int[]>();
+        final Map<String, Integer> totalDeltas = new HashMap<String, Integer>();
+        for (final Map.Entry<String, int[]> entry : counts.entrySet()) {
+            final int delta = sign * entry.getValue()[COUNT_ALL];
+            addDelta(deltas, entry.getKey(), isRead ? delta : 0, isRead ? 0 : delta);
+            if (isRead && adjustTotals) {
+                totalDeltas.put(entry.getKey(), delta);
+            }
+        }
+        database.execSQL("UPDATE " + Item.TABLE_NAME + " SET " + column + "=" + nValue + " WHERE " + Item._UID
+                + " IN(" + SQL_SELECT_CHANGED + ")");
+        applyDeltas(database, deltas);
+        applyTotalDeltas(database, totalDeltas);
+        return counts.get(GLOBAL_UID)[COUNT_ALL];
+    }
+
+    /*
+     * @return per stream uid and for GLOBAL_UID, the numbers of all, unread
+     * and starred items among the changed items
+     */
+    private static Map<String, int[]> countChangedItems(final SQLiteDatabase database) {
+        final Map<String, int[]> ret = new HashMap<String, int[]>();
+        final Cursor cur = database.rawQuery(String.format(SQL_COUNT_BY_STREAM, SQL_SELECT_CHANGED), null);
+        for (cur.moveToFirst(); !cur.isAfterLast(); cur.moveToNext()) {
+            if (!cur.isNull(0)) {
+                ret.put(cur.getString(0), new int[] { cur.getInt(1), cur.getInt(2), cur.getInt(3) });
+            }
+        }
+        cur.close();
+        final Cursor curAll = database.rawQuery(String.format(SQL_COUNT_ALL, SQL_SELECT_CHANGED), null);
+        curAll.moveToFirst();
+        ret.put(GLOBAL_UID, new int[] { curAll.getInt(0), curAll.getInt(1), curAll.getInt(2) });
+        curAll.close();
+        return ret;
+    }
+
+    public static int getGlobalUnreadCount(final SQLiteDatabase database) {
+        final Cursor cur = database.rawQuery("SELECT " + _UNREADCOUNT + " FROM " + TABLE_NAME + " WHERE " + _UID
+                + "=?", new String[] { GLOBAL_UID });
+        final int ret = cur.moveToFirst() ? cur.getInt(0) : 0;
+        cur.close();
+        return ret;
+    }
+
+    /*
+     * Takes the items matching where out of the counters before they are
+     * deleted. Has to be called inside a transaction.
+     *
+     * @return the number of items matching
+     */
+    public static int removeItems(final SQLiteDatabase database, final String where, final String[] whereArgs) {
+        if (!selectChangedItems(database, where, whereArgs)) {
+            return 0;
+        }
+        final Map<String, int[]> deltas = new HashMap<String, int[]>();
+        final Map<String, int[]> counts = countChangedItems(database);
+        for (final Map.Entry<String, int[]> entry : counts.entrySet()) {
+            addDelta(deltas, entry.getKey(), -entry.getValue()[COUNT_UNREAD], -entry.getValue()[COUNT_STARRED]);
+        }
+        applyDeltas(database, deltas);
+        return counts.get(GLOBAL_UID)[COUNT_ALL];
+    }
+
+    /*
+     * Fills the temporary table with the uids of the items matching where.
+     *
+     * @return whether any item matches
+     */
+    private static boolean selectChangedItems(final SQLiteDatabase database, final String where,
+            final String[] whereArgs) {
+        database.execSQL(SQL_CREATE_CHANGED_ITEMS);
+        database.execSQL("DELETE FROM " + CHANGED_ITEMS);
+        final String sql = "INSERT OR IGNORE INTO " + CHANGED_ITEMS + " SELECT " + Item._UID + " FROM "
+                + Item.TABLE_NAME + " WHERE " + where;
+        if (whereArgs == null) {
+            database.execSQL(sql);
+        } else {
+            database.execSQL(sql, whereArgs);
+        }
+        final Cursor cur = database.rawQuery("SELECT count(*) FROM " + CHANGED_ITEMS, null);
+        final boolean ret = cur.moveToFirst() && cur.getInt(0) > 0;
+        cur.close();
+        return ret;
+    }
+
+    /*
+     * Recounts every counter from the items and repairs the ones that drifted.
+     *
+     * @return the number of counters repaired
+     */
+    public static int verify(final SQLiteDatabase database) {
+        final Map<String, int[]> actual = new HashMap<String, int[]>();
+        final Cursor cur = database.rawQuery(String.format(SQL_COUNT_BY_STREAM, SQL_SELECT_ALL_ITEMS), null);
+        for (cur.moveToFirst(); !cur.isAfterLast(); cur.moveToNext()) {
+            if (!cur.isNull(0)) {
+                actual.put(cur.getString(0), new int[] { cur.getInt(2), cur.getInt(3) });
+            }
+        }
+        cur.close();
+        final Cursor curAll = database.rawQuery(String.format(SQL_COUNT_ALL, SQL_SELECT_ALL_ITEMS), null);
+        curAll.moveToFirst();
+        actual.put(GLOBAL_UID, new int[] { curAll.getInt(1), curAll.getInt(2) });
+        curAll.close();
+
+        final Set<String> stale = new HashSet<String>();
+        final Cursor curStored = database.query(TABLE_NAME, COLUMNS, null, null, null, null, null);
+        for (curStored.moveToFirst(); !curStored.isAfterLast(); curStored.moveToNext()) {
+            final int[] counts = actual.get(curStored.getString(0));
+            if (counts == null) {
+                stale.add(curStored.getString(0));
+            } else if (counts[0] == curStored.getInt(1) && counts[1] == curStored.getInt(2)) {
+                actual.remove(curStored.getString(0));
+            }
+        }
+        curStored.close();
+        for (final String uid : stale) {
+            database.delete(TABLE_NAME, _UID + "=?", new String[] { uid });
+        }
+        final SQLiteStatement replace = database.compileStatement("INSERT OR REPLACE INTO " + TABLE_NAME + "("
+                + _UID + "," + _UNREADCOUNT + "," + _STARREDCOUNT + ")VALUES(?,?,?)");
+        try {
+            for (final Map.Entry<String, int[]> entry : actual.entrySet()) {
+                replace.bindString(1, entry.getKey());
+                replace.bindLong(2, entry.getValue()[0]);
+                replace.bindLong(3, entry.getValue()[1]);
+                replace.executeInsert();
+            }
+        } finally {
+            replace.close();
+        }
+        return stale.size() + actual.size();
+    }
+
+    private Counter() {
+    }
+}
@@ -21,14 +21,22 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
 public class DBOpenHelper extends SQLiteOpenHelper {
-    final private static int DB_VERSION = 44;
+    final private static int DB_VERSION = 53;
+    final private static long CHECKPOINT_MIN_INTERVAL = 30 * 1000;
     final private static Map<Integer, String[]> UPGRADE_SQL;
 
     static {
         UPGRADE_SQL = new HashMap<Integer, String[]>();
         UPGRADE_SQL.put(43, new String[] { SQLConstants.UPGRADE_ITEM_TAGS_ITEM_UID, SQLConstants.UPGRADE_ITEMS_UID });
+        UPGRADE_SQL.put(45, ItemSearch.SQL_BACKFILL);
+        final String[] sqls = new String[Counter.SQL_REBUILD.length + 1];
+        sqls[0] = SQLConstants.DROP_TRIGGER_MARK_ITEM_AS_READ;
+        System.arraycopy(Counter.SQL_REBUILD, 0, sqls, 1, Counter.SQL_REBUILD.length);
+        UPGRADE_SQL.put(46, sqls);
+        UPGRADE_SQL.put(53, new String[] { ItemSearch.SQL_UPGRADE_KEYS });
     }
 
     private static DBOpenHelper instance;
@@ -118,8 +126,41 @@ public class DBOpenHelper extends SQLiteOpenHelper {
         return buff.toString();
     }
 
+    private long lastCheckpointTime;
+
+    /*
+     * The database runs in write-ahead logging mode: a sync transaction only
+     * appends to the log, so queries from the UI keep reading the last
+     * committed state on their own pooled connections instead of waiting for
+     * the writer to finish.
+     */
     private DBOpenHelper(final Context context) {
         super(context, "EasyRSSDB", null, DB_VERSION);
+        this.lastCheckpointTime = 0;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    /*
+     * SQLite's automatic checkpoint keeps the log bounded while a sync is
+     * writing. Once the writers are idle, the log is folded back into the
+     * database so that readers don't have to scan a long log; this is skipped
+     * if the last checkpoint is recent, as small syncs come in bursts.
+     */
+    public synchronized void checkpoint() {
+        final long now = System.currentTimeMillis();
+        if (now - lastCheckpointTime < CHECKPOINT_MIN_INTERVAL) {
+            return;
+        }
+        lastCheckpointTime = now;
+        try {
+            final Cursor cur = getWritableDatabase().rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+            cur.moveToFirst();
+            cur.close();
+        } catch (final Exception exception) {
+            exception.printStackTrace();
+        }
     }
 
     private String createTable(final String tableName, final String[] columns, final String[] columnsCreate) {
@@ -142,6 +183,14 @@ public class DBOpenHelper extends SQLiteOpenHelper {
     private void createTables(final SQLiteDatabase database) {
         database.execSQL(createTable(Item.TABLE_NAME, Item.COLUMNS, Item.COLUMNS_TYPE));
         database.execSQL(ItemTag.SQL_CREATE_TABLE);
+        database.execSQL(ItemSearch.SQL_CREATE_TABLE);
+        database.execSQL(ItemSearch.SQL_CREATE_KEYS_TABLE);
+        database.execSQL(Counter.SQL_CREATE_TABLE);
+        database.execSQL(SegmentStore.SQL_CREATE_TABLE);
+        database.execSQL(SegmentStore.SQL_CREATE_SEGMENT_INDEX);
+        database.execSQL(ImageCache.SQL_CREATE_TABLE);
+        database.execSQL(ImageCache.SQL_CREATE_REFS_TABLE);
+        database.execSQL(ImageCache.SQL_CREATE_REFS_INDEX);
         database.execSQL(createTable(Subscription.TABLE_NAME, Subscription.COLUMNS, Subscription.COLUMNS_TYPE));
         database.execSQL(SubscriptionTag.SQL_CREATE_TABLE);
         database.execSQL(Setting.SQL_CREATE_TABLE);
@@ -173,7 +222,6 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 
     private void createTriggers(final SQLiteDatabase database) {
         database.execSQL(SQLConstants.CREATE_TRIGGER_DELETE_REDUNDENT_TRANSACTION);
-        database.execSQL(SQLConstants.CREATE_TRIGGER_MARK_ITEM_AS_READ);
     }
 
     @Override
@@ -181,6 +229,14 @@ public class DBOpenHelper extends SQLiteOpenHelper {
         createTables(database);
     }
 
+    @Override
+    public void onOpen(final SQLiteDatabase database) {
+        super.onOpen(database);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !database.isReadOnly()) {
+            database.enableWriteAheadLogging();
+        }
+    }
+
     @Override
     public void onUpgrade(final SQLiteDatabase database, final int oldVersion, final int newVersion) {
         if (checkDropTable(database, ItemTag.TABLE_NAME, ItemTag.COLUMNS)) {
@@ -196,7 +252,14 @@ public class DBOpenHelper extends SQLiteOpenHelper {
         checkTableColumns(database, Subscription.TABLE_NAME, Subscription.COLUMNS, Subscription.COLUMNS_TYPE);
         checkTableColumns(database, Tag.TABLE_NAME, Tag.COLUMNS, Tag.COLUMNS_TYPE);
         checkTableColumns(database, Transaction.TABLE_NAME, Transaction.COLUMNS, Transaction.COLUMNS_TYPE);
+        final List<String> searchColumns = getTableColumns(database, ItemSearch.TABLE_NAME);
+        if (searchColumns != null && searchColumns.contains(ItemSearch._OLD_UID)) {
+            for (final String sql : ItemSearch.SQL_UPGRADE_DOCID) {
+                database.execSQL(sql);
+            }
+        }
         createTables(database);
+        checkTableColumns(database, ImageCache.TABLE_NAME, ImageCache.COLUMNS, ImageCache.COLUMNS_TYPE);
         createTriggers(database);
         for (int i = oldVersion + 1; i <= newVersion; i++) {
             final String[] sqls = UPGRADE_SQL.get(i);
@@ -11,13 +11,14 @@
 
 package org.freshrss.easyrss.data;
 
-import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.freshrss.easyrss.Utils;
 
@@ -27,6 +28,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.Message;
@@ -68,6 +70,8 @@ final public class DataMgr {
     static private final int MSG_SETTING_UPDATED = 1;
     static private final int MSG_SUBSCRIPTION_UPDATED = 2;
     static private final int MSG_TAG_UPDATED = 3;
+    static private final int MAX_MARK_ITEMS = 500;
+    static private final long COUNTER_VERIFY_INTERVAL = 24 * 60 * 60 * 1000;
 
     public static DataMgr getInstance() {
         return instance;
@@ -85,6 +89,10 @@ final public class DataMgr {
     final private List<OnSettingUpdatedListener> settingListeners;
     final private List<OnSubscriptionUpdatedListener> subscriptionListeners;
     final private List<OnTagUpdatedListener> tagListeners;
+    /* held while a setting is written to both the database and settings */
+    final private Object settingsLock;
+    private volatile Map<String, String> settings;
+    private volatile boolean isSettingsLoaded;
 
     private DataMgr(final Context context) {
         this.context = context;
@@ -92,6 +100,9 @@ final public class DataMgr {
         this.subscriptionListeners = new LinkedList<OnSubscriptionUpdatedListener>();
         this.settingListeners = new LinkedList<OnSettingUpdatedListener>();
         this.tagListeners = new LinkedList<OnTagUpdatedListener>();
+        this.settingsLock = new Object();
+        this.settings = new ConcurrentHashMap<String, String>();
+        this.isSettingsLoaded = false;
 
         DBOpenHelper.init(context);
         dbOpenHelper = DBOpenHelper.getInstance();
@@ -99,29 +110,16 @@ final public class DataMgr {
 
     public void addItems(final List<Item> items) {
         final SQLiteDatabase database = dbOpenHelper.getWritableDatabase();
+        final BulkIngester ingester = new BulkIngester(database);
         database.beginTransaction();
         try {
-            for (final Item item : items) {
-                final Cursor cur = database.query(Item.TABLE_NAME, new String[] { Item._UID }, Item._UID + "=?",
-                        new String[] { item.getUid() }, null, null, null);
-                if (cur.getCount() == 0) {
-                    database.insertOrThrow(Item.TABLE_NAME, Item.TABLE_NAME, item.toContentValues());
-                } else {
-                    database.update(Item.TABLE_NAME, item.toUpdateContentValues(), Item._UID + "=?",
-                            new String[] { item.getUid() });
-                }
-                cur.close();
-
-                database.delete(ItemTag.TABLE_NAME, ItemTag._ITEMUID + "=?", new String[] { item.getUid() });
-                for (final String tag : item.getTags()) {
-                    database.execSQL(SQLConstants.INSERT_ITEM_TAG, new String[] { item.getUid(), tag });
-                }
-            }
+            ingester.ingestItems(items);
             database.setTransactionSuccessful();
         } catch (final Exception exception) {
             exception.printStackTrace();
         } finally {
             database.endTransaction();
+            ingester.close();
         }
         for (final Item item : items) {
             notifyItemUpdated(item);
@@ -156,71 +154,36 @@ final public class DataMgr {
         tagListeners.add(listener);
     }
 
-    private void addSubscription(final SQLiteDatabase database, final Subscription sub) throws Exception {
-        final Cursor cur = database.query(Subscription.TABLE_NAME, new String[] { Subscription._UID,
-                Subscription._ICON, Subscription._UNREADCOUNT }, Subscription._UID + "=?",
-                new String[] { sub.getUid() }, null, null, null);
-        if (cur.getCount() == 0) {
-            database.insertOrThrow(Subscription.TABLE_NAME, Subscription.TABLE_NAME, sub.toContentValues());
-        } else {
-            database.update(Subscription.TABLE_NAME, sub.toUpdateContentValues(), Subscription._UID + "=?",
-                    new String[] { sub.getUid() });
-            cur.moveToFirst();
-            sub.setIcon(cur.getBlob(1));
-            sub.setUnreadCount(cur.getInt(2));
-        }
-        cur.close();
-
-        database.delete(SubscriptionTag.TABLE_NAME, SubscriptionTag._SUBSCRIPTIONUID + "=?",
-                new String[] { sub.getUid() });
-        for (final String tag : sub.getTags()) {
-            database.execSQL(SQLConstants.INSERT_SUBSCRIPTION_TAG, new String[] { sub.getUid(), tag });
-        }
-    }
-
     public void addSubscriptions(final List<Subscription> subs) {
         final SQLiteDatabase database = dbOpenHelper.getWritableDatabase();
+        final BulkIngester ingester = new BulkIngester(database);
         database.beginTransaction();
         try {
-            for (final Subscription sub : subs) {
-                addSubscription(database, sub);
-            }
+            ingester.ingestSubscriptions(subs);
             database.setTransactionSuccessful();
         } catch (final Exception exception) {
             exception.printStackTrace();
         } finally {
             database.endTransaction();
+            ingester.close();
         }
         for (final Subscription sub : subs) {
             notifySubscriptionUpdated(sub);
         }
     }
 
-    private void addTag(final SQLiteDatabase database, final Tag tag) throws Exception {
-        final Cursor cur = database.query(Tag.TABLE_NAME, new String[] { Tag._UID, Tag._UNREADCOUNT }, Tag._UID + "=?",
-                new String[] { tag.getUid() }, null, null, null);
-        if (cur.getCount() == 0) {
-            database.insertOrThrow(Tag.TABLE_NAME, Tag.TABLE_NAME, tag.toContentValues());
-        } else {
-            database.update(Tag.TABLE_NAME, tag.toUpdateContentValues(), Tag._UID + "=?", new String[] { tag.getUid() });
-            cur.moveToFirst();
-            tag.setUnreadCount(cur.getInt(1));
-        }
-        cur.close();
-    }
-
     public void addTags(final List<Tag> tags) {
         final SQLiteDatabase database = dbOpenHelper.getWritableDatabase();
+        final BulkIngester ingester = new BulkIngester(database);
         database.beginTransaction();
         try {
-            for (final Tag tag : tags) {
-                addTag(database, tag);
-            }
+            ingester.ingestTags(tags);
             database.setTransactionSuccessful();
         } catch (final Exception exception) {
             exception.printStackTrace();
         } finally {
             database.endTransaction();
+            ingester.close();
         }
         for (final Tag tag : tags) {
             notifyTagUpdated(tag);
@@ -237,12 +200,14 @@ final public class DataMgr {
     }
 
     public int calcGlobalUnreadItemCount() {
-        final ContentResolver resolver = context.getContentResolver();
-        final Cursor cur = resolver.query(Item.CONTENT_URI, new String[] { "count(*)" }, ItemState._ISREAD + "=0",
-                new String[] {}, null);
-        final int ret = (cur.moveToFirst()) ? cur.getInt(0) : 0;
-        cur.close();
-        return ret;
+        return Counter.getGlobalUnreadCount(dbOpenHelper.getReadableDatabase());
+    }
+
+    /*
+     * Called when the sync writers become idle.
+     */
+    public void checkpoint() {
+        dbOpenHelper.checkpoint();
     }
 
     public void clearAll() {
@@ -251,13 +216,23 @@ final public class DataMgr {
         database.execSQL("DELETE FROM " + Subscription.TABLE_NAME);
         database.execSQL("DELETE FROM " + SubscriptionTag.TABLE_NAME);
         database.execSQL("DELETE FROM " + Tag.TABLE_NAME);
-        database.execSQL("DELETE FROM " + Setting.TABLE_NAME);
+        synchronized (settingsLock) {
+            database.execSQL("DELETE FROM " + Setting.TABLE_NAME);
+            settings.clear();
+        }
     }
 
     private void clearItems() {
         final SQLiteDatabase database = dbOpenHelper.getWritableDatabase();
         database.execSQL("DELETE FROM " + Item.TABLE_NAME);
         database.execSQL("DELETE FROM " + ItemTag.TABLE_NAME);
+        database.execSQL("DELETE FROM " + ItemSearch.TABLE_NAME);
+        database.execSQL("DELETE FROM " + ItemSearch.KEYS_TABLE_NAME);
+        database.execSQL("DELETE FROM " + Counter.TABLE_NAME);
+        SegmentStore.getInstance().clear();
+        database.execSQL("DELETE FROM " + ImageCache.TABLE_NAME);
+        database.execSQL("DELETE FROM " + ImageCache.REFS_TABLE_NAME);
+        ImageCache.getInstance().clear();
     }
 
     public Context getContext() {
@@ -298,7 +273,46 @@ final public class DataMgr {
         return ret;
     }
 
+    /*
+     * Settings are read on hot paths (e.g. the auth for every request), so the
+     * table is mirrored in memory and written through by updateSetting and
+     * removeSettingByName. The global unread count is also changed set-wise by
+     * Counter and thus always read from the database.
+     */
     public String getSettingByName(final String name) {
+        if (Setting.SETTING_GLOBAL_ITEM_UNREAD_COUNT.equals(name)) {
+            return querySettingByName(name);
+        }
+        if (!isSettingsLoaded) {
+            loadSettings();
+        }
+        return settings.get(name);
+    }
+
+    /*
+     * Reads the table into a new map that replaces settings at once; under
+     * settingsLock, so no write can happen between the read and the swap.
+     */
+    private void loadSettings() {
+        synchronized (settingsLock) {
+            if (isSettingsLoaded) {
+                return;
+            }
+            final Map<String, String> loaded = new ConcurrentHashMap<String, String>();
+            final Cursor cur = dbOpenHelper.getReadableDatabase().query(Setting.TABLE_NAME,
+                    new String[] { Setting._NAME, Setting._VALUE }, null, null, null, null, null);
+            for (cur.moveToFirst(); !cur.isAfterLast(); cur.moveToNext()) {
+                if (cur.getString(0) != null && cur.getString(1) != null) {
+                    loaded.put(cur.getString(0), cur.getString(1));
+                }
+            }
+            cur.close();
+            settings = loaded;
+            isSettingsLoaded = true;
+        }
+    }
+
+    private String querySettingByName(final String name) {
         final ContentResolver resolver = context.getContentResolver();
         final Cursor cur = resolver.query(Setting.CONTENT_URI, null, Setting._NAME + "=?", new String[] { name }, null);
         final String ret = (cur.moveToFirst()) ? cur.getString(cur.getColumnIndex(Setting._VALUE)) : null;
@@ -332,16 +346,20 @@ final public class DataMgr {
     }
 
     public void markAllItemsAsRead() {
-        final ContentResolver resolver = context.getContentResolver();
-        final ContentValues values = new ContentValues();
-        values.put(ItemState._ISREAD, true);
-        resolver.update(Item.CONTENT_URI, values, ItemState._ISREAD + "=0", null);
+        final SQLiteDatabase database = dbOpenHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            Counter.changeItemState(database, ItemState._ISREAD + "=0", null, ItemState._ISREAD, true, true);
+            database.setTransactionSuccessful();
+        } catch (final Exception exception) {
+            exception.printStackTrace();
+        } finally {
+            database.endTransaction();
+        }
     }
 
     private void markAllItemsAsRead(final SQLiteDatabase database) {
-        final ContentValues values = new ContentValues();
-        values.put(ItemState._ISREAD, true);
-        database.update(Item.TABLE_NAME, values, ItemState._ISREAD + "=0", null);
+        Counter.changeItemState(database, ItemState._ISREAD + "=0", null, ItemState._ISREAD, true, false);
     }
 
     public void markItemAsReadWithTransactionByUid(final String uid) {
@@ -353,7 +371,7 @@ final public class DataMgr {
         final SQLiteDatabase database = dbOpenHelper.getWritableDatabase();
         database.beginTransaction();
         try {
-            database.execSQL(SQLConstants.MARK_ITEM_AS_READ, new String[] { uid });
+            Counter.changeItemState(database, Item._UID + "=?", new String[] { uid }, ItemState._ISREAD, true, true);
             addTransaction(database, new Transaction(Item.getFullUid(uid), null, Transaction.TYPE_SET_READ));
             database.setTransactionSuccessful();
         } catch (final Exception exception) {
@@ -372,12 +390,19 @@ final public class DataMgr {
     }
 
     public void markItemAsStarredWithTransactionByUid(final String uid, final boolean isStarred) {
-        final ContentResolver resolver = context.getContentResolver();
-        final ContentValues values = new ContentValues();
-        values.put(ItemState._ISSTARRED, isStarred);
-        resolver.update(Item.CONTENT_URI, values, Item._UID + "=?", new String[] { uid });
-        addTransaction(new Transaction(Item.getFullUid(uid), null, (isStarred) ? Transaction.TYPE_SET_STARRED
-                : Transaction.TYPE_REMOVE_STARRED));
+        final SQLiteDatabase database = dbOpenHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            Counter.changeItemState(database, Item._UID + "=?", new String[] { uid }, ItemState._ISSTARRED,
+                    isStarred, false);
+            addTransaction(database, new Transaction(Item.getFullUid(uid), null,
+                    (isStarred) ? Transaction.TYPE_SET_STARRED : Transaction.TYPE_REMOVE_STARRED));
+            database.setTransactionSuccessful();
+        } catch (final Exception exception) {
+            exception.printStackTrace();
+        } finally {
+            database.endTransaction();
+        }
         notifyItemUpdated(getItemByUid(uid));
     }
 
@@ -390,18 +415,9 @@ final public class DataMgr {
         final SQLiteDatabase database = dbOpenHelper.getWritableDatabase();
         database.beginTransaction();
         try {
-            database.execSQL(
-                    "UPDATE " + Item.TABLE_NAME + " SET " + ItemState._ISREAD + "=0 WHERE " + Item._UID + "=?",
-                    new String[] { uid });
-            database.execSQL("UPDATE " + Subscription.TABLE_NAME + " SET " + Subscription._UNREADCOUNT + "="
-                    + Subscription._UNREADCOUNT + "+1 WHERE " + Subscription._UID + "=?",
-                    new String[] { item.getSourceUri() });
-            database.execSQL(SQLConstants.INCREASE_TAG_UNREAD_COUNT, new String[] { item.getUid() });
+            Counter.changeItemState(database, Item._UID + "=?", new String[] { uid }, ItemState._ISREAD, false, true);
+            addTransaction(database, new Transaction(Item.getFullUid(uid), null, Transaction.TYPE_REMOVE_READ));
             database.setTransactionSuccessful();
-            final String sGlobalUC = getSettingByName(Setting.SETTING_GLOBAL_ITEM_UNREAD_COUNT);
-            final int globalUC = ((sGlobalUC == null) ? 0 : Integer.valueOf(sGlobalUC)) + 1;
-            updateSetting(database, new Setting(Setting.SETTING_GLOBAL_ITEM_UNREAD_COUNT, globalUC));
-            addTransaction(new Transaction(Item.getFullUid(uid), null, Transaction.TYPE_REMOVE_READ));
         } catch (final Exception exception) {
             exception.printStackTrace();
         } finally {
@@ -413,6 +429,7 @@ final public class DataMgr {
         for (cur.moveToFirst(); !cur.isAfterLast(); cur.moveToNext()) {
             notifyTagUpdated(Tag.fromCursor(cur));
         }
+        cur.close();
         notifyItemUpdated(item);
     }
 
@@ -421,8 +438,6 @@ final public class DataMgr {
             markAllItemsAsRead(database);
             return;
         }
-        final ContentValues values = new ContentValues();
-        values.put(ItemState._ISREAD, true);
         final StringBuilder buff = new StringBuilder(128);
         if (tLow == null) {
             buff.append(Item._TIMESTAMP + "<");
@@ -436,7 +451,7 @@ final public class DataMgr {
             buff.append(" AND " + Item._TIMESTAMP + ">");
             buff.append(tLow);
         }
-        database.update(Item.TABLE_NAME, values, buff.toString(), null);
+        Counter.changeItemState(database, buff.toString(), null, ItemState._ISREAD, true, false);
     }
 
     public void markItemsAsReadItemIds(final List<ItemId> itemIds, int left, int right) {
@@ -448,19 +463,16 @@ final public class DataMgr {
         database.beginTransaction();
         try {
             Long lastTimestamp = (left > 0) ? (itemIds.get(left - 1).getTimestamp()) : null;
-            final ContentValues values = new ContentValues();
-            values.put(ItemState._ISREAD, false);
-            database.execSQL(SQLConstants.DROP_TRIGGER_MARK_ITEM_AS_READ);
             for (int i = left; i < right; i++) {
                 final ItemId curItemId = itemIds.get(i);
                 markItemsAsReadByTimestampRange(database, curItemId.getTimestamp(), lastTimestamp);
-                database.update(Item.TABLE_NAME, values, Item._UID + "=?", new String[] { curItemId.getUid() });
+                Counter.changeItemState(database, Item._UID + "=?", new String[] { curItemId.getUid() },
+                        ItemState._ISREAD, false, false);
                 lastTimestamp = curItemId.getTimestamp();
             }
             if (markPreviousAsRead) {
                 markItemsAsReadByTimestampRange(database, null, lastTimestamp);
             }
-            database.execSQL(SQLConstants.CREATE_TRIGGER_MARK_ITEM_AS_READ);
             database.setTransactionSuccessful();
         } catch (final Exception exception) {
             exception.printStackTrace();
@@ -478,8 +490,18 @@ final public class DataMgr {
         final SQLiteDatabase database = dbOpenHelper.getWritableDatabase();
         database.beginTransaction();
         try {
+            final StringBuilder where = new StringBuilder();
+            final List<String> args = new ArrayList<String>();
             for (final Item item : items) {
-                database.execSQL(SQLConstants.MARK_ITEM_AS_READ, new String[] { item.getUid() });
+                where.append(args.isEmpty() ? Item._UID + " IN(?" : ",?");
+                args.add(item.getUid());
+                if (args.size() == MAX_MARK_ITEMS) {
+                    where.append(')');
+                    Counter.changeItemState(database, where.toString(), args.toArray(new String[args.size()]),
+                            ItemState._ISREAD, true, true);
+                    where.setLength(0);
+                    args.clear();
+                }
                 addTransaction(database, new Transaction(item.getFullUid(), null, Transaction.TYPE_SET_READ));
                 subscriptionsApp.add(item.getSourceUri());
                 final Cursor cur = database.rawQuery(SQLConstants.SELECT_ITEM_TAGS_UID, new String[] { item.getUid() });
@@ -488,6 +510,11 @@ final public class DataMgr {
                 }
                 cur.close();
             }
+            if (!args.isEmpty()) {
+                where.append(')');
+                Counter.changeItemState(database, where.toString(), args.toArray(new String[args.size()]),
+                        ItemState._ISREAD, true, true);
+            }
             database.setTransactionSuccessful();
         } catch (final Exception exception) {
             exception.printStackTrace();
@@ -525,14 +552,6 @@ final public class DataMgr {
         }
     }
 
-    private int removeItemByUid(final String uid) {
-        final ContentResolver resolver = context.getContentResolver();
-        final int ret = resolver.delete(Item.CONTENT_URI, Item._UID + "=?", new String[] { uid });
-        resolver.delete(ItemTag.CONTENT_URI, ItemTag._ITEMUID + "=?", new String[] { uid });
-        DataUtils.deleteFile(new File(Item.getStoragePathByUid(uid)));
-        return ret;
-    }
-
     /*
      * This method need to be called in MAIN thread.
      */
@@ -561,16 +580,59 @@ final public class DataMgr {
         tagListeners.remove(listener);
     }
 
-    public int removeOutdatedItemsWithLimit(final int limit) {
-        int ret = 0;
-        final ContentResolver resolver = context.getContentResolver();
-        final Cursor cur = resolver.query(Uri.withAppendedPath(Item.CONTENT_URI, "offset/" + limit),
-                new String[] { Item._UID }, null, null, Item._TIMESTAMP + " DESC");
-        for (cur.moveToFirst(); !cur.isAfterLast(); cur.moveToNext()) {
-            ret += removeItemByUid(Item.fromCursor(cur).getUid());
+    /*
+     * Removes the items outdated by the policy in one transaction; their
+     * folders are deleted afterwards by the FileReaper.
+     */
+    public int removeOutdatedItems(final RetentionPolicy policy) {
+        final SQLiteDatabase database = dbOpenHelper.getWritableDatabase();
+        final String where = Item._UID + " IN(SELECT " + Item._UID + " FROM " + RetentionPolicy.OUTDATED_ITEMS + ")";
+        List<String> uids = new ArrayList<String>();
+        database.beginTransaction();
+        try {
+            uids = policy.collect(database);
+            if (!uids.isEmpty()) {
+                Counter.removeItems(database, where, null);
+                /* search rows are found through the keys of their items */
+                final SQLiteStatement searchDelete = database.compileStatement(ItemSearch.SQL_DELETE_BY_UID);
+                try {
+                    for (final String uid : uids) {
+                        searchDelete.bindAllArgsAsStrings(ItemSearch.deleteArgs(uid));
+                        searchDelete.executeUpdateDelete();
+                    }
+                } finally {
+                    searchDelete.close();
+                }
+                database.delete(ItemSearch.KEYS_TABLE_NAME, ItemSearch._UID + " IN(SELECT " + Item._UID + " FROM "
+                        + RetentionPolicy.OUTDATED_ITEMS + ")", null);
+                database.delete(Item.TABLE_NAME, where, null);
+                database.delete(ItemTag.TABLE_NAME, ItemTag._ITEMUID + " IN(SELECT " + Item._UID + " FROM "
+                        + RetentionPolicy.OUTDATED_ITEMS + ")", null);
+                database.delete(SegmentStore.TABLE_NAME, SegmentStore._ITEMUID + " IN(SELECT " + Item._UID
+                        + " FROM " + RetentionPolicy.OUTDATED_ITEMS + ")", null);
+                database.delete(ImageCache.REFS_TABLE_NAME, ImageCache._ITEMUID + " IN(SELECT " + Item._UID
+                        + " FROM " + RetentionPolicy.OUTDATED_ITEMS + ")", null);
+            }
+            database.setTransactionSuccessful();
+        } catch (final Exception exception) {
+            exception.printStackTrace();
+            uids.clear();
+        } finally {
+            database.endTransaction();
         }
-        cur.close();
-        return ret;
+        FileReaper.getInstance().reap(uids);
+        if (!uids.isEmpty()) {
+            SegmentStore.getInstance().compactInBackground();
+            ImageCache.getInstance().trimInBackground();
+        }
+        return uids.size();
+    }
+
+    /*
+     * @param maxAge in milliseconds; a limit of 0 disables its rule
+     */
+    public int removeOutdatedItemsWithLimits(final int maxItems, final int maxItemsPerFeed, final long maxAge) {
+        return removeOutdatedItems(new RetentionPolicy(maxItems, maxItemsPerFeed, maxAge));
     }
 
     public int removeOutdatedSubscriptions(final long updateTime) {
@@ -612,7 +674,11 @@ final public class DataMgr {
 
     public int removeSettingByName(final String name) {
         final ContentResolver resolver = context.getContentResolver();
-        return resolver.delete(Setting.CONTENT_URI, Setting._NAME + "=?", new String[] { name });
+        synchronized (settingsLock) {
+            final int ret = resolver.delete(Setting.CONTENT_URI, Setting._NAME + "=?", new String[] { name });
+            settings.remove(name);
+            return ret;
+        }
     }
 
     private int removeSubscriptionByUid(final String uid) {
@@ -627,18 +693,107 @@ final public class DataMgr {
         resolver.delete(Transaction.CONTENT_URI, Transaction._ID + "=?", new String[] { String.valueOf(id) });
     }
 
+    /*
+     * Deletes all given transactions with a single statement.
+     */
+    public void removeTransactionsByIds(final List<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        final StringBuilder builder = new StringBuilder(32 + ids.size() * 8);
+        builder.append("DELETE FROM ");
+        builder.append(Transaction.TABLE_NAME);
+        builder.append(" WHERE ");
+        builder.append(Transaction._ID);
+        builder.append(" IN(");
+        for (int i = 0; i < ids.size(); i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(ids.get(i).longValue());
+        }
+        builder.append(')');
+        dbOpenHelper.getWritableDatabase().execSQL(builder.toString());
+    }
+
+    /*
+     * @return the uids of the items matching every word of the query, the
+     * most relevant first
+     */
+    public List<String> searchItemUids(final String query, final int limit) {
+        return ItemSearch.search(dbOpenHelper.getReadableDatabase(), query, limit);
+    }
+
     public void updateSetting(final Setting setting) {
         updateSetting(dbOpenHelper.getWritableDatabase(), setting);
         notifySettingUpdated(setting.getName());
     }
 
     /*
-     * Remember: the updating of setting is not notified here!
+     * Remember: the updating of setting is not notified here! Not for use
+     * inside a transaction, which would hold the database while waiting for
+     * settingsLock; see writeSetting.
      */
     private void updateSetting(final SQLiteDatabase database, final Setting setting) {
+        synchronized (settingsLock) {
+            writeSetting(database, setting);
+            settings.put(setting.getName(), setting.getValue());
+        }
+    }
+
+    /*
+     * Reads the given settings back into settings, once the transaction that
+     * wrote them committed.
+     */
+    private void updateSettingsFromDatabase(final List<String> names) {
+        synchronized (settingsLock) {
+            for (final String name : names) {
+                final String value = querySettingByName(name);
+                if (value == null) {
+                    settings.remove(name);
+                } else {
+                    settings.put(name, value);
+                }
+            }
+        }
+    }
+
+    /*
+     * Writes the setting to the database only, e.g. inside a transaction; the
+     * caller has to call updateSettingsFromDatabase once it committed.
+     */
+    private void writeSetting(final SQLiteDatabase database, final Setting setting) {
         database.execSQL(SQLConstants.INSERT_OR_REPLACE_SETTING, new String[] { setting.getName(), setting.getValue() });
     }
 
+    /*
+     * Recounts the counters from the items at most once per
+     * COUNTER_VERIFY_INTERVAL and repairs any drift.
+     */
+    public void verifyCounters() {
+        final long now = System.currentTimeMillis();
+        final String sTime = getSettingByName(Setting.SETTING_COUNTER_VERIFY_TIME);
+        if (sTime != null && Long.valueOf(sTime) + COUNTER_VERIFY_INTERVAL > now) {
+            return;
+        }
+        final SQLiteDatabase database = dbOpenHelper.getWritableDatabase();
+        int repaired = 0;
+        database.beginTransaction();
+        try {
+            repaired = Counter.verify(database);
+            database.setTransactionSuccessful();
+        } catch (final Exception exception) {
+            exception.printStackTrace();
+            return;
+        } finally {
+            database.endTransaction();
+        }
+        updateSetting(database, new Setting(Setting.SETTING_COUNTER_VERIFY_TIME, now));
+        if (repaired > 0) {
+            notifySettingUpdated(Setting.SETTING_GLOBAL_ITEM_UNREAD_COUNT);
+        }
+    }
+
     public void updateSubscriptionIconByUid(final String uid, final byte[] icon) {
         final ContentResolver resolver = context.getContentResolver();
         final ContentValues values = new ContentValues();
@@ -649,6 +804,8 @@ final public class DataMgr {
 
     public void updateUnreadCounts(final List<UnreadCount> unreadCounts) {
         final SQLiteDatabase database = dbOpenHelper.getWritableDatabase();
+        final List<String> names = new ArrayList<String>();
+        boolean isCommitted = false;
         database.beginTransaction();
         try {
             for (final UnreadCount unread : unreadCounts) {
@@ -663,12 +820,14 @@ final public class DataMgr {
                     values.put(Tag._UPDATETIME, System.currentTimeMillis());
                     database.update(Tag.TABLE_NAME, values, Tag._UID + "=?", new String[] { uid });
                 } else if (uid.endsWith("/state/com.google/reading-list")) {
-                    updateSetting(database, new Setting(Setting.SETTING_GLOBAL_ITEM_UNREAD_COUNT, unread.getCount()));
-                    updateSetting(database,
+                    writeSetting(database, new Setting(Setting.SETTING_GLOBAL_ITEM_UNREAD_COUNT, unread.getCount()));
+                    writeSetting(database,
                             new Setting(Setting.SETTING_GLOBAL_ITEM_UPDATE_TIME, System.currentTimeMillis()));
+                    names.add(Setting.SETTING_GLOBAL_ITEM_UPDATE_TIME);
                 }
             }
             database.setTransactionSuccessful();
+            isCommitted = true;
             notifySettingUpdated(Setting.SETTING_GLOBAL_ITEM_UNREAD_COUNT);
             final ContentResolver resolver = context.getContentResolver();
             {
@@ -690,5 +849,9 @@ final public class DataMgr {
         } finally {
             database.endTransaction();
         }
+        /* a rolled back transaction left settings untouched */
+        if (isCommitted) {
+            updateSettingsFromDatabase(names);
+        }
     }
 }
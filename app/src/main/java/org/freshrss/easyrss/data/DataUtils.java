@@ -14,19 +14,12 @@ package org.freshrss.easyrss.data;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Queue;
 
-import org.htmlcleaner.CleanerProperties;
-import org.htmlcleaner.FastHtmlSerializer;
 import org.htmlcleaner.HtmlCleaner;
 import org.htmlcleaner.TagNode;
 
@@ -50,6 +43,8 @@ final public class DataUtils {
             + "a{color:#EEE;font-weight:bold;text-decoration:none;border-bottom:1px #777 dashed;}"
             + "img{max-width:100%;overflow:hidden;height:auto;}" + "</style>";
     public final static String DEFAULT_JS = "<script>window.onload=function(){var pics=document.getElementsByTagName('img');for(var i=0;i<pics.length;i++){var pic=pics[i];pic.onclick=function(){alert(this.getAttribute('src'));};}}</script>";
+    /* a cleaner keeps no state between cleanings, so one is shared */
+    final private static HtmlCleaner CLEANER = new HtmlCleaner();
 
     public static long calcFileSpace(final File dir) {
         if (!dir.exists()) {
@@ -133,10 +128,9 @@ final public class DataUtils {
         final Intent intent = new Intent(Intent.ACTION_SEND);
         intent.setType("text/plain");
         intent.putExtra(Intent.EXTRA_SUBJECT, Html.fromHtml(item.getTitle()).toString());
-        final HtmlCleaner cleaner = new HtmlCleaner();
         try {
-            final TagNode[] bodyNode = cleaner.clean(new File(item.getOriginalContentStoragePath())).getElementsByName(
-                    "body", true);
+            final TagNode[] bodyNode = CLEANER.clean(ItemBody.read(item, ItemBody.VARIANT_ORIGINAL))
+                    .getElementsByName("body", true);
             if (bodyNode.length > 0) {
                 intent.putExtra(Intent.EXTRA_TEXT, Html.fromHtml(item.getTitle()) + "\n\n" + item.getHref() + "\n\n"
                         + bodyNode[0].getText() + "\n(" + context.getString(R.string.TxtViaEasyRSS) + ")");
@@ -152,9 +146,8 @@ final public class DataUtils {
         intent.setType("text/html");
         intent.putExtra(Intent.EXTRA_SUBJECT, Html.fromHtml(item.getTitle()).toString());
         try {
-            final HtmlCleaner cleaner = new HtmlCleaner();
-            final TagNode[] bodyNode = cleaner.clean(new File(item.getOriginalContentStoragePath())).getElementsByName(
-                    "body", true);
+            final TagNode[] bodyNode = CLEANER.clean(ItemBody.read(item, ItemBody.VARIANT_ORIGINAL))
+                    .getElementsByName("body", true);
             if (bodyNode.length > 0) {
                 intent.putExtra(
                         Intent.EXTRA_TEXT,
@@ -165,7 +158,7 @@ final public class DataUtils {
                                 + "'>"
                                 + item.getSourceTitle()
                                 + "</a></p><p>"
-                                + cleaner.getInnerHtml(bodyNode[0])
+                                + CLEANER.getInnerHtml(bodyNode[0])
                                 + "</p><p>("
                                 + context.getString(R.string.TxtViaEasyRSS)
                                 + " | <a href='https://market.android.com/details?id=org.freshrss.easyrss'>Make it simple & elegant!</a>)</p>"));
@@ -208,50 +201,13 @@ final public class DataUtils {
         }
     }
 
+    /*
+     * Stores the sanitized body of the item with the srcs of its images.
+     */
     public static void writeItemToFile(final Item item) throws IOException {
-        final File fdir = new File(item.getStoragePath());
-        fdir.mkdirs();
-        final String content = item.getContent();
-        final HtmlCleaner cleaner = new HtmlCleaner();
-        final TagNode node = cleaner.clean((content == null) ? "" : content);
-        final List<TagNode> imgList = new ArrayList<TagNode>();
-        final Queue<TagNode> nodes = new LinkedList<TagNode>();
-        nodes.add(node);
-        while (!nodes.isEmpty()) {
-            final TagNode tag = nodes.poll();
-            final String tagName = tag.getName().toLowerCase();
-            if ("frame".equals(tagName) || "iframe".equals(tagName) || "script".equals(tagName)) {
-                tag.removeFromTree();
-            } else if ("img".equals(tagName)) {
-                tag.removeAttribute("style");
-                final String src = tag.getAttributeByName("src");
-                if (src != null && (src.startsWith("http://") || src.startsWith("https://"))) {
-                    tag.removeAttribute("width");
-                    tag.removeAttribute("height");
-                    imgList.add(tag);
-                } else {
-                    tag.removeFromTree();
-                }
-            } else if (tag.hasChildren()) {
-                nodes.addAll(tag.getChildTagList());
-            }
-        }
-        final CleanerProperties prop = cleaner.getProperties();
-        prop.setOmitXmlDeclaration(false);
-        final FastHtmlSerializer serializer = new FastHtmlSerializer(prop);
-        {
-            final OutputStream out = new FileOutputStream(new File(item.getOriginalContentStoragePath()));
-            serializer.writeToStream(node, out);
-            out.close();
-        }
-        for (final TagNode tag : imgList) {
-            tag.removeFromTree();
-        }
-        {
-            final OutputStream out = new FileOutputStream(new File(item.getStrippedContentStoragePath()));
-            serializer.writeToStream(node, out);
-            out.close();
-        }
+        final HtmlSanitizer sanitizer = HtmlSanitizer.sanitize(item.getContent());
+        item.setPlainText(sanitizer.getPlainText());
+        ItemBody.write(item, sanitizer.getBody(), sanitizer.getImages());
     }
 
     private DataUtils() {
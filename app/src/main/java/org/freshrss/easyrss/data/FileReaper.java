@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Pursuer (http://pursuer.me).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Pursuer - initial API and implementation
+ ******************************************************************************/
+
+package org.freshrss.easyrss.data;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/*
+ * Deletes the folders of removed items on a background thread. A folder is
+ * first renamed into the trash folder, which is cheap and takes it out of
+ * sight at once; the trash is then emptied in the background. Whatever is
+ * left in the trash when the process dies is removed the next time the
+ * reaper starts.
+ */
+final public class FileReaper {
+    final private static String TRASH_FOLDER = ".trash";
+
+    private static FileReaper instance = null;
+
+    public static synchronized FileReaper getInstance() {
+        if (instance == null) {
+            instance = new FileReaper();
+        }
+        return instance;
+    }
+
+    final private ExecutorService executor;
+    private long sequence;
+
+    private FileReaper() {
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        this.sequence = System.currentTimeMillis();
+        emptyTrash();
+    }
+
+    private void emptyTrash() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final File[] files = getTrashFolder().listFiles();
+                    if (files == null) {
+                        return;
+                    }
+                    for (final File file : files) {
+                        DataUtils.deleteFile(file);
+                        file.delete();
+                    }
+                } catch (final Exception exception) {
+                    exception.printStackTrace();
+                }
+            }
+        });
+    }
+
+    private File getTrashFolder() {
+        return new File(DataUtils.getAppFolderPath() + File.separator + TRASH_FOLDER);
+    }
+
+    /*
+     * Queues the storage folders of the given items for deletion.
+     */
+    public synchronized void reap(final List<String> itemUids) {
+        if (itemUids.isEmpty()) {
+            return;
+        }
+        final File trash = getTrashFolder();
+        trash.mkdirs();
+        for (final String uid : itemUids) {
+            final File dir = new File(Item.getStoragePathByUid(uid));
+            if (dir.exists() && !dir.renameTo(new File(trash, uid + "-" + (sequence++)))) {
+                /* e.g. on another file system: delete in place, still off this thread */
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        DataUtils.deleteFile(dir);
+                    }
+                });
+            }
+        }
+        emptyTrash();
+    }
+}
@@ -0,0 +1,335 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Pursuer (http://pursuer.me).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Pursuer - initial API and implementation
+ ******************************************************************************/
+
+package org.freshrss.easyrss.data;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.htmlcleaner.BaseToken;
+import org.htmlcleaner.CleanerProperties;
+import org.htmlcleaner.CommentNode;
+import org.htmlcleaner.ContentNode;
+import org.htmlcleaner.DefaultTagProvider;
+import org.htmlcleaner.EndTagToken;
+import org.htmlcleaner.HtmlSerializer;
+import org.htmlcleaner.HtmlTokenizer;
+import org.htmlcleaner.SpecialEntity;
+import org.htmlcleaner.TagInfo;
+import org.htmlcleaner.TagNode;
+
+/*
+ * Sanitizes the HTML of an item while it is tokenized, without building a
+ * tree: frames, iframes, scripts and titles are dropped with their content,
+ * img tags lose their style and, if their src is remote, their size, and
+ * are dropped otherwise. The body, the srcs of its images and its plain text
+ * come out of the same pass.
+ *
+ * Open elements are kept on a stack so that the body is balanced: an end tag
+ * closes the elements opened after its own, an end tag with nothing to close
+ * is dropped, a start tag closes an open element it may not be nested in,
+ * and what is still open at the end is closed.
+ */
+final public class HtmlSanitizer {
+    /* writes single tags the way the serializers of HtmlCleaner do */
+    private static class TokenSerializer extends HtmlSerializer {
+        public TokenSerializer(final CleanerProperties props) {
+            super(props);
+        }
+
+        public String escape(final String text) {
+            return escapeText(text);
+        }
+
+        public boolean isRawText(final TagNode tag) {
+            return dontEscape(tag);
+        }
+
+        public void writeText(final CharSequence text, final boolean isRaw, final Writer writer) throws IOException {
+            if (isRaw) {
+                write(text, 0, text.length(), writer);
+            } else {
+                escapeText(text, writer);
+            }
+        }
+
+        @Override
+        protected void serialize(final TagNode tagNode, final Writer writer) throws IOException {
+            serializeOpenTag(tagNode, writer, false);
+        }
+
+        public void writeEndTag(final TagNode tagNode, final Writer writer) throws IOException {
+            serializeEndTag(tagNode, writer, false);
+        }
+    }
+
+    final private static int MAX_PLAIN_TEXT_LENGTH = 16 * 1024;
+    /* e.g. #x10FFFF */
+    final private static int MAX_NCR_LENGTH = 8;
+    /* only read while sanitizing, so it is shared by every sanitizer */
+    final private static CleanerProperties PROPERTIES = new CleanerProperties();
+
+    static {
+        PROPERTIES.setTagInfoProvider(DefaultTagProvider.getInstance());
+    }
+
+    /*
+     * @return the character of the entity named name (without & and ;), or
+     * -1 if it is not one
+     */
+    private static int decodeEntity(final String name) {
+        if (name.startsWith("#")) {
+            try {
+                final int code = (name.startsWith("#x") || name.startsWith("#X")) ? Integer.parseInt(
+                        name.substring(2), 16) : Integer.parseInt(name.substring(1));
+                return Character.isValidCodePoint(code) ? code : -1;
+            } catch (final NumberFormatException exception) {
+                return -1;
+            }
+        }
+        if ("amp".equals(name)) {
+            return '&';
+        } else if ("lt".equals(name)) {
+            return '<';
+        } else if ("gt".equals(name)) {
+            return '>';
+        } else if ("quot".equals(name)) {
+            return '"';
+        } else if ("apos".equals(name)) {
+            return '\'';
+        }
+        final SpecialEntity entity = SpecialEntity.getEntity(name);
+        return (entity == null) ? -1 : entity.getIntCode();
+    }
+
+    private static boolean isDropped(final String name) {
+        return "script".equals(name) || "iframe".equals(name) || "frame".equals(name) || "title".equals(name);
+    }
+
+    /* the envelope is written by the sanitizer itself */
+    private static boolean isEnvelope(final String name) {
+        return "html".equals(name) || "head".equals(name) || "body".equals(name);
+    }
+
+    private static boolean isRemote(final String src) {
+        return src != null && (src.startsWith("http://") || src.startsWith("https://"));
+    }
+
+    public static HtmlSanitizer sanitize(final String html) throws IOException {
+        final HtmlSanitizer ret = new HtmlSanitizer();
+        ret.run((html == null) ? "" : html);
+        return ret;
+    }
+
+    final private CleanerProperties props;
+    final private TokenSerializer serializer;
+    final private StringWriter writer;
+    final private List<TagNode> openTags;
+    final private List<String> images;
+    final private StringBuilder plainText;
+    /* 1 + the position in openTags of the element being dropped, or 0 */
+    private int droppedDepth;
+    private boolean isSpace;
+
+    private HtmlSanitizer() {
+        this.props = PROPERTIES;
+        this.serializer = new TokenSerializer(props);
+        this.writer = new StringWriter();
+        this.openTags = new ArrayList<TagNode>();
+        this.images = new ArrayList<String>();
+        this.plainText = new StringBuilder();
+        this.droppedDepth = 0;
+        this.isSpace = true;
+    }
+
+    private void appendPlainChar(final int c) {
+        if (!Character.isWhitespace(c) && !Character.isSpaceChar(c)) {
+            plainText.appendCodePoint(c);
+            isSpace = false;
+        } else if (!isSpace) {
+            plainText.append(' ');
+            isSpace = true;
+        }
+    }
+
+    /*
+     * Appends the text with its entities decoded, so that "&amp;" is indexed
+     * as "&" rather than as the word "amp".
+     */
+    private void appendPlainText(final CharSequence text) {
+        final int maxEnd = Math.max(SpecialEntity.getMaxEntityLength(), MAX_NCR_LENGTH) + 1;
+        for (int i = 0; i < text.length() && plainText.length() < MAX_PLAIN_TEXT_LENGTH; i++) {
+            final char c = text.charAt(i);
+            if (c == '&') {
+                int end = i + 1;
+                while (end < text.length() && end - i <= maxEnd && text.charAt(end) != ';'
+                        && !Character.isWhitespace(text.charAt(end))) {
+                    end++;
+                }
+                if (end < text.length() && text.charAt(end) == ';') {
+                    final int code = decodeEntity(text.subSequence(i + 1, end).toString());
+                    if (code >= 0) {
+                        appendPlainChar(code);
+                        i = end;
+                        continue;
+                    }
+                }
+            }
+            appendPlainChar(c);
+        }
+    }
+
+    /*
+     * Closes the open elements down to the one at position.
+     */
+    private void closeTags(final int position) throws IOException {
+        for (int i = openTags.size() - 1; i >= position; i--) {
+            final TagNode tag = openTags.remove(i);
+            if (droppedDepth == 0 || i < droppedDepth - 1) {
+                serializer.writeEndTag(tag, writer);
+            }
+        }
+        if (droppedDepth > position) {
+            droppedDepth = 0;
+        }
+    }
+
+    /*
+     * @return the sanitized body, as a whole document
+     */
+    public String getBody() {
+        return writer.toString();
+    }
+
+    /*
+     * @return the srcs of the img tags of the body, in document order
+     */
+    public List<String> getImages() {
+        return images;
+    }
+
+    /*
+     * @return the text of the body collapsed to single spaces, cut at
+     * MAX_PLAIN_TEXT_LENGTH characters
+     */
+    public String getPlainText() {
+        return plainText.toString();
+    }
+
+    private boolean isVoid(final String name) {
+        final TagInfo tagInfo = props.getTagInfoProvider().getTagInfo(name);
+        return (tagInfo != null && tagInfo.isEmptyTag()) || "frame".equals(name);
+    }
+
+    private void onEndTag(final String name) throws IOException {
+        if (name == null || isEnvelope(name)) {
+            return;
+        }
+        for (int i = openTags.size() - 1; i >= 0; i--) {
+            if (name.equals(openTags.get(i).getName())) {
+                closeTags(i);
+                return;
+            }
+        }
+    }
+
+    private void onStartTag(final TagNode tag) throws IOException {
+        final String name = tag.getName();
+        if (name == null || isEnvelope(name)) {
+            return;
+        }
+        final boolean isVoid = isVoid(name);
+        if (droppedDepth == 0 && !openTags.isEmpty()) {
+            /* e.g. a li closes the li before it */
+            final TagInfo tagInfo = props.getTagInfoProvider().getTagInfo(name);
+            final TagNode last = openTags.get(openTags.size() - 1);
+            if (tagInfo != null && tagInfo.isMustCloseTag(props.getTagInfoProvider().getTagInfo(last.getName()))) {
+                closeTags(openTags.size() - 1);
+            }
+        }
+        if (droppedDepth > 0 || isDropped(name)) {
+            if (!isVoid) {
+                openTags.add(tag);
+                if (droppedDepth == 0) {
+                    droppedDepth = openTags.size();
+                }
+            }
+            return;
+        }
+        if ("img".equals(name)) {
+            tag.removeAttribute("style");
+            final String src = tag.getAttributeByName("src");
+            if (!isRemote(src)) {
+                return;
+            }
+            tag.removeAttribute("width");
+            tag.removeAttribute("height");
+            /* the src as the WebView will see it */
+            images.add(ItemBody.unescape(serializer.escape(src)));
+        }
+        serializer.serialize(tag, writer);
+        if (!isVoid) {
+            openTags.add(tag);
+        }
+    }
+
+    private void onText(final CharSequence text) throws IOException {
+        if (droppedDepth > 0) {
+            return;
+        }
+        final TagNode parent = openTags.isEmpty() ? null : openTags.get(openTags.size() - 1);
+        serializer.writeText(text, parent != null && serializer.isRawText(parent), writer);
+        appendPlainText(text);
+    }
+
+    private void onToken(final BaseToken token) throws IOException {
+        if (token instanceof TagNode) {
+            onStartTag((TagNode) token);
+        } else if (token instanceof EndTagToken) {
+            onEndTag(((EndTagToken) token).getName());
+        } else if (token instanceof ContentNode) {
+            onText(((ContentNode) token).getContent());
+        } else if (token instanceof CommentNode && droppedDepth == 0) {
+            writer.write(((CommentNode) token).getCommentedContent());
+        }
+    }
+
+    private void run(final String html) throws IOException {
+        writer.write("<html><head></head><body>");
+        final HtmlTokenizer tokenizer = new HtmlTokenizer(new StringReader(html), props, null,
+                props.getTagInfoProvider()) {
+            @Override
+            public TagNode createTagNode(final String name) {
+                return new TagNode(name);
+            }
+
+            @Override
+            public void makeTree(final List<BaseToken> tokenList) {
+                try {
+                    onToken(tokenList.get(tokenList.size() - 1));
+                } catch (final IOException exception) {
+                    throw new IllegalStateException(exception);
+                }
+                /* the tokenizer looks back at the last token only */
+                if (tokenList.size() > 1) {
+                    tokenList.remove(0);
+                }
+            }
+        };
+        tokenizer.start();
+        closeTags(0);
+        writer.write("</body></html>");
+    }
+}
@@ -0,0 +1,399 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Pursuer (http://pursuer.me).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Pursuer - initial API and implementation
+ ******************************************************************************/
+
+package org.freshrss.easyrss.data;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/*
+ * Fetched images are shared by all items: every image is stored once in the
+ * image folder, named after the SHA-1 of its URL, so the reader can find it
+ * by the src it is about to load. The images table keeps the size, the
+ * last access and the dimensions of every image, the imageRefs table which
+ * items use it.
+ *
+ * An image no item refers to any more is deleted. Whenever the images
+ * exceed the budget, the least recently used ones are evicted until they
+ * take three quarters of it. Both happen in the background, along with the
+ * removal of week-old parts of unfinished downloads.
+ */
+final public class ImageCache {
+    public static final String TABLE_NAME = "images";
+    public static final String REFS_TABLE_NAME = "imageRefs";
+
+    public static final String _KEY = "key";
+    public static final String _SIZE = "size";
+    public static final String _LASTACCESS = "lastAccess";
+    public static final String _WIDTH = "width";
+    public static final String _HEIGHT = "height";
+    public static final String _ITEMUID = "itemUid";
+    public static final String[] COLUMNS = { _KEY, _SIZE, _LASTACCESS, _WIDTH, _HEIGHT };
+    public static final String[] COLUMNS_TYPE = { "TEXT PRIMARY KEY", "INTEGER NOT NULL", "INTEGER NOT NULL",
+            "INTEGER NOT NULL DEFAULT 0", "INTEGER NOT NULL DEFAULT 0" };
+
+    public static final String SQL_CREATE_TABLE = "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" + _KEY
+            + " TEXT PRIMARY KEY," + _SIZE + " INTEGER NOT NULL," + _LASTACCESS + " INTEGER NOT NULL," + _WIDTH
+            + " INTEGER NOT NULL DEFAULT 0," + _HEIGHT + " INTEGER NOT NULL DEFAULT 0)";
+    public static final String SQL_CREATE_REFS_TABLE = "CREATE TABLE IF NOT EXISTS " + REFS_TABLE_NAME + " ("
+            + _ITEMUID + " TEXT NOT NULL," + _KEY + " TEXT NOT NULL,PRIMARY KEY(" + _ITEMUID + "," + _KEY + "))";
+    public static final String SQL_CREATE_REFS_INDEX = "CREATE INDEX IF NOT EXISTS idx_" + REFS_TABLE_NAME + "_"
+            + _KEY + " ON " + REFS_TABLE_NAME + "(" + _KEY + ")";
+
+    final private static String SQL_SELECT_UNREFERENCED = "SELECT " + _KEY + "," + _SIZE + " FROM " + TABLE_NAME
+            + " WHERE " + _KEY + " NOT IN(SELECT " + _KEY + " FROM " + REFS_TABLE_NAME + ")";
+    final private static String SQL_SELECT_LRU = "SELECT " + _KEY + "," + _SIZE + " FROM " + TABLE_NAME
+            + " ORDER BY " + _LASTACCESS;
+
+    final private static String IMAGE_FOLDER = ".images";
+    final private static String IMAGE_SUFFIX = ".erss";
+    final private static char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    final private static long DEFAULT_BUDGET = 100 * 1024 * 1024;
+    final private static long MAX_PART_AGE = 7 * 24 * 60 * 60 * 1000L;
+
+    private static ImageCache instance = null;
+
+    public static synchronized ImageCache getInstance() {
+        if (instance == null) {
+            instance = new ImageCache();
+        }
+        return instance;
+    }
+
+    public static boolean isCacheable(final String url) {
+        return url != null && (url.startsWith("http://") || url.startsWith("https://"));
+    }
+
+    /*
+     * @return the hex SHA-1 of the url
+     */
+    public static String keyOf(final String url) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8"));
+            final char[] ret = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                ret[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0xF];
+                ret[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xF];
+            }
+            return new String(ret);
+        } catch (final NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(exception);
+        } catch (final UnsupportedEncodingException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    final private ExecutorService executor;
+    /* last accesses not written to the images table yet */
+    final private Map<String, Long> accesses;
+    /* guards size, which is changed together with the images table */
+    final private Object sizeLock;
+    /* the total size of the images, or -1 until it is read from the table */
+    private long size;
+    private long budget;
+    private long hitCount;
+    private long missCount;
+    private boolean isTrimQueued;
+
+    private ImageCache() {
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        this.accesses = new HashMap<String, Long>();
+        this.sizeLock = new Object();
+        this.size = -1;
+        this.budget = DEFAULT_BUDGET;
+        this.hitCount = 0;
+        this.missCount = 0;
+        this.isTrimQueued = false;
+        getImageFolder().mkdirs();
+    }
+
+    /*
+     * Records that the item uses the images at urls.
+     */
+    public void addReferences(final String itemUid, final List<String> urls) {
+        final SQLiteDatabase database = DBOpenHelper.getInstance().getWritableDatabase();
+        final ContentValues values = new ContentValues(2);
+        database.beginTransaction();
+        try {
+            for (final String url : urls) {
+                if (isCacheable(url)) {
+                    values.put(_ITEMUID, itemUid);
+                    values.put(_KEY, keyOf(url));
+                    database.insertWithOnConflict(REFS_TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /*
+     * Deletes every image; the tables are cleared by the caller.
+     */
+    public void clear() {
+        synchronized (accesses) {
+            accesses.clear();
+        }
+        synchronized (sizeLock) {
+            size = -1;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final File[] files = getImageFolder().listFiles();
+                if (files != null) {
+                    for (final File file : files) {
+                        file.delete();
+                    }
+                }
+            }
+        });
+    }
+
+    private void deleteImage(final SQLiteDatabase database, final String key, final long imageSize) {
+        synchronized (sizeLock) {
+            if (database.delete(TABLE_NAME, _KEY + "=?", new String[] { key }) > 0 && size >= 0) {
+                size -= imageSize;
+            }
+        }
+        new File(getImageFolder(), key + IMAGE_SUFFIX).delete();
+    }
+
+    private void flushAccesses(final SQLiteDatabase database) {
+        final Map<String, Long> pending;
+        synchronized (accesses) {
+            if (accesses.isEmpty()) {
+                return;
+            }
+            pending = new HashMap<String, Long>(accesses);
+            accesses.clear();
+        }
+        final ContentValues values = new ContentValues(1);
+        database.beginTransaction();
+        try {
+            for (final Map.Entry<String, Long> access : pending.entrySet()) {
+                values.put(_LASTACCESS, access.getValue());
+                database.update(TABLE_NAME, values, _KEY + "=?", new String[] { access.getKey() });
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /*
+     * @return the width and height of the cached images at urls, by url
+     */
+    public Map<String, int[]> getDimensions(final List<String> urls) {
+        final Map<String, int[]> ret = new HashMap<String, int[]>();
+        final SQLiteDatabase database = DBOpenHelper.getInstance().getReadableDatabase();
+        for (final String url : urls) {
+            if (!isCacheable(url) || ret.containsKey(url)) {
+                continue;
+            }
+            final Cursor cur = database.rawQuery("SELECT " + _WIDTH + "," + _HEIGHT + " FROM " + TABLE_NAME
+                    + " WHERE " + _KEY + "=?", new String[] { keyOf(url) });
+            if (cur.moveToFirst() && cur.getInt(0) > 0 && cur.getInt(1) > 0) {
+                ret.put(url, new int[] { cur.getInt(0), cur.getInt(1) });
+            }
+            cur.close();
+        }
+        return ret;
+    }
+
+    /*
+     * @return the file the image at url is fetched into
+     */
+    public File getFile(final String url) {
+        return new File(getImageFolder(), keyOf(url) + IMAGE_SUFFIX);
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    private File getImageFolder() {
+        return new File(DataUtils.getAppFolderPath() + File.separator + IMAGE_FOLDER);
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /*
+     * @return the total size of the images, in bytes; summed from the table
+     * once, then kept up to date as images are stored and deleted
+     */
+    public long getSize() {
+        synchronized (sizeLock) {
+            if (size < 0) {
+                final Cursor cur = DBOpenHelper.getInstance().getReadableDatabase()
+                        .rawQuery("SELECT sum(" + _SIZE + ") FROM " + TABLE_NAME, null);
+                size = cur.moveToFirst() ? cur.getLong(0) : 0;
+                cur.close();
+            }
+            return size;
+        }
+    }
+
+    /*
+     * @return the fetched image at url, or null if it is not cached
+     */
+    public File lookup(final String url) {
+        if (!isCacheable(url)) {
+            return null;
+        }
+        final String key = keyOf(url);
+        final File file = new File(getImageFolder(), key + IMAGE_SUFFIX);
+        final boolean isHit = file.isFile();
+        synchronized (this) {
+            if (isHit) {
+                hitCount++;
+            } else {
+                missCount++;
+            }
+        }
+        if (isHit) {
+            synchronized (accesses) {
+                accesses.put(key, System.currentTimeMillis());
+            }
+        }
+        return isHit ? file : null;
+    }
+
+    /*
+     * Records the image just fetched into getFile(url), trimming the cache if
+     * it got over budget.
+     *
+     * @param dimensions the width and height of the image, or null if unknown
+     */
+    public void onImageStored(final String url, final int[] dimensions) {
+        final String key = keyOf(url);
+        final long imageSize = getFile(url).length();
+        final ContentValues values = new ContentValues(5);
+        values.put(_KEY, key);
+        values.put(_SIZE, imageSize);
+        values.put(_LASTACCESS, System.currentTimeMillis());
+        values.put(_WIDTH, (dimensions == null) ? 0 : dimensions[0]);
+        values.put(_HEIGHT, (dimensions == null) ? 0 : dimensions[1]);
+        final SQLiteDatabase database = DBOpenHelper.getInstance().getWritableDatabase();
+        synchronized (sizeLock) {
+            if (size >= 0) {
+                /* a replaced image no longer counts */
+                final Cursor cur = database.rawQuery("SELECT " + _SIZE + " FROM " + TABLE_NAME + " WHERE " + _KEY
+                        + "=?", new String[] { key });
+                if (cur.moveToFirst()) {
+                    size -= cur.getLong(0);
+                }
+                cur.close();
+                size += imageSize;
+            }
+            database.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        }
+        if (getSize() > getBudget()) {
+            trimInBackground();
+        }
+    }
+
+    /*
+     * @param budget the size the images may take, in bytes
+     */
+    public synchronized void setBudget(final long budget) {
+        this.budget = budget;
+    }
+
+    private void trim() {
+        final SQLiteDatabase database = DBOpenHelper.getInstance().getWritableDatabase();
+        flushAccesses(database);
+        /* parts of downloads nobody resumed */
+        final File[] files = getImageFolder().listFiles();
+        if (files != null) {
+            final long threshold = System.currentTimeMillis() - MAX_PART_AGE;
+            for (final File file : files) {
+                if (!file.getName().endsWith(IMAGE_SUFFIX) && file.lastModified() < threshold) {
+                    file.delete();
+                }
+            }
+        }
+        final Map<String, Long> unreferenced = new HashMap<String, Long>();
+        Cursor cur = database.rawQuery(SQL_SELECT_UNREFERENCED, null);
+        for (cur.moveToFirst(); !cur.isAfterLast(); cur.moveToNext()) {
+            unreferenced.put(cur.getString(0), cur.getLong(1));
+        }
+        cur.close();
+        for (final Map.Entry<String, Long> image : unreferenced.entrySet()) {
+            deleteImage(database, image.getKey(), image.getValue());
+        }
+        long total = getSize();
+        final long target = getBudget() / 4 * 3;
+        if (total <= getBudget()) {
+            return;
+        }
+        final Map<String, Long> evicted = new HashMap<String, Long>();
+        cur = database.rawQuery(SQL_SELECT_LRU, null);
+        for (cur.moveToFirst(); !cur.isAfterLast() && total > target; cur.moveToNext()) {
+            evicted.put(cur.getString(0), cur.getLong(1));
+            total -= cur.getLong(1);
+        }
+        cur.close();
+        for (final Map.Entry<String, Long> image : evicted.entrySet()) {
+            deleteImage(database, image.getKey(), image.getValue());
+        }
+    }
+
+    /*
+     * Deletes the images no item refers to and, if over budget, the least
+     * recently used ones.
+     */
+    public synchronized void trimInBackground() {
+        if (isTrimQueued) {
+            return;
+        }
+        isTrimQueued = true;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ImageCache.this) {
+                    isTrimQueued = false;
+                }
+                try {
+                    trim();
+                } catch (final Exception exception) {
+                    exception.printStackTrace();
+                }
+            }
+        });
+    }
+}
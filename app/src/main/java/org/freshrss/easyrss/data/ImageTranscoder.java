@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Pursuer (http://pursuer.me).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Pursuer - initial API and implementation
+ ******************************************************************************/
+
+package org.freshrss.easyrss.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+/*
+ * Shrinks a fetched image wider than the display to the display width and
+ * re-encodes it: to WebP where the platform can encode it, JPEG otherwise,
+ * and PNG if it has transparency. Animated GIFs and images that already fit
+ * are kept as they are.
+ */
+final public class ImageTranscoder {
+    final private static int QUALITY = 80;
+
+    /*
+     * @return the width and height of the image, or null if it cannot be
+     * decoded
+     */
+    public static int[] measure(final File file) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        return (options.outWidth > 0 && options.outHeight > 0) ? new int[] { options.outWidth,
+                options.outHeight } : null;
+    }
+
+    /*
+     * Replaces the image in file by a copy at most maxWidth wide.
+     *
+     * @return the width and height of the image stored in file, or null if it
+     * cannot be decoded
+     */
+    @SuppressWarnings("deprecation")
+    public static int[] transcode(final File file, final int maxWidth) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        final int width = options.outWidth;
+        final int height = options.outHeight;
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        if (width <= maxWidth || "image/gif".equals(options.outMimeType)) {
+            return new int[] { width, height };
+        }
+        /* decode at the smallest power-of-two scale still at least maxWidth wide */
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= maxWidth) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        /* a very tall image may not fit in memory at any step; it is kept as fetched then */
+        Bitmap decoded = null;
+        Bitmap scaled = null;
+        final File temp = new File(file.getPath() + ".tmp");
+        try {
+            decoded = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+            if (decoded == null) {
+                return new int[] { width, height };
+            }
+            final int scaledHeight = Math.max(1, (int) ((long) height * maxWidth / width));
+            scaled = Bitmap.createScaledBitmap(decoded, maxWidth, scaledHeight, true);
+            if (scaled != decoded) {
+                decoded.recycle();
+                decoded = null;
+            }
+            final Bitmap.CompressFormat format;
+            if (scaled.hasAlpha()) {
+                format = Bitmap.CompressFormat.PNG;
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+                format = Bitmap.CompressFormat.WEBP;
+            } else {
+                format = Bitmap.CompressFormat.JPEG;
+            }
+            final FileOutputStream output = new FileOutputStream(temp);
+            try {
+                scaled.compress(format, QUALITY, output);
+            } finally {
+                output.close();
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                return new int[] { width, height };
+            }
+            return new int[] { scaled.getWidth(), scaled.getHeight() };
+        } catch (final OutOfMemoryError error) {
+            temp.delete();
+            return new int[] { width, height };
+        } catch (final IOException exception) {
+            exception.printStackTrace();
+            temp.delete();
+            return new int[] { width, height };
+        } finally {
+            if (scaled != null) {
+                scaled.recycle();
+            }
+            if (decoded != null && decoded != scaled) {
+                decoded.recycle();
+            }
+        }
+    }
+
+    private ImageTranscoder() {
+    }
+}
@@ -44,7 +44,8 @@ public class Item implements Entity {
 
     public static final String[][] INDEX_COLUMNS = { { _UID }, { _UPDATETIME }, { _SOURCEURI },
             { _SOURCEURI, ItemState._ISREAD }, { _SOURCEURI, ItemState._ISSTARRED }, { _TIMESTAMP },
-            { _TIMESTAMP, ItemState._ISREAD }, { _TIMESTAMP, ItemState._ISSTARRED } };
+            { _TIMESTAMP, ItemState._ISREAD }, { _TIMESTAMP, ItemState._ISSTARRED }, { _SOURCEURI, _TIMESTAMP },
+            { ItemState._ISCACHED, ItemState._ISREAD, _TIMESTAMP } };
 
     private static final String UID_PREFIX = "tag:google.com,2005:reader/item/";
 
@@ -67,6 +68,7 @@ public class Item implements Entity {
     private String author;
     private String uid;
     private String content;
+    private String plainText;
     private String href;
     private String sourceUri;
     private String sourceTitle;
@@ -115,14 +117,18 @@ public class Item implements Entity {
         return href;
     }
 
-    public String getImageStoragePath(final int picId) {
-        return getStoragePath() + File.separator + picId + ".erss";
-    }
-
     public String getOriginalContentStoragePath() {
         return getStoragePath() + File.separator + uid + ".original";
     }
 
+    /*
+     * The text of the content used for searching; only set on items that were
+     * just written to disk and never stored in the items table.
+     */
+    public String getPlainText() {
+        return plainText;
+    }
+
     public String getSourceTitle() {
         return sourceTitle;
     }
@@ -172,6 +178,7 @@ public class Item implements Entity {
         this.author = (author == null) ? "" : author;
         this.uid = uid;
         this.content = (content == null) ? "" : content;
+        this.plainText = null;
         this.href = (href == null) ? "" : href;
         this.sourceUri = (sourceUri == null) ? "" : sourceUri;
         this.sourceTitle = (sourceTitle == null) ? "" : sourceTitle;
@@ -194,6 +201,10 @@ public class Item implements Entity {
         this.href = href;
     }
 
+    public void setPlainText(final String plainText) {
+        this.plainText = plainText;
+    }
+
     public void setSourceTitle(final String sourceTitle) {
         this.sourceTitle = sourceTitle;
     }
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Pursuer (http://pursuer.me).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Pursuer - initial API and implementation
+ ******************************************************************************/
+
+package org.freshrss.easyrss.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Streams parsed items into storage. The content of every item is written to
+ * disk as soon as it arrives and then dropped; the remaining metadata is
+ * committed to the database every maxItems items or once maxBytes of content
+ * went through, so memory use does not depend on the page size.
+ */
+public class ItemBatchWriter {
+    final public static int DEFAULT_MAX_ITEMS = 20;
+    final public static int DEFAULT_MAX_BYTES = 512 * 1024;
+
+    final private DataMgr dataMgr;
+    final private int maxItems;
+    final private int maxBytes;
+    private List<Item> pending;
+    private int pendingBytes;
+    private int count;
+
+    public ItemBatchWriter(final DataMgr dataMgr) {
+        this(dataMgr, DEFAULT_MAX_ITEMS, DEFAULT_MAX_BYTES);
+    }
+
+    public ItemBatchWriter(final DataMgr dataMgr, final int maxItems, final int maxBytes) {
+        this.dataMgr = dataMgr;
+        this.maxItems = maxItems;
+        this.maxBytes = maxBytes;
+        this.pending = new ArrayList<Item>(maxItems);
+        this.pendingBytes = 0;
+        this.count = 0;
+    }
+
+    public void add(final Item item) throws IOException {
+        DataUtils.writeItemToFile(item);
+        final String content = item.getContent();
+        final String plainText = item.getPlainText();
+        pendingBytes += (content == null) ? 0 : content.length() * 2;
+        pendingBytes += (plainText == null) ? 0 : plainText.length() * 2;
+        item.setContent(null);
+        pending.add(item);
+        count++;
+        if (pending.size() >= maxItems || pendingBytes >= maxBytes) {
+            flush();
+        }
+    }
+
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        final List<Item> items = pending;
+        pending = new ArrayList<Item>(maxItems);
+        pendingBytes = 0;
+        dataMgr.addItems(items);
+    }
+
+    /*
+     * @return the number of items added so far, flushed or not
+     */
+    public int getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,240 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Pursuer (http://pursuer.me).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Pursuer - initial API and implementation
+ ******************************************************************************/
+
+package org.freshrss.easyrss.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * An item is stored once, as its sanitized HTML body plus a manifest of the
+ * images in it, in document order. VARIANT_STRIPPED is made from the body
+ * when it is rendered, by a single pass dropping its img tags. The body is
+ * shown as it is once its images are fetched: the reader serves them from
+ * the ImageCache by their URL.
+ */
+final public class ItemBody {
+    public static final int VARIANT_ORIGINAL = 0;
+    public static final int VARIANT_STRIPPED = 1;
+    public static final int VARIANT_CACHED = 2;
+
+    /* the kinds of SegmentStore entries of an item */
+    public static final int KIND_BODY = 0;
+    public static final int KIND_IMAGES = 3;
+
+    /*
+     * @return the start and end of the quoted value of the attribute in the
+     * tag html[start, end), or null if the tag has no such attribute
+     */
+    private static int[] findAttribute(final String html, final int start, final int end, final String name) {
+        int i = start;
+        while (i < end) {
+            final int found = html.indexOf(name, i);
+            if (found < 0 || found >= end) {
+                return null;
+            }
+            i = found + name.length();
+            if (!Character.isWhitespace(html.charAt(found - 1))) {
+                continue;
+            }
+            while (i < end && Character.isWhitespace(html.charAt(i))) {
+                i++;
+            }
+            if (i >= end || html.charAt(i) != '=') {
+                continue;
+            }
+            i++;
+            while (i < end && Character.isWhitespace(html.charAt(i))) {
+                i++;
+            }
+            if (i < end && (html.charAt(i) == '"' || html.charAt(i) == '\'')) {
+                final int valueEnd = html.indexOf(html.charAt(i), i + 1);
+                return (valueEnd < 0 || valueEnd >= end) ? null : new int[] { i + 1, valueEnd };
+            }
+            return null;
+        }
+        return null;
+    }
+
+    /*
+     * @return the index after the tag starting at start, skipping quoted
+     * attribute values
+     */
+    private static int findTagEnd(final String html, final int start) {
+        char quote = 0;
+        for (int i = start; i < html.length(); i++) {
+            final char c = html.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return i + 1;
+            }
+        }
+        return html.length();
+    }
+
+    /*
+     * @return the srcs of the img tags in the serialized body, in document
+     * order
+     */
+    public static List<String> findImages(final String html) {
+        final List<String> ret = new ArrayList<String>();
+        rewrite(html, VARIANT_ORIGINAL, ret);
+        return ret;
+    }
+
+    private static boolean isImageTag(final String html, final int start) {
+        if (!html.regionMatches(true, start, "<img", 0, 4) || start + 4 >= html.length()) {
+            return false;
+        }
+        final char c = html.charAt(start + 4);
+        return Character.isWhitespace(c) || c == '/' || c == '>';
+    }
+
+    /*
+     * @return the body of the item in the given variant, or an empty string
+     * if it is not stored
+     */
+    public static String read(final Item item, final int variant) {
+        final String body = SegmentStore.getInstance().get(item.getUid(), KIND_BODY);
+        if (body != null) {
+            return (variant == VARIANT_STRIPPED) ? rewrite(body, variant, null) : body;
+        }
+        /* items stored before the segment store kept every variant in a file */
+        switch (variant) {
+        case VARIANT_CACHED:
+            final File full = new File(item.getFullContentStoragePath());
+            if (full.exists()) {
+                return DataUtils.readFromFile(full);
+            }
+            return DataUtils.readFromFile(new File(item.getOriginalContentStoragePath()));
+        case VARIANT_STRIPPED:
+            return DataUtils.readFromFile(new File(item.getStrippedContentStoragePath()));
+        default:
+            return DataUtils.readFromFile(new File(item.getOriginalContentStoragePath()));
+        }
+    }
+
+    /*
+     * @return the srcs of the images of the item, in document order; an item
+     * stored without a manifest is scanned once and gets one, so this is
+     * not for the UI thread
+     */
+    public static List<String> readImages(final Item item) {
+        final List<String> ret = readManifest(item);
+        if (ret != null) {
+            return ret;
+        }
+        final String body = SegmentStore.getInstance().get(item.getUid(), KIND_BODY);
+        final File original = new File(item.getOriginalContentStoragePath());
+        if (body == null && !original.exists()) {
+            return new ArrayList<String>();
+        }
+        final List<String> srcs = findImages((body == null) ? DataUtils.readFromFile(original) : body);
+        try {
+            SegmentStore.getInstance().put(item.getUid(), KIND_IMAGES, toManifest(srcs));
+        } catch (final IOException exception) {
+            exception.printStackTrace();
+        }
+        return srcs;
+    }
+
+    /*
+     * @return the srcs of the images of the item, in document order, or null
+     * if the item has no manifest yet
+     */
+    public static List<String> readManifest(final Item item) {
+        final String manifest = SegmentStore.getInstance().get(item.getUid(), KIND_IMAGES);
+        if (manifest == null) {
+            return null;
+        }
+        final List<String> ret = new ArrayList<String>();
+        int start = 0;
+        while (start < manifest.length()) {
+            int end = manifest.indexOf('\n', start);
+            if (end < 0) {
+                end = manifest.length();
+            }
+            ret.add(manifest.substring(start, end));
+            start = end + 1;
+        }
+        return ret;
+    }
+
+    /*
+     * Copies html, dropping its img tags for VARIANT_STRIPPED; srcs collects
+     * the srcs of the img tags if not null.
+     */
+    private static String rewrite(final String html, final int variant, final List<String> srcs) {
+        final StringBuilder builder = new StringBuilder(html.length());
+        int copied = 0;
+        int i = html.indexOf('<');
+        while (i >= 0) {
+            int next;
+            if (html.startsWith("<!--", i)) {
+                final int end = html.indexOf("-->", i + 4);
+                next = (end < 0) ? html.length() : end + 3;
+            } else if (isImageTag(html, i)) {
+                next = findTagEnd(html, i);
+                final int[] src = findAttribute(html, i, next, "src");
+                if (srcs != null) {
+                    srcs.add((src == null) ? "" : unescape(html.substring(src[0], src[1])));
+                }
+                if (variant == VARIANT_STRIPPED) {
+                    builder.append(html, copied, i);
+                    copied = next;
+                }
+            } else {
+                next = i + 1;
+            }
+            i = html.indexOf('<', next);
+        }
+        builder.append(html, copied, html.length());
+        return builder.toString();
+    }
+
+    private static String toManifest(final List<String> srcs) {
+        final StringBuilder ret = new StringBuilder();
+        for (final String src : srcs) {
+            if (ret.length() > 0) {
+                ret.append('\n');
+            }
+            ret.append(src.replace('\n', ' '));
+        }
+        return ret.toString();
+    }
+
+    static String unescape(final String value) {
+        if (value.indexOf('&') < 0) {
+            return value;
+        }
+        return value.replace("&quot;", "\"").replace("&#39;", "'").replace("&apos;", "'").replace("&lt;", "<")
+                .replace("&gt;", ">").replace("&amp;", "&");
+    }
+
+    /*
+     * Stores the body of the item together with the srcs of its images.
+     */
+    public static void write(final Item item, final String body, final List<String> srcs) throws IOException {
+        final SegmentStore store = SegmentStore.getInstance();
+        store.put(item.getUid(), KIND_BODY, body);
+        store.put(item.getUid(), KIND_IMAGES, toManifest(srcs));
+    }
+
+    private ItemBody() {
+    }
+}
@@ -0,0 +1,334 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Pursuer (http://pursuer.me).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Pursuer - initial API and implementation
+ ******************************************************************************/
+
+package org.freshrss.easyrss.data;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/*
+ * Full-text index over the items (FTS4). The docid of a row is the INTEGER
+ * PRIMARY KEY of the row of its item in KEYS_TABLE_NAME, so that it is found
+ * and mapped back to its item through primary keys, and stays valid when the
+ * database is vacuumed, which may renumber the implicit rowids of items.
+ */
+final public class ItemSearch {
+    private static class Hit {
+        final private String uid;
+        final private long docId;
+        final private double score;
+
+        public Hit(final String uid, final long docId, final double score) {
+            this.uid = uid;
+            this.docId = docId;
+            this.score = score;
+        }
+    }
+
+    public static final String TABLE_NAME = "itemSearch";
+    public static final String KEYS_TABLE_NAME = "itemSearchKeys";
+
+    public static final String _DOCID = "docid";
+    public static final String _UID = "uid";
+
+    public static final String _TITLE = "title";
+    public static final String _AUTHOR = "author";
+    public static final String _SOURCETITLE = "sourceTitle";
+    public static final String _CONTENT = "content";
+    public static final String[] COLUMNS = { _TITLE, _AUTHOR, _SOURCETITLE, _CONTENT };
+
+    /* relevance weight of a hit in each of the columns above */
+    private static final double[] COLUMN_WEIGHTS = { 4.0, 1.5, 1.5, 1.0 };
+    /*
+     * Only the newest matches are ranked, which bounds the time a query on a
+     * common word takes; an older item past them is not found even if it
+     * would rank first.
+     */
+    private static final int MAX_CANDIDATES = 20000;
+
+    /* the column that mapped rows to items before the docid did */
+    public static final String _OLD_UID = "uid";
+
+    public static final String SQL_CREATE_TABLE;
+    public static final String SQL_CREATE_KEYS_TABLE = "CREATE TABLE IF NOT EXISTS " + KEYS_TABLE_NAME + " ("
+            + _DOCID + " INTEGER PRIMARY KEY," + _UID + " TEXT NOT NULL UNIQUE)";
+    public static final String SQL_INSERT_KEY = "INSERT OR IGNORE INTO " + KEYS_TABLE_NAME + "(" + _UID
+            + ")VALUES(?)";
+    public static final String SQL_INSERT;
+    public static final String SQL_DELETE_BY_UID;
+    public static final String[] SQL_BACKFILL;
+    public static final String[] SQL_UPGRADE_DOCID;
+    /* keys the rows of an index whose docids are the rowids of their items */
+    public static final String SQL_UPGRADE_KEYS = "INSERT OR IGNORE INTO " + KEYS_TABLE_NAME + "(" + _DOCID + ","
+            + _UID + ")SELECT rowid," + Item._UID + " FROM " + Item.TABLE_NAME;
+    private static final String SQL_QUERY;
+
+    // CREATE VIRTUAL TABLE IF NOT EXISTS itemSearch USING
+    // fts4(title,author,sourceTitle,content)
+    static {
+        final StringBuffer buffer = new StringBuffer();
+        buffer.append("CREATE VIRTUAL TABLE IF NOT EXISTS ");
+        buffer.append(TABLE_NAME);
+        buffer.append(" USING fts4(");
+        appendColumns(buffer, "");
+        buffer.append(")");
+        SQL_CREATE_TABLE = buffer.toString();
+    }
+
+    // INSERT INTO itemSearch(docid,title,author,sourceTitle,content)SELECT
+    // docid,?,?,?,? FROM itemSearchKeys WHERE uid=?
+    static {
+        final StringBuffer buffer = new StringBuffer();
+        buffer.append("INSERT INTO ");
+        buffer.append(TABLE_NAME);
+        buffer.append("(docid,");
+        appendColumns(buffer, "");
+        buffer.append(")SELECT ");
+        buffer.append(_DOCID);
+        buffer.append(",?,?,?,? FROM ");
+        buffer.append(KEYS_TABLE_NAME);
+        buffer.append(" WHERE ");
+        buffer.append(_UID);
+        buffer.append("=?");
+        SQL_INSERT = buffer.toString();
+    }
+
+    // DELETE FROM itemSearch WHERE docid=(SELECT docid FROM itemSearchKeys
+    // WHERE uid=?)
+    static {
+        final StringBuffer buffer = new StringBuffer();
+        buffer.append("DELETE FROM ");
+        buffer.append(TABLE_NAME);
+        buffer.append(" WHERE docid=(SELECT ");
+        buffer.append(_DOCID);
+        buffer.append(" FROM ");
+        buffer.append(KEYS_TABLE_NAME);
+        buffer.append(" WHERE ");
+        buffer.append(_UID);
+        buffer.append("=?)");
+        SQL_DELETE_BY_UID = buffer.toString();
+    }
+
+    /*
+     * Indexes the items cached before the index existed by their metadata;
+     * their content is added when they are synced again.
+     */
+    static {
+        final StringBuffer buffer = new StringBuffer();
+        buffer.append("INSERT INTO ");
+        buffer.append(TABLE_NAME);
+        buffer.append("(docid,");
+        appendColumns(buffer, "");
+        buffer.append(")SELECT ");
+        buffer.append(KEYS_TABLE_NAME);
+        buffer.append(".");
+        buffer.append(_DOCID);
+        buffer.append(",");
+        buffer.append(Item._TITLE);
+        buffer.append(",");
+        buffer.append(Item._AUTHOR);
+        buffer.append(",");
+        buffer.append(Item._SOURCETITLE);
+        buffer.append(",'' FROM ");
+        buffer.append(Item.TABLE_NAME);
+        buffer.append(" JOIN ");
+        buffer.append(KEYS_TABLE_NAME);
+        buffer.append(" ON ");
+        buffer.append(KEYS_TABLE_NAME);
+        buffer.append(".");
+        buffer.append(_UID);
+        buffer.append("=");
+        buffer.append(Item.TABLE_NAME);
+        buffer.append(".");
+        buffer.append(Item._UID);
+        SQL_BACKFILL = new String[] {
+                "INSERT OR IGNORE INTO " + KEYS_TABLE_NAME + "(" + _UID + ")SELECT " + Item._UID + " FROM "
+                        + Item.TABLE_NAME, buffer.toString() };
+    }
+
+    /*
+     * Moves the rows of an index keyed by the uid column into one keyed by
+     * the rowids of the items, keeping their content; SQL_UPGRADE_KEYS then
+     * records these rowids as their keys.
+     */
+    static {
+        final String oldTable = TABLE_NAME + "Old";
+        final StringBuffer buffer = new StringBuffer();
+        buffer.append("INSERT INTO ");
+        buffer.append(TABLE_NAME);
+        buffer.append("(docid,");
+        appendColumns(buffer, "");
+        buffer.append(")SELECT ");
+        buffer.append(Item.TABLE_NAME);
+        buffer.append(".rowid,");
+        appendColumns(buffer, oldTable + ".");
+        buffer.append(" FROM ");
+        buffer.append(oldTable);
+        buffer.append(" JOIN ");
+        buffer.append(Item.TABLE_NAME);
+        buffer.append(" ON ");
+        buffer.append(Item.TABLE_NAME);
+        buffer.append(".");
+        buffer.append(Item._UID);
+        buffer.append("=");
+        buffer.append(oldTable);
+        buffer.append(".");
+        buffer.append(_OLD_UID);
+        SQL_UPGRADE_DOCID = new String[] { "ALTER TABLE " + TABLE_NAME + " RENAME TO " + oldTable,
+                SQL_CREATE_TABLE, buffer.toString(), "DROP TABLE " + oldTable };
+    }
+
+    // SELECT itemSearchKeys.uid,itemSearch.docid,matchinfo(itemSearch,'pcx')
+    // FROM itemSearch JOIN itemSearchKeys ON
+    // itemSearchKeys.docid=itemSearch.docid WHERE itemSearch MATCH ? ORDER BY
+    // itemSearch.docid DESC LIMIT 20000
+    static {
+        final StringBuffer buffer = new StringBuffer();
+        buffer.append("SELECT ");
+        buffer.append(KEYS_TABLE_NAME);
+        buffer.append(".");
+        buffer.append(_UID);
+        buffer.append(",");
+        buffer.append(TABLE_NAME);
+        buffer.append(".docid,matchinfo(");
+        buffer.append(TABLE_NAME);
+        buffer.append(",'pcx') FROM ");
+        buffer.append(TABLE_NAME);
+        buffer.append(" JOIN ");
+        buffer.append(KEYS_TABLE_NAME);
+        buffer.append(" ON ");
+        buffer.append(KEYS_TABLE_NAME);
+        buffer.append(".");
+        buffer.append(_DOCID);
+        buffer.append("=");
+        buffer.append(TABLE_NAME);
+        buffer.append(".docid WHERE ");
+        buffer.append(TABLE_NAME);
+        buffer.append(" MATCH ? ORDER BY ");
+        buffer.append(TABLE_NAME);
+        buffer.append(".docid DESC LIMIT ");
+        buffer.append(MAX_CANDIDATES);
+        SQL_QUERY = buffer.toString();
+    }
+
+    private static void appendColumns(final StringBuffer buffer, final String prefix) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            buffer.append(i == 0 ? "" : ",");
+            buffer.append(prefix);
+            buffer.append(COLUMNS[i]);
+        }
+    }
+
+    /*
+     * @return the bind arguments of SQL_DELETE_BY_UID for the given item
+     */
+    public static String[] deleteArgs(final String uid) {
+        return new String[] { uid };
+    }
+
+    /*
+     * Ranks a row from matchinfo 'pcx': for every phrase and column, the hits
+     * in this row relative to the hits in all rows, weighted by column.
+     */
+    private static double rank(final byte[] matchInfo) {
+        final ByteBuffer buffer = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder());
+        final int phraseCount = buffer.getInt(0);
+        final int columnCount = buffer.getInt(4);
+        double ret = 0;
+        for (int phrase = 0; phrase < phraseCount; phrase++) {
+            for (int column = 0; column < columnCount && column < COLUMN_WEIGHTS.length; column++) {
+                final int offset = 8 + (phrase * columnCount + column) * 12;
+                final int hitsInRow = buffer.getInt(offset);
+                final int hitsInAllRows = buffer.getInt(offset + 4);
+                if (hitsInRow > 0) {
+                    ret += COLUMN_WEIGHTS[column] * hitsInRow / hitsInAllRows;
+                }
+            }
+        }
+        return ret;
+    }
+
+    /*
+     * @return the uids of the best matching items, best first; empty if the
+     * query has no searchable words
+     */
+    public static List<String> search(final SQLiteDatabase database, final String query, final int limit) {
+        final String match = toMatchQuery(query);
+        final List<String> ret = new ArrayList<String>();
+        if (match == null) {
+            return ret;
+        }
+        /* better hits first; newer rows first among equal ones */
+        final Comparator<Hit> comparator = new Comparator<Hit>() {
+            @Override
+            public int compare(final Hit lhs, final Hit rhs) {
+                if (lhs.score != rhs.score) {
+                    return (lhs.score > rhs.score) ? -1 : 1;
+                }
+                return (lhs.docId == rhs.docId) ? 0 : ((lhs.docId > rhs.docId) ? -1 : 1);
+            }
+        };
+        /* keeps the best limit hits, the worst of them at the head */
+        final PriorityQueue<Hit> hits = new PriorityQueue<Hit>(Math.max(limit, 1),
+                Collections.reverseOrder(comparator));
+        final Cursor cur = database.rawQuery(SQL_QUERY, new String[] { match });
+        for (cur.moveToFirst(); !cur.isAfterLast(); cur.moveToNext()) {
+            final Hit hit = new Hit(cur.getString(0), cur.getLong(1), rank(cur.getBlob(2)));
+            if (hits.size() < limit) {
+                hits.add(hit);
+            } else if (limit > 0 && comparator.compare(hit, hits.peek()) < 0) {
+                hits.poll();
+                hits.add(hit);
+            }
+        }
+        cur.close();
+        final List<Hit> sorted = new ArrayList<Hit>(hits);
+        Collections.sort(sorted, comparator);
+        for (final Hit hit : sorted) {
+            ret.add(hit.uid);
+        }
+        return ret;
+    }
+
+    /*
+     * Turns user input into an FTS query matching every word as a prefix, so
+     * that the operators of the FTS syntax can't be injected.
+     */
+    public static String toMatchQuery(final String query) {
+        final StringBuilder builder = new StringBuilder();
+        final StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= query.length(); i++) {
+            final char c = (i < query.length()) ? query.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                if (builder.length() > 0) {
+                    builder.append(' ');
+                }
+                builder.append(word);
+                builder.append('*');
+                word.setLength(0);
+            }
+        }
+        return (builder.length() == 0) ? null : builder.toString();
+    }
+
+    private ItemSearch() {
+    }
+}
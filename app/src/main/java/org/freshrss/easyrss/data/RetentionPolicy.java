@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Pursuer (http://pursuer.me).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Pursuer - initial API and implementation
+ ******************************************************************************/
+
+package org.freshrss.easyrss.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/*
+ * Decides which items are outdated: those past the newest maxItems, past
+ * the newest maxItemsPerFeed of their subscription, or older than maxAge.
+ * A limit of 0 disables that rule. Every rule is a single query on an index
+ * starting with the timestamp or the source of the items.
+ */
+public class RetentionPolicy {
+    public static final String OUTDATED_ITEMS = "temp.outdatedItems";
+
+    private static final String SQL_CREATE_OUTDATED_ITEMS = "CREATE TEMP TABLE IF NOT EXISTS outdatedItems("
+            + Item._UID + " TEXT PRIMARY KEY)";
+    private static final String SQL_INSERT_OUTDATED = "INSERT OR IGNORE INTO " + OUTDATED_ITEMS + " SELECT "
+            + Item._UID + " FROM " + Item.TABLE_NAME;
+
+    final private int maxItems;
+    final private int maxItemsPerFeed;
+    final private long maxAge;
+
+    /*
+     * @param maxAge in milliseconds
+     */
+    public RetentionPolicy(final int maxItems, final int maxItemsPerFeed, final long maxAge) {
+        this.maxItems = maxItems;
+        this.maxItemsPerFeed = maxItemsPerFeed;
+        this.maxAge = maxAge;
+    }
+
+    /*
+     * Fills OUTDATED_ITEMS with the items to remove; has to be called inside
+     * the transaction that removes them.
+     *
+     * @return the uids of the items to remove
+     */
+    public List<String> collect(final SQLiteDatabase database) {
+        database.execSQL(SQL_CREATE_OUTDATED_ITEMS);
+        database.execSQL("DELETE FROM " + OUTDATED_ITEMS);
+        if (maxItems > 0) {
+            database.execSQL(SQL_INSERT_OUTDATED + " ORDER BY " + Item._TIMESTAMP + " DESC LIMIT -1 OFFSET "
+                    + maxItems);
+        }
+        if (maxItemsPerFeed > 0) {
+            final List<String> feeds = new ArrayList<String>();
+            final Cursor cur = database.rawQuery("SELECT " + Item._SOURCEURI + " FROM " + Item.TABLE_NAME
+                    + " GROUP BY " + Item._SOURCEURI + " HAVING count(*)>" + maxItemsPerFeed, null);
+            for (cur.moveToFirst(); !cur.isAfterLast(); cur.moveToNext()) {
+                if (!cur.isNull(0)) {
+                    feeds.add(cur.getString(0));
+                }
+            }
+            cur.close();
+            for (final String feed : feeds) {
+                database.execSQL(SQL_INSERT_OUTDATED + " WHERE " + Item._SOURCEURI + "=? ORDER BY " + Item._TIMESTAMP
+                        + " DESC LIMIT -1 OFFSET " + maxItemsPerFeed, new String[] { feed });
+            }
+        }
+        if (maxAge > 0) {
+            /* timestamps are in microseconds */
+            final long threshold = (System.currentTimeMillis() - maxAge) * 1000;
+            database.execSQL(SQL_INSERT_OUTDATED + " WHERE " + Item._TIMESTAMP + "<" + threshold);
+        }
+        final List<String> ret = new ArrayList<String>();
+        final Cursor cur = database.rawQuery("SELECT " + Item._UID + " FROM " + OUTDATED_ITEMS, null);
+        for (cur.moveToFirst(); !cur.isAfterLast(); cur.moveToNext()) {
+            ret.add(cur.getString(0));
+        }
+        cur.close();
+        return ret;
+    }
+}
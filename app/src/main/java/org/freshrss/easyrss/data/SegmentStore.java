@@ -0,0 +1,384 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Pursuer (http://pursuer.me).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Pursuer - initial API and implementation
+ ******************************************************************************/
+
+package org.freshrss.easyrss.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/*
+ * Stores the HTML bodies of the items deflated and appended to a few large
+ * segment files instead of one file each. Where every body lives is kept in
+ * the segmentIndex table; segments are read through memory maps.
+ *
+ * Removing an item only drops its index rows. Segments that end up mostly
+ * unused are compacted in the background: their live bodies are copied to
+ * the end of the active segment and the old file is deleted.
+ */
+final public class SegmentStore {
+    private static class Entry {
+        final private String itemUid;
+        final private int kind;
+        final private int segment;
+        final private long offset;
+        final private int length;
+        final private int rawLength;
+
+        public Entry(final String itemUid, final int kind, final int segment, final long offset, final int length,
+                final int rawLength) {
+            this.itemUid = itemUid;
+            this.kind = kind;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.rawLength = rawLength;
+        }
+    }
+
+    public static final String TABLE_NAME = "segmentIndex";
+
+    public static final String _ITEMUID = "itemUid";
+    public static final String _KIND = "kind";
+    public static final String _SEGMENT = "segment";
+    public static final String _OFFSET = "offset";
+    public static final String _LENGTH = "length";
+    public static final String _RAWLENGTH = "rawLength";
+    public static final String[] COLUMNS = { _ITEMUID, _KIND, _SEGMENT, _OFFSET, _LENGTH, _RAWLENGTH };
+
+    public static final String SQL_CREATE_TABLE = "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" + _ITEMUID
+            + " TEXT NOT NULL," + _KIND + " INTEGER NOT NULL," + _SEGMENT + " INTEGER NOT NULL," + _OFFSET
+            + " INTEGER NOT NULL," + _LENGTH + " INTEGER NOT NULL," + _RAWLENGTH + " INTEGER NOT NULL,PRIMARY KEY("
+            + _ITEMUID + "," + _KIND + "))";
+    public static final String SQL_CREATE_SEGMENT_INDEX = "CREATE INDEX IF NOT EXISTS idx_" + TABLE_NAME + "_"
+            + _SEGMENT + " ON " + TABLE_NAME + "(" + _SEGMENT + ")";
+
+    final private static String SEGMENT_FOLDER = ".segments";
+    final private static String SEGMENT_SUFFIX = ".seg";
+    final private static long MAX_SEGMENT_SIZE = 4 * 1024 * 1024;
+    /* a segment is compacted once less than this part of it is still used */
+    final private static double MIN_LIVE_RATIO = 0.5;
+
+    private static SegmentStore instance = null;
+
+    public static synchronized SegmentStore getInstance() {
+        if (instance == null) {
+            instance = new SegmentStore();
+        }
+        return instance;
+    }
+
+    private static byte[] deflate(final byte[] data) {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(data);
+        deflater.finish();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 3 + 64);
+        final byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    final private ExecutorService executor;
+    final private Map<Integer, MappedByteBuffer> maps;
+    private int activeSegment;
+    private boolean isCompactionQueued;
+
+    private SegmentStore() {
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        this.maps = new HashMap<Integer, MappedByteBuffer>();
+        this.activeSegment = 0;
+        this.isCompactionQueued = false;
+        final String[] names = getSegmentFolder().list();
+        if (names != null) {
+            for (final String name : names) {
+                final int segment = parseSegment(name);
+                if (segment > activeSegment) {
+                    activeSegment = segment;
+                }
+            }
+        }
+    }
+
+    /*
+     * Appends the bytes to the active segment, starting a new one when it is
+     * full.
+     *
+     * @return the offset of the bytes
+     */
+    private synchronized long append(final byte[] data) throws IOException {
+        File file = getSegmentFile(activeSegment);
+        if (file.length() >= MAX_SEGMENT_SIZE) {
+            activeSegment++;
+            file = getSegmentFile(activeSegment);
+        }
+        file.getParentFile().mkdirs();
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final long ret = raf.length();
+            raf.seek(ret);
+            raf.write(data);
+            return ret;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /*
+     * Drops every body. Compaction leaves the active segment alone, so a new
+     * one is started for the dead bytes of the current one to be deleted with
+     * the others.
+     */
+    public synchronized void clear() {
+        DBOpenHelper.getInstance().getWritableDatabase().execSQL("DELETE FROM " + TABLE_NAME);
+        if (getSegmentFile(activeSegment).length() > 0) {
+            activeSegment++;
+        }
+        compactInBackground();
+    }
+
+    /*
+     * Compacts the segments left sparse by removals, on a background thread.
+     */
+    public synchronized void compactInBackground() {
+        if (isCompactionQueued) {
+            return;
+        }
+        isCompactionQueued = true;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SegmentStore.this) {
+                    isCompactionQueued = false;
+                }
+                try {
+                    compact();
+                } catch (final Exception exception) {
+                    exception.printStackTrace();
+                }
+            }
+        });
+    }
+
+    private void compact() throws IOException {
+        /* segments from the active one on may still be written to */
+        final int active = getActiveSegment();
+        final SQLiteDatabase database = DBOpenHelper.getInstance().getWritableDatabase();
+        final Map<Integer, Long> liveSizes = new HashMap<Integer, Long>();
+        final Cursor cur = database.rawQuery("SELECT " + _SEGMENT + ",sum(" + _LENGTH + ") FROM " + TABLE_NAME
+                + " GROUP BY " + _SEGMENT, null);
+        for (cur.moveToFirst(); !cur.isAfterLast(); cur.moveToNext()) {
+            liveSizes.put(cur.getInt(0), cur.getLong(1));
+        }
+        cur.close();
+        final String[] names = getSegmentFolder().list();
+        if (names == null) {
+            return;
+        }
+        for (final String name : names) {
+            final int segment = parseSegment(name);
+            if (segment < 0 || segment >= active) {
+                continue;
+            }
+            final Long liveSize = liveSizes.get(segment);
+            if (liveSize != null && liveSize >= getSegmentFile(segment).length() * MIN_LIVE_RATIO) {
+                continue;
+            }
+            compactSegment(database, segment);
+        }
+    }
+
+    /*
+     * Moves the live bodies of the segment to the active one, then deletes it
+     * if nothing in the index points into it any more. Holds the lock of put()
+     * throughout, so the index cannot change meanwhile.
+     */
+    private synchronized void compactSegment(final SQLiteDatabase database, final int segment) throws IOException {
+        final String[] args = new String[] { String.valueOf(segment) };
+        database.beginTransaction();
+        try {
+            for (final Entry entry : queryEntries(database, _SEGMENT + "=?", args)) {
+                final long offset = append(readBytes(entry));
+                database.execSQL("UPDATE " + TABLE_NAME + " SET " + _SEGMENT + "=?," + _OFFSET + "=? WHERE "
+                        + _ITEMUID + "=? AND " + _KIND + "=? AND " + _SEGMENT + "=? AND " + _OFFSET + "=?",
+                        new Object[] { activeSegment, offset, entry.itemUid, entry.kind, segment, entry.offset });
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        if (!queryEntries(database, _SEGMENT + "=?", args).isEmpty()) {
+            return;
+        }
+        synchronized (maps) {
+            maps.remove(segment);
+        }
+        getSegmentFile(segment).delete();
+    }
+
+    /*
+     * @return the body of the given kind, or null if it is not stored here
+     */
+    public String get(final String itemUid, final int kind) {
+        final String[] args = new String[] { itemUid, String.valueOf(kind) };
+        /* a second try covers a compaction moving the body in between */
+        for (int attempt = 0; attempt < 2; attempt++) {
+            final List<Entry> entries = queryEntries(DBOpenHelper.getInstance().getReadableDatabase(), _ITEMUID
+                    + "=? AND " + _KIND + "=?", args);
+            if (entries.isEmpty()) {
+                return null;
+            }
+            final Entry entry = entries.get(0);
+            try {
+                return inflate(readBytes(entry), entry.rawLength);
+            } catch (final IOException exception) {
+                if (attempt > 0) {
+                    exception.printStackTrace();
+                }
+            }
+        }
+        return null;
+    }
+
+    private synchronized int getActiveSegment() {
+        return activeSegment;
+    }
+
+    private MappedByteBuffer getMap(final int segment, final long end) throws IOException {
+        synchronized (maps) {
+            MappedByteBuffer ret = maps.get(segment);
+            if (ret == null || ret.capacity() < end) {
+                final RandomAccessFile raf = new RandomAccessFile(getSegmentFile(segment), "r");
+                try {
+                    final FileChannel channel = raf.getChannel();
+                    ret = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                } finally {
+                    raf.close();
+                }
+                maps.put(segment, ret);
+            }
+            if (ret.capacity() < end) {
+                throw new IOException("Segment " + segment + " is truncated");
+            }
+            return ret;
+        }
+    }
+
+    private File getSegmentFile(final int segment) {
+        return new File(getSegmentFolder(), segment + SEGMENT_SUFFIX);
+    }
+
+    private File getSegmentFolder() {
+        return new File(DataUtils.getAppFolderPath() + File.separator + SEGMENT_FOLDER);
+    }
+
+    private String inflate(final byte[] data, final int rawLength) throws IOException {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            final byte[] ret = new byte[rawLength];
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                final int read = inflater.inflate(ret, length, rawLength - length);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += read;
+            }
+            if (length != rawLength) {
+                throw new IOException("Corrupted body");
+            }
+            return new String(ret, "UTF-8");
+        } catch (final DataFormatException exception) {
+            throw new IOException(exception.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private int parseSegment(final String name) {
+        if (!name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (final NumberFormatException exception) {
+            return -1;
+        }
+    }
+
+    /*
+     * Stores the body of the given kind, replacing the previous one.
+     */
+    public void put(final String itemUid, final int kind, final String content) throws IOException {
+        final byte[] raw;
+        try {
+            raw = content.getBytes("UTF-8");
+        } catch (final UnsupportedEncodingException exception) {
+            throw new IOException(exception.getMessage());
+        }
+        final byte[] data = deflate(raw);
+        /* indexed under the lock, so a compaction never sees the bytes unindexed */
+        synchronized (this) {
+            final long offset = append(data);
+            DBOpenHelper.getInstance().getWritableDatabase().execSQL(
+                    "INSERT OR REPLACE INTO " + TABLE_NAME + "(" + _ITEMUID + "," + _KIND + "," + _SEGMENT + ","
+                            + _OFFSET + "," + _LENGTH + "," + _RAWLENGTH + ")VALUES(?,?,?,?,?,?)",
+                    new Object[] { itemUid, kind, activeSegment, offset, data.length, raw.length });
+        }
+    }
+
+    private List<Entry> queryEntries(final SQLiteDatabase database, final String where, final String[] args) {
+        final List<Entry> ret = new ArrayList<Entry>();
+        final Cursor cur = database.query(TABLE_NAME, COLUMNS, where, args, null, null, null);
+        for (cur.moveToFirst(); !cur.isAfterLast(); cur.moveToNext()) {
+            ret.add(new Entry(cur.getString(0), cur.getInt(1), cur.getInt(2), cur.getLong(3), cur.getInt(4), cur
+                    .getInt(5)));
+        }
+        cur.close();
+        return ret;
+    }
+
+    private byte[] readBytes(final Entry entry) throws IOException {
+        final ByteBuffer buffer = getMap(entry.segment, entry.offset + entry.length).duplicate();
+        buffer.position((int) entry.offset);
+        final byte[] ret = new byte[entry.length];
+        buffer.get(ret);
+        return ret;
+    }
+}
@@ -44,18 +44,23 @@ public class Setting implements Entity {
     public static final String SETTING_SYNC_METHOD = "syncMethod";
     public static final String SETTING_IMAGE_PREFETCHING = "imagePrefetching";
     public static final String SETTING_IMAGE_FETCHING = "imageFetching";
+    public static final String SETTING_IMAGE_TRANSCODING = "imageTranscoding";
     public static final String SETTING_DESCENDING_ITEMS_ORDERING = "decendingItemsOrdering";
     public static final String SETTING_NOTIFICATION_ON = "notificationOn";
     public static final String SETTING_HTTPS_CONECTION = "httpsConnection";
     public static final String SETTING_IMMEDIATE_STATE_SYNCING = "immediateStateSyncing";
     public static final String SETTING_MARK_ALL_AS_READ_CONFIRMATION = "markAllAsReadConfirmation";
     public static final String SETTING_MAX_ITEMS = "maxItems";
+    public static final String SETTING_MAX_ITEMS_PER_FEED = "maxItemsPerFeed";
+    public static final String SETTING_MAX_ITEM_AGE = "maxItemAge";
+    public static final String SETTING_IMAGE_CACHE_SIZE = "imageCacheSize";
     public static final String SETTING_THEME = "theme";
     public static final String SETTING_TAG_LIST_EXPIRE_TIME = "tagListExpireTime";
     public static final String SETTING_GLOBAL_VIEW_TYPE = "globalViewType";
     public static final String SETTING_GLOBAL_NEWEST_ITEM_TIMESTAMP = "globalNewestItemTimestamp";
     public static final String SETTING_GLOBAL_ITEM_UPDATE_TIME = "globalItemUpdateTime";
     public static final String SETTING_GLOBAL_ITEM_UNREAD_COUNT = "globalItemUnreadCount";
+    public static final String SETTING_COUNTER_VERIFY_TIME = "counterVerifyTime";
     public static final String SETTING_BROWSER_CHOICE = "browserChoice";
     public static final String SETTING_VOLUMN_KEY_SWITCHING = "volumnKeySwitching";
 
@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Pursuer (http://pursuer.me).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Pursuer - initial API and implementation
+ ******************************************************************************/
+
+package org.freshrss.easyrss.data.readersetting;
+
+import org.freshrss.easyrss.data.DataMgr;
+import org.freshrss.easyrss.data.Setting;
+
+/*
+ * The disk budget of the ImageCache, in megabytes.
+ */
+public class SettingImageCacheSize extends AbsSetting<Integer> {
+    private static Integer value;
+
+    public SettingImageCacheSize(final DataMgr dataMgr) {
+        super(dataMgr);
+    }
+
+    @Override
+    protected Integer getDefault() {
+        return 100;
+    }
+
+    @Override
+    protected String getName() {
+        return Setting.SETTING_IMAGE_CACHE_SIZE;
+    }
+
+    @Override
+    protected Integer getStaticValue() {
+        return value;
+    }
+
+    @Override
+    protected void setStaticValue(final Integer value) {
+        SettingImageCacheSize.value = value;
+    }
+
+    @Override
+    protected void setStaticValue(final String value) {
+        SettingImageCacheSize.value = Integer.valueOf(value);
+    }
+}
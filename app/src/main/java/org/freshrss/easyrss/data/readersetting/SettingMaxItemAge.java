@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Pursuer (http://pursuer.me).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Pursuer - initial API and implementation
+ ******************************************************************************/
+
+package org.freshrss.easyrss.data.readersetting;
+
+import org.freshrss.easyrss.data.DataMgr;
+import org.freshrss.easyrss.data.Setting;
+
+public class SettingMaxItemAge extends AbsSetting<Integer> {
+    private static final int MAX_ITEM_AGE_UNLIMITED = 0;
+    private static final int MAX_ITEM_AGE_ONE_WEEK = 1;
+    private static final int MAX_ITEM_AGE_TWO_WEEKS = 2;
+    private static final int MAX_ITEM_AGE_ONE_MONTH = 3;
+    private static final int MAX_ITEM_AGE_THREE_MONTHS = 4;
+
+    private static final long ONE_DAY = 24L * 3600 * 1000;
+
+    private static Integer value;
+
+    public SettingMaxItemAge(final DataMgr dataMgr) {
+        super(dataMgr);
+    }
+
+    @Override
+    protected Integer getDefault() {
+        return MAX_ITEM_AGE_UNLIMITED;
+    }
+
+    @Override
+    protected String getName() {
+        return Setting.SETTING_MAX_ITEM_AGE;
+    }
+
+    @Override
+    protected Integer getStaticValue() {
+        return value;
+    }
+
+    @Override
+    protected void setStaticValue(final Integer value) {
+        SettingMaxItemAge.value = value;
+    }
+
+    @Override
+    protected void setStaticValue(final String value) {
+        SettingMaxItemAge.value = Integer.valueOf(value);
+    }
+
+    /*
+     * @return the age in milliseconds past which items are removed, or 0 for
+     * no limit
+     */
+    public long toMillis() {
+        switch (getData()) {
+        case MAX_ITEM_AGE_ONE_WEEK:
+            return 7 * ONE_DAY;
+        case MAX_ITEM_AGE_TWO_WEEKS:
+            return 14 * ONE_DAY;
+        case MAX_ITEM_AGE_ONE_MONTH:
+            return 30 * ONE_DAY;
+        case MAX_ITEM_AGE_THREE_MONTHS:
+            return 90 * ONE_DAY;
+        default:
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Pursuer (http://pursuer.me).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Pursuer - initial API and implementation
+ ******************************************************************************/
+
+package org.freshrss.easyrss.data.readersetting;
+
+import org.freshrss.easyrss.data.DataMgr;
+import org.freshrss.easyrss.data.Setting;
+
+public class SettingMaxItemsPerFeed extends AbsSetting<Integer> {
+    private static final int MAX_ITEMS_PER_FEED_UNLIMITED = 0;
+    private static final int MAX_ITEMS_PER_FEED_50 = 1;
+    private static final int MAX_ITEMS_PER_FEED_100 = 2;
+    private static final int MAX_ITEMS_PER_FEED_200 = 3;
+    private static final int MAX_ITEMS_PER_FEED_500 = 4;
+
+    private static Integer value;
+
+    public SettingMaxItemsPerFeed(final DataMgr dataMgr) {
+        super(dataMgr);
+    }
+
+    @Override
+    protected Integer getDefault() {
+        return MAX_ITEMS_PER_FEED_UNLIMITED;
+    }
+
+    @Override
+    protected String getName() {
+        return Setting.SETTING_MAX_ITEMS_PER_FEED;
+    }
+
+    @Override
+    protected Integer getStaticValue() {
+        return value;
+    }
+
+    @Override
+    protected void setStaticValue(final Integer value) {
+        SettingMaxItemsPerFeed.value = value;
+    }
+
+    @Override
+    protected void setStaticValue(final String value) {
+        SettingMaxItemsPerFeed.value = Integer.valueOf(value);
+    }
+
+    /*
+     * @return the number of items kept per subscription, or 0 for no limit
+     */
+    public int toCount() {
+        switch (getData()) {
+        case MAX_ITEMS_PER_FEED_50:
+            return 50;
+        case MAX_ITEMS_PER_FEED_100:
+            return 100;
+        case MAX_ITEMS_PER_FEED_200:
+            return 200;
+        case MAX_ITEMS_PER_FEED_500:
+            return 500;
+        default:
+            return 0;
+        }
+    }
+}
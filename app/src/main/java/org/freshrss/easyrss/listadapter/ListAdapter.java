@@ -62,6 +62,23 @@ public class ListAdapter extends BaseAdapter {
         };
     }
 
+    /*
+     * Appends the rows whose ids are not in the list yet and updates the
+     * others, notifying the change once.
+     */
+    public void addItems(final List<AbsListItem> newItems) {
+        for (final AbsListItem item : newItems) {
+            final Integer loc = mItems.get(item.getId());
+            if (loc == null) {
+                mItems.put(item.getId(), items.size());
+                items.add(item);
+            } else {
+                items.set(loc, item);
+            }
+        }
+        notifyDataSetChanged();
+    }
+
     public void clear() {
         items.clear();
         mItems.clear();
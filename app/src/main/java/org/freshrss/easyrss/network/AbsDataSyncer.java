@@ -114,12 +114,8 @@ public abstract class AbsDataSyncer {
             client.setAuth(auth);
         }
         try {
-            String rUrl = url.getURL();
-            final String param = url.getParamsString();
-            if (param.length() > 0) {
-                rUrl += "?" + param;
-            }
-            return client.doPostByte(rUrl, param);
+            /* the params only go in the body: a batch of item ids would make the URL too long */
+            return client.doPostByte(url.getURL(), url.getParamsString());
         } catch (final Exception exception) {
             throw new DataSyncerException(exception);
         }
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Pursuer (http://pursuer.me).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Pursuer - initial API and implementation
+ ******************************************************************************/
+
+package org.freshrss.easyrss.network;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Paces background fetching so it does not get in the way of the user:
+ * at most MAX_CONNECTIONS_PER_HOST background fetches per host and one per
+ * URL at a time, background bytes drawn from a token bucket refilled at the
+ * background rate, and no background traffic at all while a foreground
+ * request is in flight or shortly after the last one was seen.
+ */
+final public class FetchScheduler {
+    final private static int MAX_CONNECTIONS_PER_HOST = 2;
+    /* how long background fetching stays paused after foreground activity */
+    final private static long FOREGROUND_GRACE = 2000;
+
+    private static FetchScheduler instance = null;
+
+    public static synchronized FetchScheduler getInstance() {
+        if (instance == null) {
+            instance = new FetchScheduler();
+        }
+        return instance;
+    }
+
+    private static String getHost(final String url) {
+        try {
+            return new URL(url).getHost();
+        } catch (final MalformedURLException exception) {
+            return url;
+        }
+    }
+
+    final private Map<String, Integer> hostConnections;
+    final private Set<String> urls;
+    private int foregroundCount;
+    private long foregroundTime;
+    /* in bytes per second, 0 for no limit */
+    private long rate;
+    private double tokens;
+    private long refillTime;
+
+    private FetchScheduler() {
+        this.hostConnections = new HashMap<String, Integer>();
+        this.urls = new HashSet<String>();
+        this.foregroundCount = 0;
+        this.foregroundTime = 0;
+        this.rate = 0;
+        this.tokens = 0;
+        this.refillTime = System.currentTimeMillis();
+    }
+
+    /*
+     * Blocks until a background fetch of url may start; every call has to be
+     * followed by a call to release.
+     */
+    public synchronized void acquire(final String url) throws InterruptedException {
+        final String host = getHost(url);
+        while (true) {
+            final long pause = getForegroundPause();
+            if (pause > 0) {
+                wait(pause);
+            } else if (urls.contains(url) || getConnections(host) >= MAX_CONNECTIONS_PER_HOST) {
+                wait();
+            } else {
+                break;
+            }
+        }
+        urls.add(url);
+        hostConnections.put(host, getConnections(host) + 1);
+    }
+
+    /*
+     * Marks the start of a foreground request; background fetching pauses
+     * until the matching endForeground.
+     */
+    public synchronized void beginForeground() {
+        foregroundCount++;
+    }
+
+    public synchronized void endForeground() {
+        foregroundCount--;
+        foregroundTime = System.currentTimeMillis();
+        notifyAll();
+    }
+
+    private int getConnections(final String host) {
+        final Integer ret = hostConnections.get(host);
+        return (ret == null) ? 0 : ret;
+    }
+
+    /*
+     * @return how long background fetching has to wait for the foreground, 0
+     * if it may go on
+     */
+    private long getForegroundPause() {
+        if (foregroundCount > 0) {
+            return FOREGROUND_GRACE;
+        }
+        return Math.max(0, foregroundTime + FOREGROUND_GRACE - System.currentTimeMillis());
+    }
+
+    /*
+     * Pauses background fetching for a while, for foreground requests whose
+     * end is not known, e.g. the resources loaded by a WebView.
+     */
+    public synchronized void onForegroundActivity() {
+        foregroundTime = System.currentTimeMillis();
+    }
+
+    private void refill() {
+        final long now = System.currentTimeMillis();
+        tokens = Math.min(rate, tokens + (double) (now - refillTime) * rate / 1000);
+        refillTime = now;
+    }
+
+    public synchronized void release(final String url) {
+        final String host = getHost(url);
+        final int connections = getConnections(host) - 1;
+        if (connections > 0) {
+            hostConnections.put(host, connections);
+        } else {
+            hostConnections.remove(host);
+        }
+        urls.remove(url);
+        notifyAll();
+    }
+
+    /*
+     * @param rate the bandwidth of background fetching in bytes per second, 0
+     * for no limit
+     */
+    public synchronized void setBackgroundRate(final long rate) {
+        refill();
+        this.rate = rate;
+        this.tokens = Math.min(tokens, rate);
+    }
+
+    /*
+     * Accounts for bytes received by a background fetch, blocking while the
+     * foreground is active or the bucket is in debt.
+     */
+    public synchronized void throttle(final int bytes) throws InterruptedException {
+        long pause;
+        while ((pause = getForegroundPause()) > 0) {
+            wait(pause);
+        }
+        if (rate <= 0) {
+            return;
+        }
+        refill();
+        tokens -= bytes;
+        while (tokens < 0 && rate > 0) {
+            wait(Math.max(1, (long) (-tokens * 1000 / rate)));
+            refill();
+        }
+    }
+}
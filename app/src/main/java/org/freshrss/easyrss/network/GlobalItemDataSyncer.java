@@ -14,8 +14,10 @@ package org.freshrss.easyrss.network;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import android.content.Context;
 
@@ -24,15 +26,17 @@ import com.fasterxml.jackson.core.JsonParseException;
 import org.freshrss.easyrss.NotificationMgr;
 import org.freshrss.easyrss.R;
 import org.freshrss.easyrss.data.DataMgr;
-import org.freshrss.easyrss.data.DataUtils;
 import org.freshrss.easyrss.data.Item;
+import org.freshrss.easyrss.data.ItemBatchWriter;
 import org.freshrss.easyrss.data.ItemId;
 import org.freshrss.easyrss.data.Setting;
 import org.freshrss.easyrss.data.parser.ItemIdJSONParser;
 import org.freshrss.easyrss.data.parser.ItemJSONParser;
 import org.freshrss.easyrss.data.parser.OnItemIdRetrievedListener;
 import org.freshrss.easyrss.data.parser.OnItemRetrievedListener;
+import org.freshrss.easyrss.data.readersetting.SettingMaxItemAge;
 import org.freshrss.easyrss.data.readersetting.SettingMaxItems;
+import org.freshrss.easyrss.data.readersetting.SettingMaxItemsPerFeed;
 import org.freshrss.easyrss.data.readersetting.SettingNotificationOn;
 import org.freshrss.easyrss.data.readersetting.SettingSyncInterval;
 import org.freshrss.easyrss.data.readersetting.SettingSyncMethod;
@@ -41,23 +45,31 @@ import org.freshrss.easyrss.network.url.StreamIdsURL;
 
 public class GlobalItemDataSyncer extends AbsDataSyncer implements DataSyncerListener {
     private class SyncAllItemsItemListener implements OnItemRetrievedListener {
-        final private List<Item> items;
+        final private ItemBatchWriter writer;
+        final private ItemPersister persister;
+        private int count;
         private String continuation;
         private long oldestTimestamp;
         private long newestTimestamp;
 
-        public SyncAllItemsItemListener() {
+        /*
+         * Items are handed to the persister if there is one, otherwise they
+         * are written directly on the calling thread.
+         */
+        public SyncAllItemsItemListener(final ItemBatchWriter writer, final ItemPersister persister) {
             this.oldestTimestamp = (1L << 62L);
             this.newestTimestamp = 0;
-            this.items = new LinkedList<Item>();
+            this.count = 0;
+            this.writer = writer;
+            this.persister = persister;
         }
 
         public String getContinuation() {
             return continuation;
         }
 
-        public List<Item> getItems() {
-            return items;
+        public int getCount() {
+            return count;
         }
 
         public long getNewestTimestamp() {
@@ -70,10 +82,14 @@ public class GlobalItemDataSyncer extends AbsDataSyncer implements DataSyncerLis
 
         @Override
         public void onItemRetrieved(final Item item) throws IOException {
-            DataUtils.writeItemToFile(item);
-            items.add(item);
             newestTimestamp = Math.max(item.getTimestamp(), newestTimestamp);
             oldestTimestamp = Math.min(item.getTimestamp(), oldestTimestamp);
+            count++;
+            if (persister == null) {
+                writer.add(item);
+            } else {
+                persister.put(item);
+            }
         }
 
         @Override
@@ -82,6 +98,91 @@ public class GlobalItemDataSyncer extends AbsDataSyncer implements DataSyncerLis
         }
     }
 
+    /*
+     * Second stage of the item pipeline: sanitizes and stores the items
+     * parsed by the syncing thread, so the next page can be downloaded while
+     * the previous one is still written to disk and database.
+     */
+    private class ItemPersister implements Runnable {
+        final private BlockingQueue<Item> items;
+        final private ItemBatchWriter writer;
+        private Thread thread;
+        private Exception exception;
+
+        public ItemPersister() {
+            this.items = new ArrayBlockingQueue<Item>(PIPELINE_QUEUE_SIZE);
+            this.writer = new ItemBatchWriter(dataMgr);
+        }
+
+        public synchronized Exception getException() {
+            return exception;
+        }
+
+        /*
+         * Blocks while the queue is full, which bounds the number of parsed
+         * items held in memory.
+         */
+        public void put(final Item item) throws IOException {
+            try {
+                while (!items.offer(item, 1, TimeUnit.SECONDS)) {
+                    if (!thread.isAlive()) {
+                        break;
+                    }
+                }
+            } catch (final InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                final IOException ioException = new IOException(exception.getMessage());
+                ioException.initCause(exception);
+                throw ioException;
+            }
+            final Exception except = getException();
+            if (except != null) {
+                final IOException ioException = new IOException(except.getMessage());
+                ioException.initCause(except);
+                throw ioException;
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Item item = items.take();
+                    if (item == END_OF_ITEMS) {
+                        break;
+                    }
+                    writer.add(item);
+                }
+                writer.flush();
+            } catch (final Exception exception) {
+                synchronized (this) {
+                    this.exception = exception;
+                }
+            }
+        }
+
+        public void start() {
+            thread = new Thread(this);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
+        }
+
+        /*
+         * Waits until everything queued so far is committed.
+         */
+        public void finish() throws InterruptedException {
+            while (!items.offer(END_OF_ITEMS, 1, TimeUnit.SECONDS)) {
+                if (!thread.isAlive()) {
+                    break;
+                }
+            }
+            thread.join();
+        }
+    }
+
+    final private static int PIPELINE_QUEUE_SIZE = 2 * ITEM_LIST_QUERY_LIMIT;
+    final private static Item END_OF_ITEMS = new Item();
+
     private static GlobalItemDataSyncer instance;
 
     private static synchronized void clearInstance() {
@@ -99,8 +200,12 @@ public class GlobalItemDataSyncer extends AbsDataSyncer implements DataSyncerLis
         return instance != null;
     }
 
+    private boolean isPipelined;
+
     private GlobalItemDataSyncer(final DataMgr dataMgr, final int networkConfig) {
         super(dataMgr, networkConfig);
+
+        this.isPipelined = true;
     }
 
     @Override
@@ -136,6 +241,7 @@ public class GlobalItemDataSyncer extends AbsDataSyncer implements DataSyncerLis
         syncAllItems();
         syncUnreadCount();
         syncUnreadItems();
+        dataMgr.verifyCounters();
         NetworkMgr.getInstance().startSyncItemContent();
 
         final SettingNotificationOn sNotification = new SettingNotificationOn(dataMgr);
@@ -150,6 +256,18 @@ public class GlobalItemDataSyncer extends AbsDataSyncer implements DataSyncerLis
         dataMgr.updateSetting(new Setting(Setting.SETTING_ITEM_LIST_EXPIRE_TIME, System.currentTimeMillis()));
     }
 
+    public boolean isPipelined() {
+        return isPipelined;
+    }
+
+    /*
+     * In pipelined mode, downloading and parsing of a page overlaps with
+     * persisting the previous one. Otherwise pages are handled one at a time.
+     */
+    public void setPipelined(final boolean isPipelined) {
+        this.isPipelined = isPipelined;
+    }
+
     private void syncAllItems() throws DataSyncerException {
         final Context context = dataMgr.getContext();
         if (!NetworkUtils.checkSyncingNetworkStatus(context, networkConfig)) {
@@ -163,50 +281,78 @@ public class GlobalItemDataSyncer extends AbsDataSyncer implements DataSyncerLis
         long newOldestTimestamp = (1L << 62L);
         //long lastTimestamp = (1L << 62L);
         String continuation = null;
-        do {
-            notifyProgressChanged(context.getString(R.string.TxtSyncingAllItems), count, GLOBAL_ITEMS_LIMIT);
-            final int limit = (count == 0) ? 5 : ITEM_LIST_QUERY_LIMIT;
-            final InputStream stream = httpGetQueryStream(new StreamContentsURL(isHttpsConnection, "", continuation, 0,
-                    limit, false));
-            try {
-                final ItemJSONParser parser = new ItemJSONParser(stream);
-                final SyncAllItemsItemListener listener = new SyncAllItemsItemListener();
-                parser.parse(listener);
-                newOldestTimestamp = Math.min(newOldestTimestamp, listener.getOldestTimestamp());
-                newNewestTimestamp = Math.max(newNewestTimestamp, listener.getNewestTimestamp());
-                //lastTimestamp = Math.min(lastTimestamp, listener.getOldestTimestamp());
-                continuation = listener.getContinuation();
-                final List<Item> items = listener.getItems();
-                dataMgr.addItems(items);
-                count += items.size();
-                if (newOldestTimestamp <= newestTimestamp || items.size() < limit ||
-                    continuation == null || continuation.length() <= 0) {
-                    break;
-                }
-            } catch (final JsonParseException exception) {
-                exception.printStackTrace();
-                throw new DataSyncerException(exception);
-            } catch (final IllegalStateException exception) {
-                exception.printStackTrace();
-                throw new DataSyncerException(exception);
-            } catch (final IOException exception) {
-                exception.printStackTrace();
-                throw new DataSyncerException(exception);
-            } finally {
+        final ItemBatchWriter writer = new ItemBatchWriter(dataMgr);
+        final ItemPersister persister;
+        if (isPipelined) {
+            persister = new ItemPersister();
+            persister.start();
+        } else {
+            persister = null;
+        }
+        try {
+            do {
+                notifyProgressChanged(context.getString(R.string.TxtSyncingAllItems), count, GLOBAL_ITEMS_LIMIT);
+                final int limit = (count == 0) ? 5 : ITEM_LIST_QUERY_LIMIT;
+                final InputStream stream = httpGetQueryStream(new StreamContentsURL(isHttpsConnection, "",
+                        continuation, 0, limit, false));
                 try {
-                    stream.close();
+                    final ItemJSONParser parser = new ItemJSONParser(stream);
+                    final SyncAllItemsItemListener listener = new SyncAllItemsItemListener(writer, persister);
+                    parser.parse(listener);
+                    newOldestTimestamp = Math.min(newOldestTimestamp, listener.getOldestTimestamp());
+                    newNewestTimestamp = Math.max(newNewestTimestamp, listener.getNewestTimestamp());
+                    //lastTimestamp = Math.min(lastTimestamp, listener.getOldestTimestamp());
+                    /*
+                     * The continuation token comes with the page, while its
+                     * items may still be in the persister's queue: the next
+                     * request goes out right away.
+                     */
+                    continuation = listener.getContinuation();
+                    final int pageCount = listener.getCount();
+                    count += pageCount;
+                    if (newOldestTimestamp <= newestTimestamp || pageCount < limit ||
+                        continuation == null || continuation.length() <= 0) {
+                        break;
+                    }
+                } catch (final JsonParseException exception) {
+                    exception.printStackTrace();
+                    throw new DataSyncerException(exception);
+                } catch (final IllegalStateException exception) {
+                    exception.printStackTrace();
+                    throw new DataSyncerException(exception);
                 } catch (final IOException exception) {
                     exception.printStackTrace();
+                    throw new DataSyncerException(exception);
+                } finally {
+                    try {
+                        stream.close();
+                    } catch (final IOException exception) {
+                        exception.printStackTrace();
+                    }
+                }
+            } while (count < GLOBAL_ITEMS_LIMIT);
+        } finally {
+            if (persister == null) {
+                writer.flush();
+            } else {
+                try {
+                    persister.finish();
+                } catch (final InterruptedException exception) {
+                    exception.printStackTrace();
                 }
             }
-        } while (count < GLOBAL_ITEMS_LIMIT);
+        }
+        if (persister != null && persister.getException() != null) {
+            throw new DataSyncerException(persister.getException());
+        }
         notifyProgressChanged(context.getString(R.string.TxtSyncingAllItems), -1, -1);
         if (newOldestTimestamp <= newestTimestamp) {
             oldestTimestamp = Math.min(oldestTimestamp, newOldestTimestamp);
         }
         newestTimestamp = newNewestTimestamp;
 
-        dataMgr.removeOutdatedItemsWithLimit(new SettingMaxItems(dataMgr).getData());
+        dataMgr.removeOutdatedItemsWithLimits(new SettingMaxItems(dataMgr).getData(),
+                new SettingMaxItemsPerFeed(dataMgr).toCount(), new SettingMaxItemAge(dataMgr).toMillis());
         dataMgr.updateSetting(new Setting(Setting.SETTING_GLOBAL_NEWEST_ITEM_TIMESTAMP, String.valueOf(newestTimestamp)));
     }
 
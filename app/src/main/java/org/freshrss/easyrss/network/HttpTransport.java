@@ -0,0 +1,25 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Pursuer (http://pursuer.me).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Pursuer - initial API and implementation
+ ******************************************************************************/
+
+package org.freshrss.easyrss.network;
+
+import java.io.IOException;
+
+/*
+ * The wire layer used by NetworkClient. Implementations are responsible for
+ * connection reuse and content decoding; status handling stays in
+ * NetworkClient.
+ */
+public interface HttpTransport {
+    TransportResponse get(String url, String auth) throws IOException;
+
+    TransportResponse post(String url, String params, String auth) throws IOException;
+}
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Pursuer (http://pursuer.me).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Pursuer - initial API and implementation
+ ******************************************************************************/
+
+package org.freshrss.easyrss.network;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+
+import org.freshrss.easyrss.data.DataUtils;
+
+/*
+ * Downloads an image into file.part and renames it to file only once it is
+ * complete, so file exists only if the whole image does. An interrupted
+ * download leaves its part behind: the next attempt asks for the rest with a
+ * range request, guarded by the validator of the part (kept in file.tag) so
+ * a changed image is fetched again from the start. The length received is
+ * checked against the Content-Length of the response. Downloads are paced by
+ * the FetchScheduler.
+ */
+final public class ImageDownloader {
+    final public static String PART_SUFFIX = ".part";
+    final public static String TAG_SUFFIX = ".tag";
+
+    final private static int CONNECT_TIMEOUT = 30 * 1000;
+    final private static int READ_TIMEOUT = 20 * 1000;
+    final private static int BUFFER_SIZE = 16384;
+    final private static int MAX_ATTEMPTS = 3;
+
+    private static void closeQuietly(final InputStream input) {
+        try {
+            input.close();
+        } catch (final IOException exception) {
+            exception.printStackTrace();
+        }
+    }
+
+    /*
+     * Fetches src into file in the background, retrying from where the last
+     * attempt stopped, unless another fetch got it first.
+     *
+     * @return whether the image was fetched by this call
+     * @throws FileNotFoundException if the server refused the image
+     * @throws IOException if every attempt failed; what was received so far
+     * is kept for the next download
+     */
+    public static boolean download(final String src, final File file) throws IOException {
+        final FetchScheduler scheduler = FetchScheduler.getInstance();
+        try {
+            scheduler.acquire(src);
+        } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        try {
+            if (file.isFile()) {
+                return false;
+            }
+            for (int attempt = 1;; attempt++) {
+                try {
+                    fetch(src, file);
+                    return true;
+                } catch (final FileNotFoundException exception) {
+                    throw exception;
+                } catch (final IOException exception) {
+                    if (attempt >= MAX_ATTEMPTS || Thread.currentThread().isInterrupted()) {
+                        throw exception;
+                    }
+                }
+            }
+        } finally {
+            scheduler.release(src);
+        }
+    }
+
+    private static void fetch(final String src, final File file) throws IOException {
+        final File part = new File(file.getPath() + PART_SUFFIX);
+        final File tag = new File(file.getPath() + TAG_SUFFIX);
+        long offset = part.isFile() ? part.length() : 0;
+        final String validator = (offset > 0 && tag.isFile()) ? DataUtils.readFromFile(tag).trim() : "";
+        if (validator.length() == 0) {
+            offset = 0;
+        }
+
+        final URLConnection connection = new URL(src).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        /* byte offsets only mean something without a content encoding */
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        if (offset > 0) {
+            connection.setRequestProperty("Range", "bytes=" + offset + "-");
+            connection.setRequestProperty("If-Range", validator);
+        }
+        final int status = (connection instanceof HttpURLConnection) ? ((HttpURLConnection) connection)
+                .getResponseCode() : HttpURLConnection.HTTP_OK;
+        final boolean isResumed;
+        if (status == HttpURLConnection.HTTP_PARTIAL && offset > 0 && isRangeFrom(connection, offset)) {
+            isResumed = true;
+        } else if (status == HttpURLConnection.HTTP_OK) {
+            isResumed = false;
+            offset = 0;
+        } else {
+            if (connection instanceof HttpURLConnection) {
+                ((HttpURLConnection) connection).disconnect();
+            }
+            if (status == 416 || status == HttpURLConnection.HTTP_PARTIAL) {
+                /* the part does not match the image any more, or not the range sent back */
+                part.delete();
+                tag.delete();
+            } else if (status >= 400 && status < 500) {
+                throw new FileNotFoundException("Response " + status + " for " + src);
+            }
+            throw new IOException("Unexpected response " + status + " for " + src);
+        }
+
+        if (!isResumed) {
+            final String newValidator = getValidator(connection);
+            if (newValidator == null) {
+                tag.delete();
+            } else {
+                final OutputStream output = new FileOutputStream(tag);
+                try {
+                    output.write(newValidator.getBytes("UTF-8"));
+                } finally {
+                    output.close();
+                }
+            }
+        }
+        final long length = connection.getContentLength();
+        final long expected = (length < 0) ? -1 : offset + length;
+        final FetchScheduler scheduler = FetchScheduler.getInstance();
+        final InputStream input = connection.getInputStream();
+        try {
+            final OutputStream output = new FileOutputStream(part, isResumed);
+            try {
+                final byte buff[] = new byte[BUFFER_SIZE];
+                int len;
+                while ((len = input.read(buff)) != -1) {
+                    output.write(buff, 0, len);
+                    scheduler.throttle(len);
+                }
+            } catch (final InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } finally {
+                output.close();
+            }
+        } finally {
+            closeQuietly(input);
+        }
+        if (expected >= 0 && part.length() != expected) {
+            throw new IOException("Truncated download of " + src + ": " + part.length() + " of " + expected);
+        }
+        if (!part.renameTo(file)) {
+            throw new IOException("Cannot rename " + part.getPath());
+        }
+        tag.delete();
+    }
+
+    /*
+     * @return the strong validator of the response, or null if it has none
+     */
+    private static String getValidator(final URLConnection connection) {
+        final String etag = connection.getHeaderField("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return connection.getHeaderField("Last-Modified");
+    }
+
+    private static boolean isRangeFrom(final URLConnection connection, final long offset) {
+        final String range = connection.getHeaderField("Content-Range");
+        return range != null && range.trim().startsWith("bytes " + offset + "-");
+    }
+
+    private ImageDownloader() {
+    }
+}
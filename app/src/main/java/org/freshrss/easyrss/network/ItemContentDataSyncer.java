@@ -11,50 +11,45 @@
 
 package org.freshrss.easyrss.network;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.URL;
-import java.net.URLConnection;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
-import org.htmlcleaner.CleanerProperties;
-import org.htmlcleaner.DefaultTagProvider;
-import org.htmlcleaner.FastHtmlSerializer;
-import org.htmlcleaner.HtmlCleaner;
-import org.htmlcleaner.TagNode;
-
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Environment;
-import android.util.Pair;
+import android.util.DisplayMetrics;
 
 import org.freshrss.easyrss.R;
 import org.freshrss.easyrss.data.DataMgr;
-import org.freshrss.easyrss.data.DataUtils;
+import org.freshrss.easyrss.data.ImageCache;
+import org.freshrss.easyrss.data.ImageTranscoder;
 import org.freshrss.easyrss.data.Item;
+import org.freshrss.easyrss.data.ItemBody;
 import org.freshrss.easyrss.data.ItemState;
+import org.freshrss.easyrss.data.readersetting.SettingImageCacheSize;
 import org.freshrss.easyrss.data.readersetting.SettingImagePrefetching;
+import org.freshrss.easyrss.data.readersetting.SettingImageTranscoding;
 
 // Remember that in this class, the meaning networkConfig is different from other syncers!
 public class ItemContentDataSyncer extends AbsDataSyncer {
     private class FetchingHelper {
         final private ExecutorService execService;
         final private List<ItemWrapper> wrappers;
+        final private List<ItemWrapper> draining;
         private int totalItems;
         private int finishedItems;
 
@@ -68,6 +63,7 @@ public class ItemContentDataSyncer extends AbsDataSyncer {
                 }
             });
             this.wrappers = new ArrayList<ItemWrapper>();
+            this.draining = new ArrayList<ItemWrapper>();
             this.totalItems = 0;
             this.finishedItems = 0;
         }
@@ -93,6 +89,34 @@ public class ItemContentDataSyncer extends AbsDataSyncer {
                 exception.printStackTrace();
             }
             wrappers.clear();
+            draining.clear();
+        }
+
+        /*
+         * Queues the prioritized items that still have images to fetch ahead of
+         * the others, in the order they were prioritized.
+         */
+        private void addPrioritizedItems() {
+            final List<String> uids = takePrioritizedUids();
+            if (uids.isEmpty()) {
+                return;
+            }
+            final ContentResolver resolver = dataMgr.getContext().getContentResolver();
+            int position = 0;
+            for (final String uid : uids) {
+                final ItemWrapper queued = findWrapper(wrappers, uid);
+                if (queued != null) {
+                    wrappers.remove(queued);
+                    wrappers.add(position++, queued);
+                } else if (findWrapper(draining, uid) == null) {
+                    final Cursor cur = resolver.query(Item.CONTENT_URI, ITEM_PROJECTION, Item._UID + "=? AND "
+                            + ItemState._ISCACHED + "=0", new String[] { uid }, null);
+                    if (cur.moveToFirst()) {
+                        wrappers.add(position++, new ItemWrapper(Item.fromCursor(cur)));
+                    }
+                    cur.close();
+                }
+            }
         }
 
         public ItemWrapper getNextItemWrapper() {
@@ -101,20 +125,65 @@ public class ItemContentDataSyncer extends AbsDataSyncer {
                 if (!NetworkUtils.checkImageFetchingNetworkStatus(context, networkConfig)) {
                     return null;
                 }
-                while (!wrappers.isEmpty() && wrappers.get(0).isFinished()) {
-                    finishedItems++;
-                    notifyProgressChanged(context.getString(R.string.TxtSyncingItemContent), finishedItems, totalItems);
-                    wrappers.remove(0);
+                /*
+                 * Items whose images are all handed out leave the queue, but are
+                 * kept until cached so that they are not queued again.
+                 */
+                for (int i = 0; i < draining.size();) {
+                    if (draining.get(i).isCached()) {
+                        draining.remove(i);
+                    } else {
+                        i++;
+                    }
                 }
+                for (int i = 0; i < wrappers.size();) {
+                    if (wrappers.get(i).isFinished()) {
+                        draining.add(wrappers.remove(i));
+                        finishedItems++;
+                        notifyProgressChanged(context.getString(R.string.TxtSyncingItemContent), finishedItems,
+                                totalItems);
+                    } else {
+                        i++;
+                    }
+                }
+                addPrioritizedItems();
                 if (!wrappers.isEmpty()) {
                     return wrappers.get(0);
                 }
+                /* unread items first, newest first */
+                final StringBuilder selection = new StringBuilder();
+                selection.append(ItemState._ISCACHED);
+                selection.append("=0");
+                /*
+                 * Only the latest drained items are excluded by the query, the
+                 * rest are skipped here, so that the query stays under the
+                 * limit of bound variables however many items failed.
+                 */
+                final int skipped = Math.max(0, draining.size() - MAX_EXCLUDED_ITEMS);
+                final Set<String> skippedUids = new HashSet<String>();
+                for (int i = 0; i < skipped; i++) {
+                    skippedUids.add(draining.get(i).getItem().getUid());
+                }
+                final String[] args = new String[draining.size() - skipped];
+                if (args.length > 0) {
+                    selection.append(" AND ");
+                    selection.append(Item._UID);
+                    selection.append(" NOT IN(");
+                    for (int i = 0; i < args.length; i++) {
+                        selection.append((i == 0) ? "?" : ",?");
+                        args[i] = draining.get(skipped + i).getItem().getUid();
+                    }
+                    selection.append(')');
+                }
                 final ContentResolver resolver = context.getContentResolver();
-                final Cursor cur;
-                cur = resolver.query(Uri.withAppendedPath(Item.CONTENT_URI, "limit/10"), ITEM_PROJECTION,
-                        ItemState._ISCACHED + "=0", null, null);
-                for (cur.moveToFirst(); !cur.isAfterLast(); cur.moveToNext()) {
-                    wrappers.add(new ItemWrapper(Item.fromCursor(cur)));
+                final Cursor cur = resolver.query(
+                        Uri.withAppendedPath(Item.CONTENT_URI, "limit/" + (BATCH_SIZE + skipped)), ITEM_PROJECTION,
+                        selection.toString(), args, ItemState._ISREAD + "," + Item._TIMESTAMP + " DESC");
+                for (cur.moveToFirst(); !cur.isAfterLast() && wrappers.size() < BATCH_SIZE; cur.moveToNext()) {
+                    final Item item = Item.fromCursor(cur);
+                    if (!skippedUids.contains(item.getUid())) {
+                        wrappers.add(new ItemWrapper(item));
+                    }
                 }
                 cur.close();
                 return wrappers.isEmpty() ? null : wrappers.get(0);
@@ -138,41 +207,30 @@ public class ItemContentDataSyncer extends AbsDataSyncer {
                 if (wrapper == null) {
                     break;
                 }
-                final Pair<Integer, String> psi = wrapper.downloadNextImage();
-                if (psi != null) {
-                    final int picId = psi.first;
-                    final String src = psi.second;
+                final String src = wrapper.downloadNextImage();
+                if (src != null) {
                     final String sDStateString = Environment.getExternalStorageState();
                     if (!sDStateString.equals(android.os.Environment.MEDIA_MOUNTED)) {
-                        wrapper.onFinishImageFetching(picId, DOWNLOADING_STATUS_FILE_ERROR);
+                        wrapper.onFinishImageFetching(src, DOWNLOADING_STATUS_FILE_ERROR);
                         break;
+                    } else if (!ImageCache.isCacheable(src)) {
+                        wrapper.onFinishImageFetching(src, DOWNLOADING_STATUS_SUCCEEDED);
                     } else {
-                        final File file = new File(wrapper.getItem().getImageStoragePath(picId));
-                        if (file.isDirectory()) {
-                            DataUtils.deleteFile(file);
-                        }
+                        final ImageCache cache = ImageCache.getInstance();
+                        final File file = cache.getFile(src);
                         try {
-                            if (!file.exists()) {
-                                final URLConnection connection = new URL(src).openConnection();
-                                connection.setConnectTimeout(30 * 1000);
-                                connection.setReadTimeout(20 * 1000);
-                                final InputStream input = connection.getInputStream();
-                                final OutputStream out = new FileOutputStream(file);
-                                final byte buff[] = new byte[CONTENT_IO_BUFFER_SIZE];
-                                int len;
-                                while ((len = input.read(buff)) != -1) {
-                                    out.write(buff, 0, len);
-                                }
-                                out.close();
-                                try {
-                                    input.close();
-                                } catch (final IOException exception) {
-                                    exception.printStackTrace();
-                                }
+                            if (cache.lookup(src) == null && ImageDownloader.download(src, file)) {
+                                cache.onImageStored(src, (maxImageWidth > 0) ? ImageTranscoder.transcode(file,
+                                        maxImageWidth) : ImageTranscoder.measure(file));
                             }
-                            wrapper.onFinishImageFetching(picId, DOWNLOADING_STATUS_SUCCEEDED);
+                            wrapper.onFinishImageFetching(src, DOWNLOADING_STATUS_SUCCEEDED);
+                        } catch (final FileNotFoundException exception) {
+                            /* left to the reader to fetch itself */
+                            wrapper.onFinishImageFetching(src, DOWNLOADING_STATUS_REFUSED);
+                            exception.printStackTrace();
                         } catch (final Exception exception) {
-                            wrapper.onFinishImageFetching(picId, DOWNLOADING_STATUS_NETWORK_ERROR);
+                            /* fetched again, from where it stopped, by a later sync */
+                            wrapper.onFinishImageFetching(src, DOWNLOADING_STATUS_NETWORK_ERROR);
                             exception.printStackTrace();
                         }
                     }
@@ -183,44 +241,33 @@ public class ItemContentDataSyncer extends AbsDataSyncer {
 
     private class ItemWrapper {
         final private Item item;
-        final private List<TagNode> imgList;
-        final private TagNode root;
+        final private List<String> imgList;
         private boolean hasFileError;
+        private boolean hasNetworkError;
+        private boolean isCached;
         private int downloadedImageCount;
+        private int finishedImageCount;
 
         public ItemWrapper(final Item item) {
             this.item = item;
-            this.imgList = new ArrayList<TagNode>();
-            this.root = new HtmlCleaner().clean(DataUtils.readFromFile(new File(item.getOriginalContentStoragePath())));
-            final Queue<TagNode> nodes = new LinkedList<TagNode>();
-            nodes.add(root);
-            while (!nodes.isEmpty()) {
-                final TagNode tag = nodes.poll();
-                final String tagName = tag.getName();
-                if ("img".equals(tagName)) {
-                    final String src = tag.getAttributeByName("src");
-                    if (src != null && (src.startsWith("http://") || src.startsWith("https://"))) {
-                        imgList.add(tag);
-                    } else {
-                        tag.removeFromTree();
-                    }
-                } else if (tag.hasChildren()) {
-                    nodes.addAll(tag.getChildTagList());
-                }
-            }
+            this.imgList = ItemBody.readImages(item);
             this.hasFileError = false;
+            this.hasNetworkError = false;
+            this.isCached = false;
             this.downloadedImageCount = 0;
-
-            if (isSucceeded()) {
+            this.finishedImageCount = 0;
+            if (imgList.isEmpty()) {
                 markAsCached();
+            } else {
+                ImageCache.getInstance().addReferences(item.getUid(), imgList);
             }
         }
 
-        public synchronized Pair<Integer, String> downloadNextImage() {
+        public synchronized String downloadNextImage() {
             if (downloadedImageCount < imgList.size()) {
-                final TagNode ret = imgList.get(downloadedImageCount);
+                final String ret = imgList.get(downloadedImageCount);
                 downloadedImageCount++;
-                return Pair.create(downloadedImageCount, ret.getAttributeByName("src"));
+                return ret;
             } else {
                 return null;
             }
@@ -230,61 +277,62 @@ public class ItemContentDataSyncer extends AbsDataSyncer {
             return item;
         }
 
-        public boolean isFinished() {
-            return (downloadedImageCount >= imgList.size());
+        public synchronized boolean isCached() {
+            return isCached || hasFileError;
         }
 
-        public boolean isSucceeded() {
-            return (isFinished() && !hasFileError);
+        public synchronized boolean isFinished() {
+            return (downloadedImageCount >= imgList.size());
         }
 
+        /*
+         * The reader finds the fetched images by their URL, so only the state
+         * of the item changes here.
+         */
         private void markAsCached() {
-            final CleanerProperties prop = new CleanerProperties();
-            prop.setTagInfoProvider(DefaultTagProvider.getInstance());
-            prop.setOmitXmlDeclaration(false);
-            final FastHtmlSerializer serializer = new FastHtmlSerializer(prop);
-            try {
-                final OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(
-                        item.getFullContentStoragePath())), 8192);
-                serializer.writeToStream(root, out);
-                out.close();
-                final ContentResolver resolver = dataMgr.getContext().getContentResolver();
-                final ContentValues values = new ContentValues(1);
-                values.put(ItemState._ISCACHED, true);
-                resolver.update(Item.CONTENT_URI, values, Item._UID + "=?", new String[] { item.getUid() });
-            } catch (final IOException exception) {
-                exception.printStackTrace();
-            }
+            final ContentResolver resolver = dataMgr.getContext().getContentResolver();
+            final ContentValues values = new ContentValues(1);
+            values.put(ItemState._ISCACHED, true);
+            resolver.update(Item.CONTENT_URI, values, Item._UID + "=?", new String[] { item.getUid() });
+            isCached = true;
         }
 
-        public synchronized void onFinishImageFetching(final int id, final int status) {
-            final TagNode ele = imgList.get(id - 1);
+        public synchronized void onFinishImageFetching(final String src, final int status) {
             if (status == DOWNLOADING_STATUS_FILE_ERROR) {
                 hasFileError = true;
                 downloadedImageCount = imgList.size();
                 return;
             }
-            ele.setAttribute("src", id + ".erss");
-            if (status != DOWNLOADING_STATUS_SUCCEEDED) {
-                final InputStream input = dataMgr.getContext().getResources().openRawResource(R.raw.no_such_picture);
-                try {
-                    final FileOutputStream output = new FileOutputStream(item.getImageStoragePath(id));
-                    DataUtils.streamTransfer(input, output);
-                } catch (final FileNotFoundException exception) {
-                    exception.printStackTrace();
-                }
+            if (status == DOWNLOADING_STATUS_NETWORK_ERROR && onImageFailed(src)) {
+                /* the item stays uncached, and in draining until this sync ends */
+                hasNetworkError = true;
             }
-            if (isSucceeded()) {
+            finishedImageCount++;
+            if (finishedImageCount >= imgList.size() && !hasFileError && !hasNetworkError) {
                 markAsCached();
             }
         }
     }
 
     private final static String[] ITEM_PROJECTION = { Item._UID };
+    final private static int BATCH_SIZE = 10;
+    /* well under the 999 variables SQLite binds at most */
+    final private static int MAX_EXCLUDED_ITEMS = 500;
+    final private static int MAX_PRIORITIZED_ITEMS = 16;
+    /* the items to fetch first, most urgent first */
+    final private static LinkedList<String> PRIORITIZED_UIDS = new LinkedList<String>();
     final private static int DOWNLOADING_STATUS_SUCCEEDED = 0;
     final private static int DOWNLOADING_STATUS_NETWORK_ERROR = 1;
     final private static int DOWNLOADING_STATUS_FILE_ERROR = 2;
+    final private static int DOWNLOADING_STATUS_REFUSED = 3;
+    /* the syncs an image may fail in before its item is cached without it */
+    final private static int MAX_IMAGE_FAILURES = 3;
+    final private static int MAX_TRACKED_FAILURES = 256;
+    /* the syncs each image failed in so far, by src */
+    final private static Map<String, Integer> IMAGE_FAILURES = new HashMap<String, Integer>();
     final private static int FETCHING_THREAD_COUNT = 5;
+    /* in bytes per second, leaving room for the foreground on mobile links */
+    final private static long MOBILE_BACKGROUND_RATE = 128 * 1024;
 
     private static ItemContentDataSyncer instance;
 
@@ -292,6 +340,15 @@ public class ItemContentDataSyncer extends AbsDataSyncer {
         instance = null;
     }
 
+    private static ItemWrapper findWrapper(final List<ItemWrapper> wrappers, final String uid) {
+        for (final ItemWrapper wrapper : wrappers) {
+            if (wrapper.getItem().getUid().equals(uid)) {
+                return wrapper;
+            }
+        }
+        return null;
+    }
+
     public static synchronized ItemContentDataSyncer getInstance(final DataMgr dataMgr, final int networkConfig) {
         if (instance == null) {
             instance = new ItemContentDataSyncer(dataMgr, networkConfig);
@@ -299,6 +356,57 @@ public class ItemContentDataSyncer extends AbsDataSyncer {
         return instance;
     }
 
+    /* the width fetched images are shrunk to, or 0 to keep them as they are */
+    private int maxImageWidth;
+
+    /*
+     * Moves the items to the front of the prefetch queue, the first one ahead
+     * of the others; takes effect at once if images are being fetched, or on
+     * the next sync otherwise. Null uids are ignored.
+     */
+    public static void prioritize(final String... uids) {
+        synchronized (PRIORITIZED_UIDS) {
+            for (int i = uids.length - 1; i >= 0; i--) {
+                if (uids[i] != null) {
+                    PRIORITIZED_UIDS.remove(uids[i]);
+                    PRIORITIZED_UIDS.addFirst(uids[i]);
+                }
+            }
+            while (PRIORITIZED_UIDS.size() > MAX_PRIORITIZED_ITEMS) {
+                PRIORITIZED_UIDS.removeLast();
+            }
+        }
+    }
+
+    /*
+     * Counts a failed fetch of the image.
+     *
+     * @return whether a later sync should try the image again
+     */
+    private static boolean onImageFailed(final String src) {
+        synchronized (IMAGE_FAILURES) {
+            final Integer count = IMAGE_FAILURES.get(src);
+            final int failures = (count == null) ? 1 : count + 1;
+            if (failures >= MAX_IMAGE_FAILURES) {
+                IMAGE_FAILURES.remove(src);
+                return false;
+            }
+            if (count == null && IMAGE_FAILURES.size() >= MAX_TRACKED_FAILURES) {
+                IMAGE_FAILURES.clear();
+            }
+            IMAGE_FAILURES.put(src, failures);
+            return true;
+        }
+    }
+
+    private static List<String> takePrioritizedUids() {
+        synchronized (PRIORITIZED_UIDS) {
+            final List<String> ret = new ArrayList<String>(PRIORITIZED_UIDS);
+            PRIORITIZED_UIDS.clear();
+            return ret;
+        }
+    }
+
     private ItemContentDataSyncer(final DataMgr dataMgr, final int networkConfig) {
         super(dataMgr, networkConfig);
     }
@@ -321,6 +429,16 @@ public class ItemContentDataSyncer extends AbsDataSyncer {
     public void startSyncing() throws DataSyncerException {
         final SettingImagePrefetching sImgPrefetch = new SettingImagePrefetching(dataMgr);
         if (sImgPrefetch.getData()) {
+            ImageCache.getInstance().setBudget(new SettingImageCacheSize(dataMgr).getData() * 1024L * 1024L);
+            FetchScheduler.getInstance().setBackgroundRate(
+                    NetworkUtils.isWifiConnected(dataMgr.getContext()) ? 0 : MOBILE_BACKGROUND_RATE);
+            if (new SettingImageTranscoding(dataMgr).getData()) {
+                /* the longer side, so images stay sharp in landscape */
+                final DisplayMetrics metrics = dataMgr.getContext().getResources().getDisplayMetrics();
+                maxImageWidth = Math.max(metrics.widthPixels, metrics.heightPixels);
+            } else {
+                maxImageWidth = 0;
+            }
             final FetchingHelper helper = new FetchingHelper();
             helper.fetch();
         }
@@ -14,8 +14,6 @@ package org.freshrss.easyrss.network;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 
 import android.content.Context;
@@ -24,34 +22,35 @@ import android.util.Pair;
 import com.fasterxml.jackson.core.JsonParseException;
 import org.freshrss.easyrss.R;
 import org.freshrss.easyrss.data.DataMgr;
-import org.freshrss.easyrss.data.DataUtils;
 import org.freshrss.easyrss.data.Item;
+import org.freshrss.easyrss.data.ItemBatchWriter;
 import org.freshrss.easyrss.data.parser.ItemJSONParser;
 import org.freshrss.easyrss.data.parser.OnItemRetrievedListener;
+import org.freshrss.easyrss.data.readersetting.SettingMaxItemAge;
 import org.freshrss.easyrss.data.readersetting.SettingMaxItems;
+import org.freshrss.easyrss.data.readersetting.SettingMaxItemsPerFeed;
 import org.freshrss.easyrss.network.url.StreamContentsURL;
 
 public class ItemDataSyncer extends AbsDataSyncer implements DataSyncerListener {
     private class ItemListener implements OnItemRetrievedListener {
-        final private List<Item> items;
+        final private ItemBatchWriter writer;
         private String continuation;
 
         public ItemListener() {
-            this.items = new LinkedList<Item>();
+            this.writer = new ItemBatchWriter(dataMgr);
         }
 
         public String getContinuation() {
             return continuation;
         }
 
-        public List<Item> getItems() {
-            return items;
+        public ItemBatchWriter getWriter() {
+            return writer;
         }
 
         @Override
         public void onItemRetrieved(final Item item) throws IOException {
-            DataUtils.writeItemToFile(item);
-            items.add(item);
+            writer.add(item);
         }
 
         @Override
@@ -169,11 +168,13 @@ public class ItemDataSyncer extends AbsDataSyncer implements DataSyncerListener
         try {
             final ItemJSONParser parser = new ItemJSONParser(stream);
             final ItemListener listener = new ItemListener();
-            parser.parse(listener);
+            try {
+                parser.parse(listener);
+            } finally {
+                listener.getWriter().flush();
+            }
             continuation = listener.getContinuation();
-            final List<Item> items = listener.getItems();
-            dataMgr.addItems(items);
-            if (items.size() < ITEM_LIST_QUERY_LIMIT) {
+            if (listener.getWriter().getCount() < ITEM_LIST_QUERY_LIMIT) {
                 setEnd(true);
             }
         } catch (final JsonParseException exception) {
@@ -189,7 +190,8 @@ public class ItemDataSyncer extends AbsDataSyncer implements DataSyncerListener
                 exception.printStackTrace();
             }
         }
-        dataMgr.removeOutdatedItemsWithLimit(new SettingMaxItems(dataMgr).getData());
+        dataMgr.removeOutdatedItemsWithLimits(new SettingMaxItems(dataMgr).getData(),
+                new SettingMaxItemsPerFeed(dataMgr).toCount(), new SettingMaxItemAge(dataMgr).toMillis());
     }
 
     private void syncReadStatus() throws DataSyncerException {
@@ -11,6 +11,8 @@
 
 package org.freshrss.easyrss.network;
 
+import java.util.List;
+
 import org.freshrss.easyrss.data.DataMgr;
 import org.freshrss.easyrss.network.url.EditItemTagURL;
 
@@ -18,10 +20,17 @@ public class ItemTagDataSyncer extends AbsDataSyncer {
     final private EditItemTagURL url;
 
     public ItemTagDataSyncer(final DataMgr dataMgr, final int networkConfig, final String itemUid, final String tagUid,
-            final boolean isAdd) {
+            final boolean isAdd, final String token) {
+        super(dataMgr, networkConfig);
+
+        this.url = new EditItemTagURL(isHttpsConnection, itemUid, tagUid, isAdd, token);
+    }
+
+    public ItemTagDataSyncer(final DataMgr dataMgr, final int networkConfig, final List<String> itemUids,
+            final String tagUid, final boolean isAdd, final String token) {
         super(dataMgr, networkConfig);
 
-        this.url = new EditItemTagURL(isHttpsConnection, itemUid, tagUid, isAdd);
+        this.url = new EditItemTagURL(isHttpsConnection, itemUids, tagUid, isAdd, token);
     }
 
     @Override
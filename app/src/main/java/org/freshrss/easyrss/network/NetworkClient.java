@@ -11,17 +11,9 @@
 
 package org.freshrss.easyrss.network;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.util.Locale;
-
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLSocketFactory;
+import java.util.Arrays;
 
 import org.apache.http.HttpStatus;
 import org.freshrss.easyrss.account.ReaderAccountMgr;
@@ -45,104 +37,110 @@ public class NetworkClient {
         return instance;
     }
 
+    final private static int DEFAULT_BUFFER_SIZE = 8192;
+    final private static int MAX_PRESIZED_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private static byte[] readFully(final InputStream stream, final int sizeHint) throws IOException {
+        byte[] buff = new byte[(sizeHint > 0) ? Math.min(sizeHint, MAX_PRESIZED_BUFFER_SIZE) : DEFAULT_BUFFER_SIZE];
+        int count = 0;
+        int len;
+        while (true) {
+            if (count == buff.length) {
+                if (sizeHint > 0 && count == sizeHint) {
+                    /*
+                     * The exact size is known: probe for EOF before growing,
+                     * so a correct hint never costs a copy.
+                     */
+                    final int next = stream.read();
+                    if (next == -1) {
+                        return buff;
+                    }
+                    buff = Arrays.copyOf(buff, buff.length * 2);
+                    buff[count++] = (byte) next;
+                } else {
+                    buff = Arrays.copyOf(buff, buff.length * 2);
+                }
+            }
+            len = stream.read(buff, count, buff.length - count);
+            if (len == -1) {
+                break;
+            }
+            count += len;
+        }
+        return (count == buff.length) ? buff : Arrays.copyOf(buff, count);
+    }
+
     private String auth;
 
-    private SSLSocketFactory sslSocketFactory = new SSLSocketFactoryCustom();
+    private volatile HttpTransport transport = new UrlConnectionTransport(new SSLSocketFactoryCustom());
 
     private NetworkClient() {
         // TODO empty method
     }
 
-    public byte[] doGetByte(final String url) throws Exception {
-        final InputStream stream = doGetStream(url);
-        final ByteArrayOutputStream output = new ByteArrayOutputStream();
-        final byte[] data = new byte[8192];
-        int len;
-        while ((len = stream.read(data, 0, 8192)) != -1) {
-            output.write(data, 0, len);
+    private void checkResponse(final String url, final TransportResponse response) throws NetworkException {
+        final int resStatus = response.getStatus();
+        if (resStatus == HttpStatus.SC_UNAUTHORIZED) {
+            ReaderAccountMgr.getInstance().invalidateAuth();
+            TokenStore.getInstance().invalidate();
+        }
+        if (resStatus != HttpStatus.SC_OK) {
+            throw new NetworkException("Invalid HTTP status " + resStatus + ": " + url + ".");
         }
-        final byte[] ret = output.toByteArray();
-        output.close();
-        return ret;
     }
 
-    private HttpURLConnection makeConnection(final String url) throws MalformedURLException, IOException {
-        final HttpURLConnection httpURLConnection = (HttpURLConnection)(new URL(url).openConnection());
-        httpURLConnection.setConnectTimeout(40 * 1000);
-        httpURLConnection.setReadTimeout(30 * 1000);
-        if (url.toLowerCase(Locale.US).startsWith("https://")) {
-            final HttpsURLConnection httpsURLConnection = (HttpsURLConnection)httpURLConnection;
-            httpsURLConnection.setSSLSocketFactory(this.sslSocketFactory);
+    public byte[] doGetByte(final String url) throws Exception {
+        final TransportResponse response = doGet(url);
+        try {
+            return readFully(response.getStream(), response.getSizeHint());
+        } finally {
+            response.close();
         }
-        return httpURLConnection;
     }
 
-    public InputStream doGetStream(final String url) throws Exception {
-        final HttpURLConnection conn = makeConnection(url);
-        conn.setRequestMethod("GET");
-        if (auth != null) {
-            conn.setRequestProperty("Authorization", "GoogleLogin auth=" + auth);
-        }
+    private TransportResponse doGet(final String url) throws Exception {
         try {
-            final int resStatus = conn.getResponseCode();
-            if (resStatus == HttpStatus.SC_UNAUTHORIZED) {
-                ReaderAccountMgr.getInstance().invalidateAuth();
-            }
-            if (resStatus != HttpStatus.SC_OK) {
-                throw new NetworkException("Invalid HTTP status " + resStatus + ": " + url + ".");
-            }
+            final TransportResponse response = transport.get(url, auth);
+            checkResponse(url, response);
+            return response;
         } catch (final Exception exception) {
             if (exception.getMessage() != null && exception.getMessage().contains("authentication")) {
                 ReaderAccountMgr.getInstance().invalidateAuth();
+                TokenStore.getInstance().invalidate();
             }
             throw exception;
         }
-        return conn.getInputStream();
     }
 
-    public byte[] doPostByte(final String url, final String params) throws Exception {
-        final InputStream stream = doPostStream(url, params);
-        final ByteArrayOutputStream output = new ByteArrayOutputStream();
-        final byte[] data = new byte[8192];
-        int len;
-        while ((len = stream.read(data, 0, 8192)) != -1) {
-            output.write(data, 0, len);
-        }
-        final byte[] ret = output.toByteArray();
-        output.close();
-        return ret;
+    public InputStream doGetStream(final String url) throws Exception {
+        return doGet(url).getStream();
     }
 
-    public InputStream doPostStream(final String url, final String params) throws IOException, NetworkException {
-    	final HttpURLConnection conn = makeConnection(url);
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-        if (auth != null) {
-            conn.setRequestProperty("Authorization", "GoogleLogin auth=" + auth);
-        }
-        conn.setDoInput(true);
-        conn.setDoOutput(true);
-        final OutputStream output = conn.getOutputStream();
-        output.write(params.getBytes());
-        output.flush();
-        output.close();
-
-        conn.connect();
+    private TransportResponse doPost(final String url, final String params) throws IOException, NetworkException {
         try {
-            final int resStatus = conn.getResponseCode();
-            if (resStatus == HttpStatus.SC_UNAUTHORIZED) {
-                ReaderAccountMgr.getInstance().invalidateAuth();
-            }
-            if (resStatus != HttpStatus.SC_OK) {
-                throw new NetworkException("Invalid HTTP status " + resStatus + ": " + url + ".");
-            }
+            final TransportResponse response = transport.post(url, params, auth);
+            checkResponse(url, response);
+            return response;
         } catch (final IOException exception) {
             if (exception.getMessage() != null && exception.getMessage().contains("authentication")) {
                 ReaderAccountMgr.getInstance().invalidateAuth();
+                TokenStore.getInstance().invalidate();
             }
             throw exception;
         }
-        return conn.getInputStream();
+    }
+
+    public byte[] doPostByte(final String url, final String params) throws Exception {
+        final TransportResponse response = doPost(url, params);
+        try {
+            return readFully(response.getStream(), response.getSizeHint());
+        } finally {
+            response.close();
+        }
+    }
+
+    public InputStream doPostStream(final String url, final String params) throws IOException, NetworkException {
+        return doPost(url, params).getStream();
     }
 
     public String getAuth() {
@@ -152,4 +150,12 @@ public class NetworkClient {
     public void setAuth(final String auth) {
         this.auth = auth;
     }
+
+    public HttpTransport getTransport() {
+        return transport;
+    }
+
+    public void setTransport(final HttpTransport transport) {
+        this.transport = transport;
+    }
 }
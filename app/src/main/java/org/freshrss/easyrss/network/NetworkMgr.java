@@ -102,6 +102,13 @@ final public class NetworkMgr implements DataSyncerListener {
                 syncer.setPending(false);
                 syncer.setListener(null);
                 notifySyncFinished(syncer, succeeded);
+                final boolean isIdle;
+                synchronized (syncers) {
+                    isIdle = syncers.isEmpty();
+                }
+                if (isIdle) {
+                    DataMgr.getInstance().checkpoint();
+                }
             }
         }
     }
@@ -63,6 +63,13 @@ final public class NetworkUtils {
         return false;
     }
 
+    public static boolean isWifiConnected(final Context context) {
+        final ConnectivityManager connMgr = (ConnectivityManager) context
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        final NetworkInfo info = connMgr.getActiveNetworkInfo();
+        return (info != null && info.isConnected() && info.getType() == ConnectivityManager.TYPE_WIFI);
+    }
+
     public static void doGlobalSyncing(final Context context, final int syncingMethod) {
         Utils.initManagers(context);
         if (ReaderAccountMgr.getInstance().hasAccount() && !GlobalItemDataSyncer.hasInstance()
@@ -31,21 +31,25 @@ public class TokenDataSyncer extends AbsDataSyncer {
 
     @Override
     public void startSyncing() throws DataSyncerException {
-        final String sExpTime = dataMgr.getSettingByName(Setting.SETTING_TOKEN_EXPIRE_TIME);
-        final String token = dataMgr.getSettingByName(Setting.SETTING_TOKEN);
-        if (token != null && sExpTime != null && Long.valueOf(sExpTime) >= System.currentTimeMillis()) {
+        final TokenStore store = TokenStore.getInstance();
+        if (!store.acquireRefresh()) {
             return;
         }
+        String token = null;
+        final long expireTime = System.currentTimeMillis() + TOKEN_EXPIRE_TIME;
+        try {
+            token = syncToken();
+        } finally {
+            store.finishRefresh(token, expireTime);
+        }
 
-        syncToken();
-
-        dataMgr.updateSetting(new Setting(Setting.SETTING_TOKEN_EXPIRE_TIME, String.valueOf(System.currentTimeMillis()
-                + TOKEN_EXPIRE_TIME)));
+        dataMgr.updateSetting(new Setting(Setting.SETTING_TOKEN, token));
+        dataMgr.updateSetting(new Setting(Setting.SETTING_TOKEN_EXPIRE_TIME, String.valueOf(expireTime)));
     }
 
-    private void syncToken() throws DataSyncerException {
+    private String syncToken() throws DataSyncerException {
         final byte[] data = httpGetQueryByte(new TokenURL(isHttpsConnection));
-        dataMgr.updateSetting(new Setting(Setting.SETTING_TOKEN, new String(data)));
+        return new String(data);
     }
 
     @Override
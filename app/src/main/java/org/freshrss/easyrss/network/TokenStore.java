@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Pursuer (http://pursuer.me).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Pursuer - initial API and implementation
+ ******************************************************************************/
+
+package org.freshrss.easyrss.network;
+
+import org.freshrss.easyrss.data.DataMgr;
+import org.freshrss.easyrss.data.Setting;
+
+/*
+ * In-memory holder of the edit token. Only one thread refreshes the token at
+ * a time (see acquireRefresh); the others block until that refresh is done
+ * and then reuse its result.
+ */
+final public class TokenStore {
+    private static TokenStore instance = null;
+
+    public synchronized static TokenStore getInstance() {
+        if (instance == null) {
+            instance = new TokenStore();
+        }
+        return instance;
+    }
+
+    private String token;
+    private long expireTime;
+    private boolean isLoaded;
+    private boolean isRefreshing;
+
+    private TokenStore() {
+        this.token = null;
+        this.expireTime = 0;
+        this.isLoaded = false;
+        this.isRefreshing = false;
+    }
+
+    /*
+     * @return true if the caller has to fetch a new token and then call
+     * finishRefresh; false if a valid token is available, possibly after
+     * waiting for another thread's refresh.
+     */
+    public synchronized boolean acquireRefresh() {
+        while (true) {
+            if (isValid()) {
+                return false;
+            }
+            if (!isRefreshing) {
+                isRefreshing = true;
+                return true;
+            }
+            try {
+                wait();
+            } catch (final InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    /*
+     * @param token the fetched token, or null if fetching failed
+     */
+    public synchronized void finishRefresh(final String token, final long expireTime) {
+        if (token != null) {
+            this.token = token;
+            this.expireTime = expireTime;
+        }
+        isRefreshing = false;
+        notifyAll();
+    }
+
+    /*
+     * @return the current token, or null if there is no valid one
+     */
+    public synchronized String getToken() {
+        return isValid() ? token : null;
+    }
+
+    public synchronized void invalidate() {
+        token = null;
+        expireTime = 0;
+        isLoaded = true;
+    }
+
+    public synchronized boolean isValid() {
+        loadPersisted();
+        return (token != null && expireTime >= System.currentTimeMillis());
+    }
+
+    /*
+     * A token fetched by a previous process may still be valid, so the
+     * persisted value is read once.
+     */
+    private void loadPersisted() {
+        if (isLoaded) {
+            return;
+        }
+        final DataMgr dataMgr = DataMgr.getInstance();
+        if (dataMgr == null) {
+            return;
+        }
+        isLoaded = true;
+        final String sExpTime = dataMgr.getSettingByName(Setting.SETTING_TOKEN_EXPIRE_TIME);
+        final String sToken = dataMgr.getSettingByName(Setting.SETTING_TOKEN);
+        if (sToken != null && sExpTime != null) {
+            token = sToken;
+            expireTime = Long.valueOf(sExpTime);
+        }
+    }
+}
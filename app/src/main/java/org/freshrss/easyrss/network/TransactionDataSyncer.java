@@ -12,9 +12,14 @@
 package org.freshrss.easyrss.network;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
@@ -27,9 +32,33 @@ import org.freshrss.easyrss.data.DataMgr;
 import org.freshrss.easyrss.data.Transaction;
 
 public class TransactionDataSyncer extends AbsDataSyncer {
+    /*
+     * A group of transactions sharing the same (tag, add/remove) operation,
+     * sent as one edit-tag request. An empty tag means the transactions carry
+     * nothing to send and only have to be removed.
+     */
+    private static class Batch {
+        final private String tag;
+        final private boolean isAdd;
+        final private List<String> itemUids;
+        final private List<Long> transactionIds;
+
+        public Batch(final String tag, final boolean isAdd) {
+            this.tag = tag;
+            this.isAdd = isAdd;
+            this.itemUids = new ArrayList<String>();
+            this.transactionIds = new ArrayList<Long>();
+        }
+    }
+
     private class SyncingThread implements Runnable {
+        final private boolean isBatchMode;
         private Exception exception;
 
+        public SyncingThread(final boolean isBatchMode) {
+            this.isBatchMode = isBatchMode;
+        }
+
         public Exception getException() {
             return exception;
         }
@@ -38,37 +67,30 @@ public class TransactionDataSyncer extends AbsDataSyncer {
         public void run() {
             while (true) {
                 try {
-                    final Transaction trans = getNextTransaction();
-                    if (trans == null) {
-                        return;
-                    }
-                    String tag = "";
-                    boolean isAdd = false;
-                    switch (trans.getType()) {
-                    case Transaction.TYPE_SET_READ:
-                        tag = "user/-/state/com.google/read";
-                        isAdd = true;
-                        break;
-                    case Transaction.TYPE_REMOVE_READ:
-                        tag = "user/-/state/com.google/read";
-                        isAdd = false;
-                        break;
-                    case Transaction.TYPE_SET_STARRED:
-                        tag = "user/-/state/com.google/starred";
-                        isAdd = true;
-                        break;
-                    case Transaction.TYPE_REMOVE_STARRED:
-                        tag = "user/-/state/com.google/starred";
-                        isAdd = false;
-                        break;
-                    default:
-                    }
-                    if (tag.length() > 0) {
-                        final ItemTagDataSyncer syncer = new ItemTagDataSyncer(dataMgr, networkConfig, trans.getUid(),
-                                tag, isAdd);
-                        syncer.sync();
+                    if (isBatchMode) {
+                        final Batch batch = getNextBatch();
+                        if (batch == null) {
+                            return;
+                        }
+                        if (batch.tag.length() > 0 && !batch.itemUids.isEmpty()) {
+                            final ItemTagDataSyncer syncer = new ItemTagDataSyncer(dataMgr, networkConfig,
+                                    batch.itemUids, batch.tag, batch.isAdd, ensureToken());
+                            syncer.sync();
+                        }
+                        dataMgr.removeTransactionsByIds(batch.transactionIds);
+                    } else {
+                        final Transaction trans = getNextTransaction();
+                        if (trans == null) {
+                            return;
+                        }
+                        final String tag = getTransactionTag(trans.getType());
+                        if (tag.length() > 0) {
+                            final ItemTagDataSyncer syncer = new ItemTagDataSyncer(dataMgr, networkConfig,
+                                    trans.getUid(), tag, isTransactionAdd(trans.getType()), ensureToken());
+                            syncer.sync();
+                        }
+                        dataMgr.removeTransactionById(trans.getId());
                     }
-                    dataMgr.removeTransactionById(trans.getId());
                 } catch (final DataSyncerException exception) {
                     this.exception = exception;
                     return;
@@ -78,8 +100,32 @@ public class TransactionDataSyncer extends AbsDataSyncer {
     }
 
     private final static int SYNCING_THREAD_COUNT = 5;
+    private final static int TRANSACTION_QUERY_LIMIT = 50;
+    private final static int BATCH_TRANSACTION_QUERY_LIMIT = 500;
+    private final static int MAX_ITEMS_PER_BATCH = 100;
+    private final static String TAG_READ = "user/-/state/com.google/read";
+    private final static String TAG_STARRED = "user/-/state/com.google/starred";
+
+    private static String getTransactionTag(final int type) {
+        switch (type) {
+        case Transaction.TYPE_SET_READ:
+        case Transaction.TYPE_REMOVE_READ:
+            return TAG_READ;
+        case Transaction.TYPE_SET_STARRED:
+        case Transaction.TYPE_REMOVE_STARRED:
+            return TAG_STARRED;
+        default:
+            return "";
+        }
+    }
+
+    private static boolean isTransactionAdd(final int type) {
+        return (type == Transaction.TYPE_SET_READ || type == Transaction.TYPE_SET_STARRED);
+    }
 
     final private List<Transaction> transactions;
+    final private List<Batch> batches;
+    private boolean isBatchMode;
     private int progress;
 
     private static TransactionDataSyncer instance;
@@ -94,6 +140,64 @@ public class TransactionDataSyncer extends AbsDataSyncer {
     private TransactionDataSyncer(final DataMgr dataMgr, final int networkConfig) {
         super(dataMgr, networkConfig);
         this.transactions = new ArrayList<Transaction>();
+        this.batches = new ArrayList<Batch>();
+        this.isBatchMode = true;
+    }
+
+    /*
+     * Groups the loaded transactions by operation. Only the newest transaction
+     * of an item per tag is sent, so that e.g. a read/unread pair inside the
+     * same window can't be applied out of order by parallel requests; the
+     * superseded ones are removed together with their batch.
+     */
+    private void buildBatches() {
+        batches.clear();
+        final Map<String, Transaction> latest = new HashMap<String, Transaction>();
+        for (final Transaction trans : transactions) {
+            final String key = getTransactionTag(trans.getType()) + '\n' + trans.getUid();
+            final Transaction prev = latest.get(key);
+            if (prev == null || prev.getId() < trans.getId()) {
+                latest.put(key, trans);
+            }
+        }
+        final Map<String, Batch> open = new LinkedHashMap<String, Batch>();
+        for (final Transaction trans : transactions) {
+            final String tag = getTransactionTag(trans.getType());
+            final boolean isAdd = isTransactionAdd(trans.getType());
+            final boolean isSent = (tag.length() > 0 && latest.get(tag + '\n' + trans.getUid()) == trans);
+            final String key = isSent ? (tag + (isAdd ? "+" : "-")) : "";
+            Batch batch = open.get(key);
+            if (batch == null || batch.itemUids.size() >= MAX_ITEMS_PER_BATCH) {
+                batch = isSent ? new Batch(tag, isAdd) : new Batch("", false);
+                open.put(key, batch);
+                batches.add(batch);
+            }
+            if (isSent) {
+                batch.itemUids.add(trans.getUid());
+            }
+            batch.transactionIds.add(trans.getId());
+        }
+    }
+
+    /*
+     * Called outside of any lock: TokenStore lets a single thread refresh the
+     * token while the other workers wait for its result.
+     *
+     * @return the token to send, which is not read from the store again as it
+     * may be invalidated meanwhile
+     */
+    private String ensureToken() throws DataSyncerException {
+        final TokenStore store = TokenStore.getInstance();
+        String ret = store.getToken();
+        if (ret == null) {
+            final TokenDataSyncer tSyncer = new TokenDataSyncer(dataMgr, networkConfig);
+            tSyncer.sync();
+            ret = store.getToken();
+            if (ret == null) {
+                throw new DataSyncerException("No edit token");
+            }
+        }
+        return ret;
     }
 
     @Override
@@ -101,13 +205,25 @@ public class TransactionDataSyncer extends AbsDataSyncer {
         // TODO nothing needed
     }
 
+    private Batch getNextBatch() throws DataSyncerException {
+        synchronized (batches) {
+            final Context context = dataMgr.getContext();
+            notifyProgressChanged(context.getString(R.string.TxtSyncingItemStatus), progress, batches.size());
+            if (progress < batches.size()) {
+                final Batch ret = batches.get(progress);
+                progress++;
+                return ret;
+            } else {
+                return null;
+            }
+        }
+    }
+
     private Transaction getNextTransaction() throws DataSyncerException {
         synchronized (transactions) {
             final Context context = dataMgr.getContext();
             notifyProgressChanged(context.getString(R.string.TxtSyncingItemStatus), progress, transactions.size());
             if (progress < transactions.size()) {
-                final TokenDataSyncer tSyncer = new TokenDataSyncer(dataMgr, networkConfig);
-                tSyncer.sync();
                 final Transaction ret = transactions.get(progress);
                 progress++;
                 return ret;
@@ -117,6 +233,18 @@ public class TransactionDataSyncer extends AbsDataSyncer {
         }
     }
 
+    public boolean isBatchMode() {
+        return isBatchMode;
+    }
+
+    /*
+     * In batch mode, pending transactions are grouped into multi-item edit-tag
+     * requests. Otherwise every transaction is sent on its own.
+     */
+    public void setBatchMode(final boolean isBatchMode) {
+        this.isBatchMode = isBatchMode;
+    }
+
     @Override
     public void startSyncing() throws DataSyncerException {
         syncTransactions();
@@ -125,47 +253,70 @@ public class TransactionDataSyncer extends AbsDataSyncer {
     private void syncTransactions() throws DataSyncerException {
         final Context context = dataMgr.getContext();
         final ContentResolver resolver = context.getContentResolver();
-        while (true) {
-            if (!NetworkUtils.checkSyncingNetworkStatus(context, networkConfig)) {
-                return;
-            }
-            progress = 0;
-            transactions.clear();
-            final Cursor cur = resolver.query(Transaction.CONTENT_URI, null, null, null, Transaction._ID + " LIMIT 50");
-            for (cur.moveToFirst(); !cur.isAfterLast(); cur.moveToNext()) {
-                transactions.add(Transaction.fromCursor(cur));
+        final boolean batchMode = isBatchMode;
+        final int queryLimit = batchMode ? BATCH_TRANSACTION_QUERY_LIMIT : TRANSACTION_QUERY_LIMIT;
+        final ExecutorService execService = Executors.newFixedThreadPool(SYNCING_THREAD_COUNT, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
             }
-            cur.close();
-            if (!transactions.isEmpty()) {
-                final int tCount = Math.min(SYNCING_THREAD_COUNT, transactions.size());
+        });
+        try {
+            while (true) {
+                if (!NetworkUtils.checkSyncingNetworkStatus(context, networkConfig)) {
+                    return;
+                }
+                progress = 0;
+                transactions.clear();
+                final Cursor cur = resolver.query(Transaction.CONTENT_URI, null, null, null, Transaction._ID
+                        + " LIMIT " + queryLimit);
+                for (cur.moveToFirst(); !cur.isAfterLast(); cur.moveToNext()) {
+                    transactions.add(Transaction.fromCursor(cur));
+                }
+                cur.close();
+                if (transactions.isEmpty()) {
+                    break;
+                }
+                final int workCount;
+                if (batchMode) {
+                    buildBatches();
+                    workCount = batches.size();
+                } else {
+                    workCount = transactions.size();
+                }
+                final int tCount = Math.min(SYNCING_THREAD_COUNT, workCount);
                 final List<SyncingThread> syncingThreads = new ArrayList<TransactionDataSyncer.SyncingThread>(tCount);
-                final ExecutorService execService = Executors.newFixedThreadPool(tCount, new ThreadFactory() {
-                    @Override
-                    public Thread newThread(final Runnable runnable) {
-                        final Thread thread = new Thread(runnable);
-                        thread.setPriority(Thread.MIN_PRIORITY);
-                        return thread;
-                    }
-                });
+                final List<Future<?>> futures = new ArrayList<Future<?>>(tCount);
                 for (int i = 0; i < tCount; i++) {
-                    final SyncingThread thread = new SyncingThread();
+                    final SyncingThread thread = new SyncingThread(batchMode);
                     syncingThreads.add(thread);
-                    execService.execute(thread);
+                    futures.add(execService.submit(thread));
                 }
-                execService.shutdown();
                 try {
-                    execService.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
-                    for (final SyncingThread thread : syncingThreads) {
-                        if (thread.getException() != null) {
-                            throw new DataSyncerException(thread.getException());
-                        }
+                    for (final Future<?> future : futures) {
+                        future.get();
                     }
                 } catch (final InterruptedException exception) {
                     exception.printStackTrace();
+                } catch (final ExecutionException exception) {
+                    exception.printStackTrace();
                 }
-            } else {
-                break;
+                for (final SyncingThread thread : syncingThreads) {
+                    if (thread.getException() != null) {
+                        throw new DataSyncerException(thread.getException());
+                    }
+                }
+            }
+        } finally {
+            execService.shutdown();
+            try {
+                execService.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+            } catch (final InterruptedException exception) {
+                exception.printStackTrace();
             }
+            batches.clear();
         }
     }
 }
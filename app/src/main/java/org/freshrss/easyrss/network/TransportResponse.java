@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Pursuer (http://pursuer.me).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Pursuer - initial API and implementation
+ ******************************************************************************/
+
+package org.freshrss.easyrss.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+public class TransportResponse {
+    final private int status;
+    final private int sizeHint;
+    final private InputStream stream;
+
+    public TransportResponse(final int status, final int sizeHint, final InputStream stream) {
+        this.status = status;
+        this.sizeHint = sizeHint;
+        this.stream = stream;
+    }
+
+    public void close() {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (final IOException exception) {
+                exception.printStackTrace();
+            }
+        }
+    }
+
+    /*
+     * @return the expected decoded length of the body, or -1 if unknown. It is
+     * exact for identity encoded bodies and an estimate otherwise.
+     */
+    public int getSizeHint() {
+        return sizeHint;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /*
+     * The returned stream is already decoded. Closing it hands the underlying
+     * connection back to the keep-alive pool.
+     */
+    public InputStream getStream() {
+        return stream;
+    }
+}
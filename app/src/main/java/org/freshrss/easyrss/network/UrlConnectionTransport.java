@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Pursuer (http://pursuer.me).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Pursuer - initial API and implementation
+ ******************************************************************************/
+
+package org.freshrss.easyrss.network;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/*
+ * HttpURLConnection based transport. The platform keeps idle keep-alive
+ * sockets per host; we only have to ask for keep-alive, avoid disabling it by
+ * setting our own Accept-Encoding without decoding, and drain every response
+ * before closing it so the socket can go back to the pool.
+ */
+public class UrlConnectionTransport implements HttpTransport {
+    private class PooledInputStream extends FilterInputStream {
+        final private HttpURLConnection conn;
+        private boolean isClosed;
+
+        public PooledInputStream(final InputStream input, final HttpURLConnection conn) {
+            super(input);
+            this.conn = conn;
+            this.isClosed = false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+            try {
+                /*
+                 * An unread tail would force the connection to be thrown away
+                 * instead of reused, so drain small remainders.
+                 */
+                final byte[] buff = new byte[DRAIN_BUFFER_SIZE];
+                int drained = 0;
+                int len;
+                while (drained < MAX_DRAIN_SIZE && (len = in.read(buff)) != -1) {
+                    drained += len;
+                }
+                if (drained >= MAX_DRAIN_SIZE) {
+                    conn.disconnect();
+                }
+            } catch (final IOException exception) {
+                conn.disconnect();
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    final private static int CONNECT_TIMEOUT = 40 * 1000;
+    final private static int READ_TIMEOUT = 30 * 1000;
+    final private static int DRAIN_BUFFER_SIZE = 4096;
+    final private static int MAX_DRAIN_SIZE = 64 * 1024;
+    final private static int MAX_IDLE_CONNECTIONS_PER_HOST = 5;
+    final private static int COMPRESSION_RATIO_GUESS = 4;
+    final private static int MAX_SIZE_HINT = 4 * 1024 * 1024;
+
+    static {
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(MAX_IDLE_CONNECTIONS_PER_HOST));
+    }
+
+    private static InputStream decodeStream(final InputStream input, final String encoding) throws IOException {
+        if (encoding == null) {
+            return input;
+        }
+        final String enc = encoding.trim().toLowerCase(Locale.US);
+        if ("gzip".equals(enc) || "x-gzip".equals(enc)) {
+            return new GZIPInputStream(input, DRAIN_BUFFER_SIZE);
+        } else if ("deflate".equals(enc)) {
+            /*
+             * "deflate" is supposed to be zlib-wrapped, but many servers send a
+             * raw deflate stream. Peek at the header to tell them apart.
+             */
+            final BufferedInputStream buffered = new BufferedInputStream(input, DRAIN_BUFFER_SIZE);
+            buffered.mark(2);
+            final int cmf = buffered.read();
+            final int flg = buffered.read();
+            buffered.reset();
+            final boolean isZlib = (cmf != -1 && flg != -1 && (cmf & 0x0F) == 8 && ((cmf << 8) | flg) % 31 == 0);
+            return new InflaterInputStream(buffered, new Inflater(!isZlib), DRAIN_BUFFER_SIZE);
+        } else {
+            return input;
+        }
+    }
+
+    final private SSLSocketFactory sslSocketFactory;
+
+    public UrlConnectionTransport(final SSLSocketFactory sslSocketFactory) {
+        this.sslSocketFactory = sslSocketFactory;
+    }
+
+    @Override
+    public TransportResponse get(final String url, final String auth) throws IOException {
+        final HttpURLConnection conn = makeConnection(url, auth);
+        conn.setRequestMethod("GET");
+        return toResponse(conn);
+    }
+
+    private HttpURLConnection makeConnection(final String url, final String auth) throws IOException {
+        final HttpURLConnection conn = (HttpURLConnection) (new URL(url).openConnection());
+        conn.setConnectTimeout(CONNECT_TIMEOUT);
+        conn.setReadTimeout(READ_TIMEOUT);
+        conn.setUseCaches(false);
+        if (conn instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) conn).setSSLSocketFactory(sslSocketFactory);
+        }
+        conn.setRequestProperty("Connection", "keep-alive");
+        conn.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        if (auth != null) {
+            conn.setRequestProperty("Authorization", "GoogleLogin auth=" + auth);
+        }
+        return conn;
+    }
+
+    @Override
+    public TransportResponse post(final String url, final String params, final String auth) throws IOException {
+        final HttpURLConnection conn = makeConnection(url, auth);
+        final byte[] body = params.getBytes("UTF-8");
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+        conn.setDoInput(true);
+        conn.setDoOutput(true);
+        conn.setFixedLengthStreamingMode(body.length);
+        final OutputStream output = conn.getOutputStream();
+        try {
+            output.write(body);
+            output.flush();
+        } finally {
+            output.close();
+        }
+        return toResponse(conn);
+    }
+
+    private TransportResponse toResponse(final HttpURLConnection conn) throws IOException {
+        final int status = conn.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK) {
+            /*
+             * Error bodies are tiny; consume them so the connection survives.
+             */
+            final InputStream error = conn.getErrorStream();
+            if (error != null) {
+                new PooledInputStream(error, conn).close();
+            }
+            return new TransportResponse(status, -1, null);
+        }
+        final String encoding = conn.getContentEncoding();
+        final boolean isIdentity = (encoding == null || "identity".equalsIgnoreCase(encoding.trim()));
+        final int rawLength = conn.getContentLength();
+        final int sizeHint;
+        if (isIdentity) {
+            sizeHint = rawLength;
+        } else {
+            sizeHint = (rawLength > 0) ? (int) Math.min((long) rawLength * COMPRESSION_RATIO_GUESS, MAX_SIZE_HINT) : -1;
+        }
+        final InputStream raw = new PooledInputStream(conn.getInputStream(), conn);
+        return new TransportResponse(status, sizeHint, decodeStream(raw, isIdentity ? null : encoding));
+    }
+}
@@ -12,6 +12,7 @@
 package org.freshrss.easyrss.network.url;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import org.apache.http.NameValuePair;
@@ -76,6 +77,14 @@ public abstract class AbsURL {
         params.add(new BasicNameValuePair(key, Uri.encode(value)));
     }
 
+    /*
+     * Unlike addParam, this keeps existing values of the same key, for
+     * parameters like "i" that may be repeated.
+     */
+    protected void appendParam(final String key, final String value) {
+        params.add(new BasicNameValuePair(key, Uri.encode(value)));
+    }
+
     protected abstract String getBaseURL();
 
     public List<NameValuePair> getParams() {
@@ -118,6 +127,15 @@ public abstract class AbsURL {
             }
         }
     }
+
+    protected void removeParams(final String key) {
+        final Iterator<NameValuePair> it = params.iterator();
+        while (it.hasNext()) {
+            if (it.next().getName().equals(key)) {
+                it.remove();
+            }
+        }
+    }
     
     public static void setServerUrl(final String serverUrl) {
         AbsURL.serverUrl = serverUrl;
@@ -11,24 +11,38 @@
 
 package org.freshrss.easyrss.network.url;
 
-import org.freshrss.easyrss.data.DataMgr;
-import org.freshrss.easyrss.data.Setting;
+import java.util.ArrayList;
+import java.util.List;
 
 public class EditItemTagURL extends AbsURL {
     private static final String URL_API_EDIT_TAG = URL_API + "/edit-tag?client=scroll";
 
-    private String itemUid;
+    private List<String> itemUids;
     private String tagUid;
     private boolean isAdd;
 
     public EditItemTagURL(final boolean isHttpsConnection, final String itemUid, final String tagUid,
-            final boolean isAdd) {
+            final boolean isAdd, final String token) {
         super(isHttpsConnection, true, false);
 
         setItemUid(itemUid);
         setTagUid(tagUid);
         setAdd(isAdd);
-        init();
+        init(token);
+    }
+
+    /*
+     * The edit-tag API accepts any number of "i" parameters, so several items
+     * sharing the same tag operation can be sent in one request.
+     */
+    public EditItemTagURL(final boolean isHttpsConnection, final List<String> itemUids, final String tagUid,
+            final boolean isAdd, final String token) {
+        super(isHttpsConnection, true, false);
+
+        setItemUids(itemUids);
+        setTagUid(tagUid);
+        setAdd(isAdd);
+        init(token);
     }
 
     @Override
@@ -39,11 +53,15 @@ public class EditItemTagURL extends AbsURL {
             return false;
         }
         final EditItemTagURL url = (EditItemTagURL) obj;
-        return (itemUid.equals(url.itemUid) && tagUid.equals(url.tagUid) && isAdd == url.isAdd);
+        return (itemUids.equals(url.itemUids) && tagUid.equals(url.tagUid) && isAdd == url.isAdd);
     }
 
     public String getItemUid() {
-        return itemUid;
+        return itemUids.isEmpty() ? null : itemUids.get(0);
+    }
+
+    public List<String> getItemUids() {
+        return itemUids;
     }
 
     public String getTagUid() {
@@ -55,8 +73,8 @@ public class EditItemTagURL extends AbsURL {
         return serverUrl + URL_API_EDIT_TAG;
     }
 
-    private void init() {
-        addParam("T", DataMgr.getInstance().getSettingByName(Setting.SETTING_TOKEN));
+    private void init(final String token) {
+        addParam("T", token);
         addParam("async", "true");
         addParam("pos", "0");
     }
@@ -79,8 +97,17 @@ public class EditItemTagURL extends AbsURL {
     }
 
     public void setItemUid(final String itemUid) {
-        this.itemUid = itemUid;
-        addParam("i", itemUid);
+        final List<String> uids = new ArrayList<String>(1);
+        uids.add(itemUid);
+        setItemUids(uids);
+    }
+
+    public void setItemUids(final List<String> itemUids) {
+        this.itemUids = itemUids;
+        removeParams("i");
+        for (final String uid : itemUids) {
+            appendParam("i", uid);
+        }
     }
 
     public void setTagUid(final String tagUid) {
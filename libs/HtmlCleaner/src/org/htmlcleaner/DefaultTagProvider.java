@@ -62,19 +62,36 @@ import java.util.HashMap;
  * file requires some processing time.
  */
 public class DefaultTagProvider extends HashMap<String, TagInfo> implements ITagInfoProvider {
-    private static DefaultTagProvider instance;
+    // created when first used, without locking on every call
+    private static class InstanceHolder {
+        private static final DefaultTagProvider instance = new DefaultTagProvider();
+    }
+
     private static final long serialVersionUID = 1L;
+    private static final int MAX_NAME_TABLE_SIZE = 1 << 14;
 
     /**
      * @return Singleton instance of this class.
      */
-    public static synchronized DefaultTagProvider getInstance() {
-        if (instance == null) {
-            instance = new DefaultTagProvider();
+    public static DefaultTagProvider getInstance() {
+        return InstanceHolder.instance;
+    }
+
+    private static int hash(final CharSequence s) {
+        int h = 0;
+        for (int i = 0; i < s.length(); i++) {
+            h = 31 * h + s.charAt(i);
         }
-        return instance;
+        return h ^ (h >>> 16);
     }
 
+    /**
+     * Names of the tags, placed by their hash in a table large enough to have
+     * no collisions, so that looking a name up takes a single probe; made
+     * again when the first lookup follows a put.
+     */
+    private transient volatile String[] names;
+
     protected DefaultTagProvider() {
         super();
 
@@ -497,6 +514,69 @@ public class DefaultTagProvider extends HashMap<String, TagInfo> implements ITag
         return get(tagName);
     }
 
+    /**
+     * Returns the name of a tag as a string of this provider. The names of
+     * tags can be looked up from a buffer without making a string for them,
+     * and map lookups with the returned string are faster, as its hash code is
+     * cached and it is the same instance as the key.
+     * 
+     * @param name
+     *            characters of the name, case sensitive
+     * @return Name of the tag, or null if there is no tag with that name
+     */
+    public String getTagName(final CharSequence name) {
+        String[] table = names;
+        if (table == null) {
+            table = makeNameTable();
+            names = table;
+        }
+        if (table.length == 0) {
+            return null;
+        }
+        final String ret = table[hash(name) & (table.length - 1)];
+        if (ret == null || ret.length() != name.length()) {
+            return null;
+        }
+        for (int i = 0; i < ret.length(); i++) {
+            if (ret.charAt(i) != name.charAt(i)) {
+                return null;
+            }
+        }
+        return ret;
+    }
+
+    private String[] makeNameTable() {
+        for (int size = Integer.highestOneBit(Math.max(size(), 1)) * 4; size <= MAX_NAME_TABLE_SIZE; size *= 2) {
+            final String[] table = new String[size];
+            boolean isPerfect = true;
+            for (final String name : keySet()) {
+                final int index = hash(name) & (size - 1);
+                if (table[index] != null) {
+                    isPerfect = false;
+                    break;
+                }
+                table[index] = name;
+            }
+            if (isPerfect) {
+                return table;
+            }
+        }
+        // names are not looked up by the table then
+        return new String[0];
+    }
+
+    @Override
+    public TagInfo put(final String key, final TagInfo value) {
+        names = null;
+        return super.put(key, value);
+    }
+
+    @Override
+    public TagInfo remove(final Object key) {
+        names = null;
+        return super.remove(key);
+    }
+
     /**
      * Removes tag info with specified name.
      * 
@@ -17,48 +17,228 @@
 package org.htmlcleaner;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Stack;
 
+/**
+ * HTML serializer which walks the tree without recursion, to avoid stack
+ * overflows on deep trees. The children of each node are visited by index,
+ * with the open tags and their cursors kept in arrays reused from one call to
+ * the next. Output to a stream in UTF-8 goes through a char buffer encoded
+ * straight into bytes. An instance is not thread-safe.
+ */
 public class FastHtmlSerializer extends HtmlSerializer {
+    /**
+     * Buffered UTF-8 writer. The buffers are kept when it is closed, so that it
+     * can be used again for another stream.
+     */
+    private static class Utf8Writer extends Writer {
+        private final static int BUFFER_SIZE = 8192;
+
+        final private char[] chars = new char[BUFFER_SIZE];
+        // a char may take 3 bytes, a surrogate pair 4
+        final private byte[] bytes = new byte[BUFFER_SIZE * 3];
+        private int count;
+        private OutputStream out;
+
+        @Override
+        public Writer append(final CharSequence csq, final int start, final int end) throws IOException {
+            final CharSequence s = (csq == null) ? "null" : csq;
+            for (int i = start; i < end; i++) {
+                if (count == chars.length) {
+                    flushBuffer(false);
+                }
+                chars[count++] = s.charAt(i);
+            }
+            return this;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out != null) {
+                flushBuffer(true);
+                out.close();
+                out = null;
+            }
+        }
+
+        /**
+         * Encodes the buffered chars to the stream. A high surrogate at the end
+         * is kept for the char it pairs with, unless isLast.
+         */
+        private void flushBuffer(final boolean isLast) throws IOException {
+            int end = count;
+            if (!isLast && end > 0 && Character.isHighSurrogate(chars[end - 1])) {
+                end--;
+            }
+            int length = 0;
+            for (int i = 0; i < end; i++) {
+                final char ch = chars[i];
+                if (ch < 0x80) {
+                    bytes[length++] = (byte) ch;
+                } else if (ch < 0x800) {
+                    bytes[length++] = (byte) (0xc0 | (ch >> 6));
+                    bytes[length++] = (byte) (0x80 | (ch & 0x3f));
+                } else if (ch < Character.MIN_SURROGATE || ch > Character.MAX_SURROGATE) {
+                    bytes[length++] = (byte) (0xe0 | (ch >> 12));
+                    bytes[length++] = (byte) (0x80 | ((ch >> 6) & 0x3f));
+                    bytes[length++] = (byte) (0x80 | (ch & 0x3f));
+                } else if (Character.isHighSurrogate(ch) && i + 1 < end && Character.isLowSurrogate(chars[i + 1])) {
+                    final int codePoint = Character.toCodePoint(ch, chars[++i]);
+                    bytes[length++] = (byte) (0xf0 | (codePoint >> 18));
+                    bytes[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    bytes[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    bytes[length++] = (byte) (0x80 | (codePoint & 0x3f));
+                } else {
+                    // unpaired surrogate, replaced as OutputStreamWriter does
+                    bytes[length++] = '?';
+                }
+            }
+            out.write(bytes, 0, length);
+            count -= end;
+            if (count > 0) {
+                chars[0] = chars[end];
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushBuffer(false);
+            out.flush();
+        }
+
+        private void reset(final OutputStream out) {
+            this.out = out;
+            this.count = 0;
+        }
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) throws IOException {
+            int i = off;
+            final int end = off + len;
+            while (i < end) {
+                if (count == chars.length) {
+                    flushBuffer(false);
+                }
+                final int n = Math.min(end - i, chars.length - count);
+                System.arraycopy(cbuf, i, chars, count, n);
+                count += n;
+                i += n;
+            }
+        }
+
+        @Override
+        public void write(final int c) throws IOException {
+            if (count == chars.length) {
+                flushBuffer(false);
+            }
+            chars[count++] = (char) c;
+        }
+
+        @Override
+        public void write(final String str, final int off, final int len) throws IOException {
+            int i = off;
+            final int end = off + len;
+            while (i < end) {
+                if (count == chars.length) {
+                    flushBuffer(false);
+                }
+                final int n = Math.min(end - i, chars.length - count);
+                str.getChars(i, i + n, chars, count);
+                count += n;
+                i += n;
+            }
+        }
+    }
+
+    private TagNode[] tagStack = new TagNode[64];
+    // index of the next child to serialize, for each tag of tagStack
+    private int[] cursorStack = new int[64];
+    private Utf8Writer utf8Writer;
+
     public FastHtmlSerializer(final CleanerProperties props) {
         super(props);
     }
 
+    @Override
+    protected boolean isBuffered(final Writer writer) {
+        return writer == utf8Writer || super.isBuffered(writer);
+    }
+
+    private void push(final TagNode tagNode, final int depth) {
+        if (depth == tagStack.length) {
+            final TagNode[] tags = new TagNode[depth * 2];
+            System.arraycopy(tagStack, 0, tags, 0, depth);
+            tagStack = tags;
+            final int[] cursors = new int[depth * 2];
+            System.arraycopy(cursorStack, 0, cursors, 0, depth);
+            cursorStack = cursors;
+        }
+        tagStack[depth] = tagNode;
+        cursorStack[depth] = 0;
+    }
+
     protected void serialize(final TagNode tagNode, final Writer writer) throws IOException {
-        final Stack<TagNode> tagStack = new Stack<TagNode>();
-        final Stack<List<Object>> childStack = new Stack<List<Object>>();
         serializeOpenTag(tagNode, writer, false);
-        if (!isMinimizedTagSyntax(tagNode)) {
-            tagStack.push(tagNode);
-            childStack.push(new ArrayList<Object>(tagNode.getChildren()));
-            while (!tagStack.isEmpty()) {
-                final TagNode tag = tagStack.peek();
-                final List<Object> children = childStack.peek();
-                if (children.isEmpty()) {
-                    tagStack.pop();
-                    childStack.pop();
+        if (isMinimizedTagSyntax(tagNode)) {
+            return;
+        }
+
+        int depth = 0;
+        push(tagNode, depth++);
+        try {
+            while (depth > 0) {
+                final TagNode tag = tagStack[depth - 1];
+                final List<Object> children = tag.getChildren();
+                final int cursor = cursorStack[depth - 1];
+                if (cursor == children.size()) {
+                    tagStack[--depth] = null;
                     if (!isMinimizedTagSyntax(tag)) {
                         serializeEndTag(tag, writer, false);
                     }
                 } else {
-                    final Object item = children.get(0);
-                    children.remove(0);
+                    final Object item = children.get(cursor);
+                    cursorStack[depth - 1] = cursor + 1;
                     if (item instanceof ContentNode) {
-                        final String content = item.toString();
-                        writer.write(dontEscape(tag) ? content : escapeText(content));
+                        final StringBuilder content = ((ContentNode) item).getContent();
+                        if (dontEscape(tag)) {
+                            write(content, 0, content.length(), writer);
+                        } else {
+                            escapeText(content, writer);
+                        }
                     } else if (item instanceof TagNode) {
                         final TagNode currentTag = (TagNode) item;
                         serializeOpenTag(currentTag, writer, false);
-                        tagStack.push(currentTag);
-                        childStack.push(new ArrayList<Object>(currentTag.getChildren()));
+                        push(currentTag, depth++);
                     } else if (item instanceof BaseToken) {
                         ((BaseToken) item).serialize(this, writer);
                     }
                 }
             }
+        } finally {
+            // does not keep the tree reachable
+            while (depth > 0) {
+                tagStack[--depth] = null;
+            }
+        }
+    }
+
+    /**
+     * Writes UTF-8 through the reusable buffers of this serializer, and other
+     * charsets through an OutputStreamWriter.
+     */
+    @Override
+    public void writeToStream(final TagNode tagNode, final OutputStream out, final String charset,
+            final boolean omitEnvelope) throws IOException {
+        if (!"UTF-8".equalsIgnoreCase(charset) && !"UTF8".equalsIgnoreCase(charset)) {
+            super.writeToStream(tagNode, out, charset, omitEnvelope);
+            return;
+        }
+        if (utf8Writer == null) {
+            utf8Writer = new Utf8Writer();
         }
+        utf8Writer.reset(out);
+        write(tagNode, utf8Writer, charset, omitEnvelope);
     }
 }
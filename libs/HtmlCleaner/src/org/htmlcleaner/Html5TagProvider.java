@@ -54,17 +54,18 @@
 package org.htmlcleaner;
 
 public class Html5TagProvider extends DefaultTagProvider {
-    private static Html5TagProvider instance;
+    // created when first used, without locking on every call
+    private static class InstanceHolder {
+        private static final Html5TagProvider instance = new Html5TagProvider();
+    }
+
     private static final long serialVersionUID = 1L;
 
     /**
      * @return Singleton instance of this class.
      */
-    public static synchronized Html5TagProvider getInstance() {
-        if (instance == null) {
-            instance = new Html5TagProvider();
-        }
-        return instance;
+    public static Html5TagProvider getInstance() {
+        return InstanceHolder.instance;
     }
 
     protected Html5TagProvider() {
@@ -96,6 +96,11 @@ import java.util.*;
  * XXXSerializer(props).writeXmlXXX(aNode, ...); myJDom = new
  * JDomSerializer(props, true).createJDom(aNode); myDom = new
  * DomSerializer(props, true).createDOM(aNode); </xmp>
+ * <p>
+ * The state of a cleaning is kept in its own CleanTimeValues, so a cleaner can
+ * be shared by threads cleaning at the same time, as long as its properties
+ * and transformations are not changed meanwhile.
+ * </p>
  */
 public class HtmlCleaner {
 
@@ -123,11 +128,16 @@ public class HtmlCleaner {
         private List<TagPos> list = new ArrayList<TagPos>();
         private TagPos last = null;
         private Set<String> set = new HashSet<String>();
+        // number of open tags by name, so that looking for a tag which is not
+        // open does not walk the whole list
+        private Map<String, Integer> counts = new HashMap<String, Integer>();
 
         private void addTag(String tagName, int position) {
-            last = new TagPos(position, tagName);
+            last = new TagPos(position, tagName, list.size());
             list.add(last);
             set.add(tagName);
+            final Integer count = counts.get(tagName);
+            counts.put(tagName, (count == null) ? 1 : count + 1);
         }
 
         private TagPos findFirstTagPos() {
@@ -135,7 +145,7 @@ public class HtmlCleaner {
         }
 
         private TagPos findTag(String tagName) {
-            if (tagName != null) {
+            if (tagName != null && counts.containsKey(tagName)) {
                 final ListIterator<TagPos> it = list.listIterator(list.size());
                 String fatalTag = null;
                 final TagInfo fatalInfo = tagInfoProvider.getTagInfo(tagName);
@@ -184,13 +194,20 @@ public class HtmlCleaner {
             return list.isEmpty();
         }
 
-        private void removeTag(final String tagName) {
-            final ListIterator<TagPos> it = list.listIterator(list.size());
-            while (it.hasPrevious()) {
-                final TagPos currTagPos = it.previous();
-                if (tagName.equals(currTagPos.name)) {
-                    it.remove();
-                    break;
+        /**
+         * Removes the specified tag and all tags opened after it, which are
+         * closed together with it.
+         * 
+         * @param tagPos
+         */
+        private void removeTags(final TagPos tagPos) {
+            for (int i = list.size() - 1; i >= tagPos.index; i--) {
+                final String tagName = list.remove(i).name;
+                final int count = counts.get(tagName);
+                if (count > 1) {
+                    counts.put(tagName, count - 1);
+                } else {
+                    counts.remove(tagName);
                 }
             }
 
@@ -203,10 +220,9 @@ public class HtmlCleaner {
          * @param tags
          */
         private boolean someAlreadyOpen(final Set tags) {
-            final Iterator<TagPos> it = list.iterator();
+            final Iterator it = tags.iterator();
             while (it.hasNext()) {
-                final TagPos curr = it.next();
-                if (tags.contains(curr.name)) {
+                if (counts.containsKey(it.next())) {
                     return true;
                 }
             }
@@ -229,11 +245,14 @@ public class HtmlCleaner {
         private int position;
         private String name;
         private TagInfo info;
+        // position in the list of open tags
+        private int index;
 
-        TagPos(final int position, final String name) {
+        TagPos(final int position, final String name, final int index) {
             this.position = position;
             this.name = name;
             this.info = tagInfoProvider.getTagInfo(name);
+            this.index = index;
         }
     }
 
@@ -400,7 +419,7 @@ public class HtmlCleaner {
 
             @Override
             public void makeTree(final List<BaseToken> tokenList) {
-                HtmlCleaner.this.makeTree(tokenList, tokenList.listIterator(tokenList.size() - 1), cleanTimeValues);
+                HtmlCleaner.this.makeTree(tokenList, tokenList.size() - 1, cleanTimeValues);
             }
         };
 
@@ -493,7 +512,7 @@ public class HtmlCleaner {
                 if (itemsToMove != null) {
                     final OpenTags prevOpenTags = cleanTimeValues.openTags;
                     cleanTimeValues.openTags = new OpenTags();
-                    makeTree(itemsToMove, itemsToMove.listIterator(0), cleanTimeValues);
+                    makeTree(itemsToMove, 0, cleanTimeValues);
                     closeAll(itemsToMove, cleanTimeValues);
                     startTagToken.setItemsToMove(null);
                     cleanTimeValues.openTags = prevOpenTags;
@@ -515,7 +534,6 @@ public class HtmlCleaner {
                     }
                 }
 
-                cleanTimeValues.openTags.removeTag(newTagNode.getName());
                 tagNode = newTagNode;
             } else {
                 if (tagNode != null) {
@@ -533,6 +551,13 @@ public class HtmlCleaner {
             }
         }
 
+        // everything after the start token of the snippet has been moved
+        // into it, so the list keeps only that token: a snippet closed later
+        // does not walk the items of the snippets inside it again
+        final int end = (toNode == null) ? nodeList.size() : it.previousIndex();
+        nodeList.subList(tagPos.position + 1, end).clear();
+        cleanTimeValues.openTags.removeTags(tagPos);
+
         return closed;
     }
 
@@ -677,11 +702,21 @@ public class HtmlCleaner {
         return copy;
     }
 
-    public void makeTree(final List<BaseToken> nodeList, final ListIterator<BaseToken> nodeIterator,
-            final CleanTimeValues cleanTimeValues) {
+    /**
+     * Processes the tokens of the list from the specified index on. The list
+     * is changed in place: closed snippets are replaced by their nodes, so
+     * that the work done for each token is constant when the tokenizer calls
+     * it for each token it adds.
+     * 
+     * @param nodeList
+     * @param start
+     *            index of the first token to process
+     */
+    public void makeTree(final List<BaseToken> nodeList, final int start, final CleanTimeValues cleanTimeValues) {
+        int index = start;
         // process while not reach the end of the list
-        while (nodeIterator.hasNext()) {
-            final BaseToken token = nodeIterator.next();
+        while (index < nodeList.size()) {
+            final BaseToken token = nodeList.get(index);
 
             if (token instanceof EndTagToken) {
                 final EndTagToken endTagToken = (EndTagToken) token;
@@ -690,25 +725,26 @@ public class HtmlCleaner {
 
                 if ((tag == null && properties.isOmitUnknownTags())
                         || (tag != null && tag.isDeprecated() && properties.isOmitDeprecatedTags())) {
-                    nodeIterator.set(null);
+                    nodeList.set(index, null);
                 } else if (tag != null && !tag.allowsBody()) {
-                    nodeIterator.set(null);
+                    nodeList.set(index, null);
                 } else {
                     final TagPos matchingPosition = cleanTimeValues.openTags.findTag(tagName);
 
                     if (matchingPosition != null) {
                         final List closed = closeSnippet(nodeList, matchingPosition, endTagToken, cleanTimeValues);
-                        nodeIterator.set(null);
+                        // the closed snippet has been reduced to its node
+                        index = matchingPosition.position + 1;
+                        nodeList.set(index, null);
                         for (int i = closed.size() - 1; i >= 1; i--) {
                             final TagNode closedTag = (TagNode) closed.get(i);
                             if (tag != null && tag.isContinueAfter(closedTag.getName())) {
-                                nodeIterator.add(makeTagNodeCopy(closedTag, cleanTimeValues));
-                                nodeIterator.previous();
+                                nodeList.add(index + 1, makeTagNodeCopy(closedTag, cleanTimeValues));
                             }
                         }
                     } else if (!isAllowedInLastOpenTag(token, cleanTimeValues)) {
                         saveToLastOpenTag(nodeList, token, cleanTimeValues);
-                        nodeIterator.set(null);
+                        nodeList.set(index, null);
                     }
                 }
             } else if (isStartToken(token)) {
@@ -726,49 +762,50 @@ public class HtmlCleaner {
                 // HTML open tag
                 if ("html".equals(tagName)) {
                     addAttributesToTag(cleanTimeValues.htmlNode, startTagToken.getAttributes());
-                    nodeIterator.set(null);
+                    nodeList.set(index, null);
                     // BODY open tag
                 } else if ("body".equals(tagName)) {
                     cleanTimeValues.bodyOpened = true;
                     addAttributesToTag(cleanTimeValues.bodyNode, startTagToken.getAttributes());
-                    nodeIterator.set(null);
+                    nodeList.set(index, null);
                     // HEAD open tag
                 } else if ("head".equals(tagName)) {
                     cleanTimeValues.headOpened = true;
                     addAttributesToTag(cleanTimeValues.headNode, startTagToken.getAttributes());
-                    nodeIterator.set(null);
+                    nodeList.set(index, null);
                     // unknown HTML tag and unknown tags are not allowed
                 } else if ((tag == null && properties.isOmitUnknownTags())
                         || (tag != null && tag.isDeprecated() && properties.isOmitDeprecatedTags())) {
-                    nodeIterator.set(null);
+                    nodeList.set(index, null);
                     // if current tag is unknown, unknown tags are allowed and
                     // last open tag doesn't allow any other tags in its body
                 } else if (tag == null && lastTagInfo != null && !lastTagInfo.allowsAnything()) {
                     saveToLastOpenTag(nodeList, token, cleanTimeValues);
-                    nodeIterator.set(null);
+                    nodeList.set(index, null);
                 } else if (tag != null && tag.hasPermittedTags()
                         && cleanTimeValues.openTags.someAlreadyOpen(tag.getPermittedTags())) {
-                    nodeIterator.set(null);
+                    nodeList.set(index, null);
                     // if tag that must be unique, ignore this occurence
                 } else if (tag != null && tag.isUnique() && cleanTimeValues.openTags.tagEncountered(tagName)) {
-                    nodeIterator.set(null);
+                    nodeList.set(index, null);
                     // if there is no required outer tag without that this open
                     // tag is ignored
                 } else if (!isFatalTagSatisfied(tag, cleanTimeValues)) {
-                    nodeIterator.set(null);
+                    nodeList.set(index, null);
                     // if there is no required parent tag - it must be added
                     // before this open tag
                 } else if (mustAddRequiredParent(tag, cleanTimeValues)) {
                     final String requiredParent = tag.getRequiredParent();
                     final TagNode requiredParentStartToken = createTagNode(requiredParent, cleanTimeValues);
-                    nodeIterator.previous();
-                    nodeIterator.add(requiredParentStartToken);
-                    nodeIterator.previous();
+                    // the parent is processed first, then this tag again
+                    nodeList.add(index, requiredParentStartToken);
+                    continue;
                     // if last open tag has lower presidence then this, it must
                     // be closed
                 } else if (tag != null && lastTagPos != null && tag.isMustCloseTag(lastTagInfo)) {
                     final List closed = closeSnippet(nodeList, lastTagPos, startTagToken, cleanTimeValues);
                     final int closedCount = closed.size();
+                    index = lastTagPos.position + 1;
 
                     // it is needed to copy some tags again in front of current,
                     // if there are any
@@ -787,43 +824,37 @@ public class HtmlCleaner {
                             }
                         }
 
-                        if (toBeCopied.size() > 0) {
-                            final Iterator copyIt = toBeCopied.iterator();
-                            while (copyIt.hasNext()) {
-                                final TagNode currStartToken = (TagNode) copyIt.next();
-                                nodeIterator.add(makeTagNodeCopy(currStartToken, cleanTimeValues));
-                            }
-
-                            // back to the previous place, before adding new
-                            // start tokens
-                            for (int i = 0; i < toBeCopied.size(); i++) {
-                                nodeIterator.previous();
-                            }
+                        for (int i = 0; i < toBeCopied.size(); i++) {
+                            final TagNode currStartToken = (TagNode) toBeCopied.get(i);
+                            nodeList.add(index + 1 + i, makeTagNodeCopy(currStartToken, cleanTimeValues));
                         }
                     }
 
-                    nodeIterator.previous();
+                    // this open tag is processed again
+                    continue;
                     // if this open tag is not allowed inside last open tag,
                     // then it must be moved to the place where it can be
                 } else if (!isAllowedInLastOpenTag(token, cleanTimeValues)) {
                     saveToLastOpenTag(nodeList, token, cleanTimeValues);
-                    nodeIterator.set(null);
+                    nodeList.set(index, null);
                     // if it is known HTML tag but doesn't allow body, it is
                     // immediately closed
                 } else if (tag != null && !tag.allowsBody()) {
                     final TagNode newTagNode = createTagNode(startTagToken);
                     addPossibleHeadCandidate(tag, newTagNode, cleanTimeValues);
-                    nodeIterator.set(newTagNode);
+                    nodeList.set(index, newTagNode);
                     // default case - just remember this open tag and go further
                 } else {
-                    cleanTimeValues.openTags.addTag(tagName, nodeIterator.previousIndex());
+                    cleanTimeValues.openTags.addTag(tagName, index);
                 }
             } else {
                 if (!isAllowedInLastOpenTag(token, cleanTimeValues)) {
                     saveToLastOpenTag(nodeList, token, cleanTimeValues);
-                    nodeIterator.set(null);
+                    nodeList.set(index, null);
                 }
             }
+
+            index++;
         }
     }
 
@@ -54,6 +54,7 @@
 package org.htmlcleaner;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.util.Map;
 
@@ -63,6 +64,36 @@ import java.util.Map;
  * </p>
  */
 public abstract class HtmlSerializer extends Serializer {
+    /**
+     * Writes the decimal numeric character reference of the specified code.
+     */
+    private static void writeDecimalNCR(final int code, final Writer writer) throws IOException {
+        writer.write("&#");
+        int divisor = 1;
+        while (divisor <= code / 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            writer.write('0' + code / divisor % 10);
+        }
+        writer.write(';');
+    }
+
+    private static boolean startsWith(final CharSequence s, final int offset, final String prefix) {
+        if (offset + prefix.length() > s.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (s.charAt(offset + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // buffer for copying ranges of char sequences, reused by the instance
+    private char[] chars;
+
     protected HtmlSerializer(final CleanerProperties props) {
         super(props);
     }
@@ -77,98 +108,140 @@ public abstract class HtmlSerializer extends Serializer {
     }
 
     protected String escapeText(String s) {
+        if (s != null) {
+            final StringWriter writer = new StringWriter(s.length());
+            try {
+                escapeText(s, writer);
+            } catch (final IOException e) {
+                // should never happen because writing to a StringWriter
+                throw new HtmlCleanerException(e);
+            }
+            return writer.toString();
+        }
+
+        return null;
+    }
+
+    /**
+     * Writes the specified text escaped to the writer. Ranges of the text
+     * which need no escaping are copied as they are, without creating
+     * intermediate strings.
+     * 
+     * @param s
+     * @param writer
+     * @throws IOException
+     */
+    protected void escapeText(final CharSequence s, final Writer writer) throws IOException {
         final boolean recognizeUnicodeChars = props.isRecognizeUnicodeChars();
         final boolean translateSpecialEntities = props.isTranslateSpecialEntities();
-
-        if (s != null) {
-            final int len = s.length();
-            final StringBuilder result = new StringBuilder(len);
-
-            for (int i = 0; i < len; i++) {
-                char ch = s.charAt(i);
-
-                if (ch == '&') {
-                    if (i < len - 2 && s.charAt(i + 1) == '#') {
-                        boolean isHex = Character.toLowerCase(s.charAt(i + 2)) == 'x';
-                        int charIndex = i + (isHex ? 3 : 2);
-                        int radix = isHex ? 16 : 10;
-                        String unicode = "";
-                        while (charIndex < len) {
-                            char currCh = s.charAt(charIndex);
-                            if (currCh == ';') {
-                                break;
-                            } else if (Utils.isValidInt(unicode + currCh, radix)) {
-                                unicode += currCh;
-                                charIndex++;
-                            } else {
-                                charIndex--;
-                                break;
-                            }
+        final boolean transResCharsToNCR = props.isTransResCharsToNCR();
+        final int len = s.length();
+        // start of the characters not written yet
+        int start = 0;
+
+        for (int i = 0; i < len; i++) {
+            final char ch = s.charAt(i);
+
+            if (ch == '&') {
+                write(s, start, i, writer);
+                if (i < len - 2 && s.charAt(i + 1) == '#') {
+                    final boolean isHex = Character.toLowerCase(s.charAt(i + 2)) == 'x';
+                    final int radix = isHex ? 16 : 10;
+                    final int unicodeStart = i + (isHex ? 3 : 2);
+                    int unicodeEnd = unicodeStart;
+                    int charIndex = unicodeStart;
+                    long unicode = 0;
+                    while (charIndex < len) {
+                        final char currCh = s.charAt(charIndex);
+                        final int digit = Character.digit(currCh, radix);
+                        if (currCh == ';') {
+                            break;
+                        } else if (digit >= 0 && unicode * radix + digit <= Integer.MAX_VALUE) {
+                            unicode = unicode * radix + digit;
+                            unicodeEnd++;
+                            charIndex++;
+                        } else {
+                            charIndex--;
+                            break;
                         }
+                    }
 
-                        if (Utils.isValidInt(unicode, radix)) {
-                            char unicodeChar = (char) Integer.parseInt(unicode, radix);
-                            if (!Utils.isValidXmlChar(unicodeChar)) {
-                                i = charIndex;
-                            } else if (!Utils.isReservedXmlChar(unicodeChar)) {
-                                result.append(recognizeUnicodeChars ? String.valueOf(unicodeChar) : "&#" + unicode
-                                        + ";");
-                                i = charIndex;
-                            } else {
-                                i = charIndex;
-                                result.append("&#" + unicode + ";");
-                            }
+                    if (unicodeEnd > unicodeStart) {
+                        final char unicodeChar = (char) unicode;
+                        if (!Utils.isValidXmlChar(unicodeChar)) {
+                            i = charIndex;
+                        } else if (!Utils.isReservedXmlChar(unicodeChar) && recognizeUnicodeChars) {
+                            writer.write(unicodeChar);
+                            i = charIndex;
                         } else {
-                            result.append(props.isTransResCharsToNCR() ? "&#" + (int) '&' + ";" : "&");
+                            writer.write("&#");
+                            write(s, unicodeStart, unicodeEnd, writer);
+                            writer.write(';');
+                            i = charIndex;
                         }
+                    } else if (transResCharsToNCR) {
+                        writeDecimalNCR('&', writer);
                     } else {
-                        // get minimal following sequence required to recognize
-                        // some special entitiy
-                        String seq = s.substring(i, i + Math.min(SpecialEntity.getMaxEntityLength() + 2, len - i));
-                        int semiIndex = seq.indexOf(';');
-                        if (semiIndex > 0) {
-                            String entityKey = seq.substring(1, semiIndex);
-                            SpecialEntity entity = SpecialEntity.getEntity(entityKey);
-                            if (entity != null) {
-                                if (translateSpecialEntities) {
-                                    result.append(props.isTransSpecialEntitiesToNCR() ? entity.getDecimalNCR() : entity
-                                            .getCharacter());
-                                } else {
-                                    result.append(entity.getEscapedValue());
-                                }
-
-                                i += entityKey.length() + 1;
-                                continue;
-                            }
+                        writer.write('&');
+                    }
+                } else {
+                    // get minimal following sequence required to recognize
+                    // some special entitiy
+                    final int seqEnd = i + Math.min(SpecialEntity.getMaxEntityLength() + 2, len - i);
+                    int semiIndex = i + 1;
+                    while (semiIndex < seqEnd && s.charAt(semiIndex) != ';') {
+                        semiIndex++;
+                    }
+                    final SpecialEntity entity = (semiIndex < seqEnd) ? SpecialEntity.getEntity(s.subSequence(
+                            i + 1, semiIndex).toString()) : null;
+                    if (entity != null) {
+                        if (!translateSpecialEntities) {
+                            writer.write('&');
+                            writer.write(entity.getKey());
+                            writer.write(';');
+                        } else if (props.isTransSpecialEntitiesToNCR()) {
+                            writeDecimalNCR(entity.getIntCode(), writer);
+                        } else {
+                            writer.write(entity.getCharacter());
                         }
-
-                        String sub = s.substring(i);
+                        i = semiIndex;
+                    } else {
                         boolean isReservedSeq = false;
                         for (int j = 0; j < Utils.RESERVED_XML_CHARS_LIST.length; j++) {
                             final char currentChar = Utils.RESERVED_XML_CHARS_LIST[j];
-                            seq = Utils.RESERVED_XML_CHARS[currentChar];
-                            if (sub.startsWith(seq)) {
-                                result.append(props.isTransResCharsToNCR() ? "&#" + (int) currentChar + ";" : seq);
+                            final String seq = Utils.RESERVED_XML_CHARS[currentChar];
+                            if (startsWith(s, i, seq)) {
+                                if (transResCharsToNCR) {
+                                    writeDecimalNCR(currentChar, writer);
+                                } else {
+                                    writer.write(seq);
+                                }
                                 i += seq.length() - 1;
                                 isReservedSeq = true;
                                 break;
                             }
                         }
                         if (!isReservedSeq) {
-                            result.append(props.isTransResCharsToNCR() ? "&#" + (int) '&' + ";" : "&");
+                            if (transResCharsToNCR) {
+                                writeDecimalNCR('&', writer);
+                            } else {
+                                writer.write('&');
+                            }
                         }
                     }
-                } else if (Utils.isReservedXmlChar(ch)) {
-                    result.append(props.isTransResCharsToNCR() ? "&#" + (int) ch + ";" : ch);
-                } else {
-                    result.append(ch);
                 }
+                start = i + 1;
+            } else if (Utils.isReservedXmlChar(ch) && transResCharsToNCR) {
+                write(s, start, i, writer);
+                writeDecimalNCR(ch, writer);
+                start = i + 1;
             }
-
-            return result.toString();
         }
 
-        return null;
+        // a reference at the end may leave start past it
+        if (start < len) {
+            write(s, start, len, writer);
+        }
     }
 
     protected void serializeOpenTag(TagNode tagNode, Writer writer, boolean newLine) throws IOException {
@@ -184,13 +257,14 @@ public abstract class HtmlSerializer extends Serializer {
             tagName = Utils.getXmlName(tagName);
         }
 
-        writer.write("<" + tagName);
+        writer.write('<');
+        writer.write(tagName);
         for (Map.Entry<String, String> entry : tagNode.getAttributes().entrySet()) {
             String attName = entry.getKey();
             if (!nsAware && Utils.getXmlNSPrefix(attName) != null) {
                 attName = Utils.getXmlName(attName);
             }
-            writer.write(" " + attName + "=\"" + escapeText(entry.getValue()) + "\"");
+            writeAttribute(attName, entry.getValue(), writer);
         }
 
         if (nsAware) {
@@ -202,7 +276,7 @@ public abstract class HtmlSerializer extends Serializer {
                     if (prefix.length() > 0) {
                         att += ":" + prefix;
                     }
-                    writer.write(" " + att + "=\"" + escapeText(entry.getValue()) + "\"");
+                    writeAttribute(att, entry.getValue(), writer);
                 }
             }
         }
@@ -210,10 +284,10 @@ public abstract class HtmlSerializer extends Serializer {
         if (isMinimizedTagSyntax(tagNode)) {
             writer.write(" />");
             if (newLine) {
-                writer.write("\n");
+                writer.write('\n');
             }
         } else {
-            writer.write(">");
+            writer.write('>');
         }
     }
 
@@ -228,10 +302,57 @@ public abstract class HtmlSerializer extends Serializer {
             tagName = Utils.getXmlName(tagName);
         }
 
-        writer.write("</" + tagName + ">");
+        writer.write("</");
+        writer.write(tagName);
+        writer.write('>');
         if (newLine) {
-            writer.write("\n");
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * Writes the characters of the specified sequence from start to end,
+     * copying them through a buffer reused by this serializer.
+     * 
+     * @param s
+     * @param start
+     * @param end
+     * @param writer
+     * @throws IOException
+     */
+    protected void write(final CharSequence s, final int start, final int end, final Writer writer)
+            throws IOException {
+        if (s instanceof String) {
+            writer.write((String) s, start, end - start);
+            return;
+        }
+
+        if (chars == null) {
+            chars = new char[1024];
+        }
+        for (int i = start; i < end; i += chars.length) {
+            final int count = Math.min(end - i, chars.length);
+            if (s instanceof StringBuilder) {
+                ((StringBuilder) s).getChars(i, i + count, chars, 0);
+            } else {
+                for (int j = 0; j < count; j++) {
+                    chars[j] = s.charAt(i + j);
+                }
+            }
+            writer.write(chars, 0, count);
+        }
+    }
+
+    private void writeAttribute(final String name, final String value, final Writer writer) throws IOException {
+        writer.write(' ');
+        writer.write(name);
+        writer.write("=\"");
+        if (value != null) {
+            escapeText(value, writer);
+        } else {
+            writer.write("null");
         }
+        writer.write('"');
     }
 
 }
@@ -89,6 +89,8 @@ abstract public class HtmlTokenizer {
     private boolean isAllowHtmlInsideAttributes;
     private CleanerTransformations transformations;
     private ITagInfoProvider tagInfoProvider;
+    // looks known names up without making strings, if the provider can
+    final private DefaultTagProvider tagNames;
     private StringBuilder commonStr = new StringBuilder();
 
     /**
@@ -115,6 +117,8 @@ abstract public class HtmlTokenizer {
         this.isAllowHtmlInsideAttributes = props.isAllowHtmlInsideAttributes();
         this.transformations = transformations;
         this.tagInfoProvider = tagInfoProvider;
+        this.tagNames = (tagInfoProvider instanceof DefaultTagProvider) ? (DefaultTagProvider) tagInfoProvider
+                : null;
     }
 
     private boolean addSavedAsContent() {
@@ -305,6 +309,13 @@ abstract public class HtmlTokenizer {
             return null;
         }
 
+        if (tagNames != null) {
+            final String tagName = tagNames.getTagName(commonStr);
+            if (tagName != null) {
+                return tagName;
+            }
+        }
+
         String id = commonStr.toString();
 
         final int columnIndex = id.indexOf(':');
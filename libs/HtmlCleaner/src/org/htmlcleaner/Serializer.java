@@ -142,6 +142,14 @@ public abstract class Serializer {
         return writer.getBuffer().toString();
     }
 
+    /**
+     * @param writer
+     * @return Whether the writer needs no BufferedWriter in front of it
+     */
+    protected boolean isBuffered(final Writer writer) {
+        return writer instanceof BufferedWriter || writer instanceof StringWriter;
+    }
+
     protected boolean isScriptOrStyle(final TagNode tagNode) {
         final String tagName = tagNode.getName();
         return "script".equalsIgnoreCase(tagName) || "style".equalsIgnoreCase(tagName);
@@ -182,7 +190,9 @@ public abstract class Serializer {
         if (omitEnvelope) {
             tagNode = new HeadlessTagNode(tagNode);
         }
-        writer = new BufferedWriter(writer);
+        if (!isBuffered(writer)) {
+            writer = new BufferedWriter(writer);
+        }
         if (!props.isOmitXmlDeclaration()) {
             String declaration = "<?xml version=\"1.0\"";
             if (charset != null) {
@@ -0,0 +1,109 @@
+package perf;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import org.htmlcleaner.FastHtmlSerializer;
+import org.htmlcleaner.HtmlCleaner;
+import org.htmlcleaner.TagNode;
+
+/**
+ * Manual performance test checking that cleaning time grows linearly with the
+ * size of the document. Documents from 1 KB to 5 MB are built from the same
+ * snippet, which leaves elements open so that the nesting gets deeper as the
+ * document grows, as it does in badly formed articles. Time per KB should stay
+ * roughly the same for every size; the test fails if the largest document
+ * takes more than MAX_SLOWDOWN times as long per KB as the smallest timed one.
+ * Time spent collecting garbage is not counted.
+ */
+public class ManualCleanScalingTest {
+    private final static int[] SIZES = { 1 << 10, 4 << 10, 16 << 10, 64 << 10, 256 << 10, 1 << 20, 5 << 20 };
+    private final static int REPEAT_BYTES = 16 << 20;
+    private final static double MAX_SLOWDOWN = 1.5;
+
+    public static void main(final String[] args) throws Exception {
+        new ManualCleanScalingTest().test();
+    }
+
+    private static String generateDocument(final int len) {
+        final StringBuilder sb = new StringBuilder(len + 256);
+        int counter = 0;
+        while (sb.length() < len) {
+            counter++;
+            sb.append("<div class=\"c").append(counter % 7).append("\"><p>Paragraph ").append(counter)
+                    .append(" with <b>bold</b>, <i>italic <u>and</i> misnested</u> text &amp; a <a href=\"http://example.com/")
+                    .append(counter).append("?a=1&b=2\">link</a>.<br>");
+            if ((counter % 3) == 0) {
+                sb.append("<ul><li>one<li>two<li>three</ul>");
+            }
+            if ((counter % 5) == 0) {
+                sb.append("<table><tr><td>cell<td>cell</table>");
+            }
+            if ((counter % 2) == 0) {
+                // closes the div, so every other one is left open
+                sb.append("</p></div>");
+            }
+            if ((counter % 11) == 0) {
+                sb.append("</span></em>");
+            }
+        }
+        return sb.toString();
+    }
+
+    private static long getCollectionTime() {
+        long ret = 0;
+        for (final GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ret += Math.max(0, bean.getCollectionTime());
+        }
+        return ret;
+    }
+
+    /**
+     * @return the time taken to clean the document in nanoseconds, leaving out
+     *         the time spent collecting garbage, which depends on the heap
+     *         settings rather than on the cleaner
+     */
+    private long clean(final HtmlCleaner cleaner, final String html) throws IOException {
+        System.gc();
+        final long collectionTime = getCollectionTime();
+        final long start = System.nanoTime();
+        final TagNode node = cleaner.clean(html);
+        final long time = System.nanoTime() - start - (getCollectionTime() - collectionTime) * 1000000;
+        // keeps the tree reachable, and checks that it is deep and serializable
+        new FastHtmlSerializer(cleaner.getProperties()).getAsString(node);
+        return time;
+    }
+
+    private void test() throws IOException {
+        final HtmlCleaner cleaner = new HtmlCleaner();
+        // warm up
+        final String warmup = generateDocument(256 << 10);
+        for (int i = 0; i < 20; i++) {
+            clean(cleaner, warmup);
+        }
+
+        double firstRate = 0.0;
+        double lastRate = 0.0;
+        for (final int size : SIZES) {
+            final String html = generateDocument(size);
+            final int repeat = Math.max(1, REPEAT_BYTES / html.length());
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < repeat; i++) {
+                best = Math.min(best, clean(cleaner, html));
+            }
+            final double rate = best / 1000.0 / (html.length() / 1024.0);
+            System.out.printf("%8d KB: %10.2f ms, %8.1f us/KB\n", html.length() >> 10, best / 1000000.0, rate);
+            if (firstRate == 0.0 && size >= (16 << 10)) {
+                // smaller documents are too fast to be timed reliably
+                firstRate = rate;
+            }
+            lastRate = rate;
+        }
+        final double slowdown = lastRate / firstRate;
+        System.out.printf("Slowdown per KB from 16 KB to 5 MB: %.2f\n", slowdown);
+        if (slowdown > MAX_SLOWDOWN) {
+            throw new IllegalStateException("Cleaning time does not grow linearly");
+        }
+    }
+}